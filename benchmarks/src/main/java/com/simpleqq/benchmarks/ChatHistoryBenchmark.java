@@ -0,0 +1,48 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.server.Server;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天记录持久化基准测试
+ * 测量Server.saveChatMessage追加写入一条私聊或群聊记录的开销（每次调用都会打开、写入并关闭文件）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatHistoryBenchmark {
+    @Param({"TEXT_MESSAGE", "GROUP_MESSAGE", "IMAGE_MESSAGE"})
+    public MessageType type;                  // 消息类型
+
+    private SyntheticDataset dataset;         // 合成数据集
+    private Server server;                    // 被测服务器实例（不监听端口）
+    private Message message;                  // 待保存的消息
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticDataset.silenceStdout();
+        dataset = new SyntheticDataset(100, 10, 10, 20, SyntheticDataset.DEFAULT_SEED);
+        server = new Server(0, null, dataset.getDataDir());
+        String receiver = type == MessageType.GROUP_MESSAGE ? "g1" : "u2";
+        String content = type == MessageType.IMAGE_MESSAGE ? "photo.png|" + "A".repeat(4096) : "hello from the benchmark";
+        message = new Message(type, "u1", receiver, content);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public void saveChatMessage() {
+        server.saveChatMessage(message);
+    }
+}
@@ -0,0 +1,61 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.server.GroupManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 群组管理器基准测试
+ * 测量查询用户所在群组（getUserGroups）和群成员列表（getGroupMembers）在不同群组规模下的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GroupManagerBenchmark {
+    private static final int SAMPLES = 1024;  // 预先挑选的查询参数数量
+
+    @Param({"10000"})
+    public int userCount;                     // 用户数量
+
+    @Param({"100", "1000"})
+    public int groupCount;                    // 群组数量
+
+    @Param({"20", "500"})
+    public int groupSize;                     // 每个群组的成员数量
+
+    private SyntheticDataset dataset;         // 合成数据集
+    private GroupManager groupManager;        // 被测群组管理器
+    private String[] userIds;                 // 查询的用户ID
+    private String[] groupIds;                // 查询的群组ID
+    private int cursor;                       // 查询参数游标
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticDataset.silenceStdout();
+        dataset = new SyntheticDataset(userCount, 0, groupCount, groupSize, SyntheticDataset.DEFAULT_SEED);
+        groupManager = new GroupManager(dataset.getDataDir());
+        userIds = dataset.sampleUserIds(SAMPLES);
+        groupIds = dataset.sampleGroupIds(SAMPLES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public List<String> getUserGroups() {
+        return groupManager.getUserGroups(userIds[cursor++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public List<String> getGroupMembers() {
+        return groupManager.getGroupMembers(groupIds[cursor++ & (SAMPLES - 1)]);
+    }
+}
@@ -0,0 +1,102 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.common.PayloadWriter;
+import com.simpleqq.common.UserListView;
+import com.simpleqq.server.ListPayloadCache;
+import com.simpleqq.server.ListVersions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 列表数据编码基准测试
+ * 对比好友列表、群成员列表的两种编码方式：
+ * - 旧格式：StringBuilder拼接 id:username:status; 字符串，客户端用split解析
+ * - 二进制格式：PayloadWriter直接编码，客户端用UserListView原地读取
+ * 以及列表未变化时从服务器的ListPayloadCache取已编码数据的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ListPayloadBenchmark {
+    @Param({"50", "500", "5000"})
+    public int users;                        // 列表中的用户数
+
+    private String[] ids;                    // 用户ID
+    private String[] usernames;              // 用户名
+    private boolean[] online;                // 在线状态
+    private String encodedString;            // 预先编码好的旧格式字符串
+    private byte[] encodedPayload;           // 预先编码好的二进制数据
+    private ListVersions versions;           // 列表版本号
+    private ListPayloadCache cache;          // 已编码列表数据缓存
+
+    @Setup
+    public void setup() {
+        ids = new String[users];
+        usernames = new String[users];
+        online = new boolean[users];
+        for (int i = 0; i < users; i++) {
+            ids[i] = SyntheticDataset.userId(i);
+            usernames[i] = "用户" + i;
+            online[i] = i % 3 == 0;
+        }
+        encodedString = encodeString();
+        encodedPayload = encodePayload();
+        versions = new ListVersions();
+        cache = new ListPayloadCache(versions, 64L * 1024 * 1024);
+    }
+
+    @Benchmark
+    public String encodeString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < users; i++) {
+            sb.append(ids[i]).append(":").append(usernames[i]).append(":")
+              .append(online[i] ? "online" : "offline").append(";");
+        }
+        if (sb.length() > 0) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public byte[] encodePayload() {
+        PayloadWriter writer = new PayloadWriter(32 + users * 24);
+        int mark = writer.beginList();
+        for (int i = 0; i < users; i++) {
+            UserListView.write(writer, ids[i], usernames[i], online[i]);
+        }
+        writer.endList(mark, users);
+        return writer.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] cachedPayload() {
+        return cache.get(ListVersions.Kind.MEMBERS, "g1", versions.current(ListVersions.Kind.MEMBERS, "g1"),
+                this::encodePayload);
+    }
+
+    @Benchmark
+    public void decodeString(Blackhole bh) {
+        for (String info : encodedString.split(";")) {
+            String[] parts = info.split(":");
+            bh.consume(parts[0]);
+            bh.consume(parts[1]);
+            bh.consume("online".equals(parts[2]));
+        }
+    }
+
+    @Benchmark
+    public void decodePayload(Blackhole bh) {
+        UserListView view = new UserListView(encodedPayload, 0);
+        for (int i = 0; i < view.size(); i++) {
+            bh.consume(view.getId(i));
+            bh.consume(view.getUsername(i));
+            bh.consume(view.isOnline(i));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.common.User;
+import com.simpleqq.server.UserManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录基准测试
+ * 测量不同迭代次数下PBKDF2密码校验的耗时，用于选择 -Dsimpleqq.password.iterations；
+ * 校验线程数除以单次登录耗时即为服务器每秒可处理的登录数上限
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginBenchmark {
+    private static final int SAMPLES = 64;    // 预先挑选的登录用户数量
+
+    @Param({"10000", "210000"})
+    public int iterations;                    // 密码散列迭代次数
+
+    private SyntheticDataset dataset;         // 合成数据集
+    private UserManager userManager;          // 被测用户管理器
+    private String[] userIds;                 // 登录使用的用户ID
+    private int cursor;                       // 用户游标
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticDataset.silenceStdout();
+        System.setProperty("simpleqq.password.iterations", String.valueOf(iterations));
+        dataset = new SyntheticDataset(1000, 20, 1, 2, SyntheticDataset.DEFAULT_SEED);
+        userManager = new UserManager(dataset.getDataDir());
+        userIds = dataset.sampleUserIds(SAMPLES);
+        for (String id : userIds) {
+            userManager.login(id, password(id)); // 合成数据是明文密码，先登录一次改写为散列值
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataset.delete();
+    }
+
+    private static String password(String id) {
+        return "pw" + id.substring(1);
+    }
+
+    @Benchmark
+    public User login() {
+        String id = userIds[cursor++ & (SAMPLES - 1)];
+        return userManager.login(id, password(id));
+    }
+
+    @Benchmark
+    public User loginWrongPassword() {
+        return userManager.login(userIds[cursor++ & (SAMPLES - 1)], "wrong");
+    }
+
+    @Benchmark
+    public User loginUnknownUser() {
+        return userManager.login("nobody" + (cursor++ & (SAMPLES - 1)), "wrong");
+    }
+}
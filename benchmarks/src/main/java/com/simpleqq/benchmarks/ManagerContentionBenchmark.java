@@ -0,0 +1,102 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.common.User;
+import com.simpleqq.server.GroupManager;
+import com.simpleqq.server.UserManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 用户管理器、群组管理器并发修改基准测试
+ * 每个线程只操作属于自己的用户和群组，测量不相关的操作能否并行执行；
+ * 分别用 -t 1、-t 4、-t 8 等线程数运行，比较总吞吐量随线程数的变化
+ *
+ * 每个操作都会改回初始状态：好友请求-接受-删除、群组邀请-拒绝，数据文件大小在测量期间保持不变
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ManagerContentionBenchmark {
+    private static final int PAIRS_PER_THREAD = 16;  // 每个线程轮流使用的用户对数量
+    private static final int SAMPLES = 1024;         // 预先挑选的登录用户数量
+
+    @Param({"10000"})
+    public int userCount;                            // 数据集中已有的用户数量
+
+    private SyntheticDataset dataset;                // 合成数据集
+    private UserManager userManager;                 // 被测用户管理器
+    private GroupManager groupManager;               // 被测群组管理器
+    private String[] loginIds;                       // 登录使用的用户ID
+    private final AtomicInteger threadSequence = new AtomicInteger(); // 为各线程分配互不相同的用户
+
+    /**
+     * 单个测量线程独占的用户和群组
+     */
+    @State(Scope.Thread)
+    public static class Worker {
+        String[] requesters;                         // 发起好友请求、加入群组的用户
+        String[] acceptors;                          // 接受好友请求的用户
+        String groupId;                              // 该线程的群组
+        int cursor;                                  // 用户对游标
+
+        @Setup
+        public void setup(ManagerContentionBenchmark bench) {
+            int t = bench.threadSequence.getAndIncrement();
+            requesters = new String[PAIRS_PER_THREAD];
+            acceptors = new String[PAIRS_PER_THREAD];
+            for (int i = 0; i < PAIRS_PER_THREAD; i++) {
+                requesters[i] = "bt" + t + "a" + i;
+                acceptors[i] = "bt" + t + "b" + i;
+                bench.userManager.registerUser(requesters[i], requesters[i], "pw");
+                bench.userManager.registerUser(acceptors[i], acceptors[i], "pw");
+            }
+            groupId = "btg" + t;
+            bench.groupManager.createGroup(groupId, acceptors[0]);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticDataset.silenceStdout();
+        // 本测试关注锁竞争，把密码散列的迭代次数降到最低，散列本身的开销见 LoginBenchmark
+        System.setProperty("simpleqq.password.iterations", "1");
+        dataset = new SyntheticDataset(userCount, 20, 100, 20, SyntheticDataset.DEFAULT_SEED);
+        userManager = new UserManager(dataset.getDataDir());
+        groupManager = new GroupManager(dataset.getDataDir());
+        loginIds = dataset.sampleUserIds(SAMPLES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public User login(Worker worker) {
+        String id = loginIds[worker.cursor++ & (SAMPLES - 1)];
+        return userManager.login(id, "pw" + id.substring(1));
+    }
+
+    @Benchmark
+    public boolean friendRequestCycle(Worker worker) {
+        int i = worker.cursor++ & (PAIRS_PER_THREAD - 1);
+        String a = worker.requesters[i];
+        String b = worker.acceptors[i];
+        return userManager.sendFriendRequest(a, b)
+                & userManager.acceptFriendRequest(b, a)
+                & userManager.deleteFriend(a, b);
+    }
+
+    @Benchmark
+    public boolean groupInviteCycle(Worker worker) {
+        String invited = worker.requesters[worker.cursor++ & (PAIRS_PER_THREAD - 1)];
+        return groupManager.sendGroupInvite(worker.acceptors[0], invited, worker.groupId)
+                & groupManager.rejectGroupInvite(invited, worker.groupId);
+    }
+}
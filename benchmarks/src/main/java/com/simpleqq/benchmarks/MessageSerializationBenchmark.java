@@ -0,0 +1,78 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息序列化基准测试
+ * 测量Message对象经Java序列化编码、解码一次往返的开销，
+ * 与服务器和客户端之间的传输方式一致（每条消息写入后reset）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageSerializationBenchmark {
+    @Param({"TEXT_MESSAGE", "GROUP_MESSAGE", "IMAGE_MESSAGE"})
+    public MessageType type;                 // 消息类型
+
+    @Param({"32", "1024", "65536"})
+    public int contentLength;                // 消息内容长度（图片消息为Base64数据长度）
+
+    private Message message;                 // 待序列化的消息
+    private byte[] encoded;                  // 预先编码好的字节，用于单独测量解码
+    private ByteArrayOutputStream buffer;    // 复用的编码缓冲区
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(SyntheticDataset.DEFAULT_SEED);
+        StringBuilder content = new StringBuilder(contentLength);
+        for (int i = 0; i < contentLength; i++) {
+            content.append((char) ('a' + random.nextInt(26)));
+        }
+        message = new Message(type, "u1", type == MessageType.GROUP_MESSAGE ? "g1" : "u2", content.toString());
+        message.setMessageId(1_700_000_000_000_000L);
+        buffer = new ByteArrayOutputStream(contentLength + 512);
+        encoded = encode();
+    }
+
+    private byte[] encode() throws IOException {
+        buffer.reset();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(message);
+        }
+        return buffer.toByteArray();
+    }
+
+    private Message decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Message) in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return encode();
+    }
+
+    @Benchmark
+    public Message deserialize() throws IOException, ClassNotFoundException {
+        return decode(encoded);
+    }
+
+    @Benchmark
+    public Message roundTrip() throws IOException, ClassNotFoundException {
+        return decode(encode());
+    }
+}
@@ -0,0 +1,173 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.server.ClientHandler;
+import com.simpleqq.server.PresenceRegistry;
+import com.simpleqq.server.Server;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 群消息在线成员扇出基准测试
+ * 大群中只有一部分成员在线，比较两种找出在线接收者的方式把一条群消息发送给全部在线成员的开销：
+ * 逐个查询全部成员是否在线，以及只遍历群组管理器维护的在线成员；
+ * 不包括为离线成员保存离线消息。回环连接上的序列化和写入开销远大于查找本身，
+ * 因此另外单独测量只找出在线接收者、不发送消息的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OnlineMemberFanoutBenchmark {
+    @Param({"1000", "10000"})
+    public int groupSize;                     // 群组成员数量
+
+    @Param({"0.02", "0.1"})
+    public double onlineRatio;                // 在线成员比例
+
+    private SyntheticDataset dataset;         // 合成数据集
+    private Server server;                    // 被测服务器实例（不监听客户端端口）
+    private ServerSocket acceptor;            // 用于建立回环连接
+    private final List<Socket> clientSockets = new ArrayList<>(); // 模拟客户端一侧的连接
+    private List<String> members;             // 群成员ID列表（第一个成员为发送者）
+    private Message message;                  // 待扇出的群消息
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticDataset.silenceStdout();
+        // 只比较查找在线接收者的方式，所有群组都在调用线程中发送，不使用分片扇出
+        System.setProperty("simpleqq.fanout.threshold", String.valueOf(Integer.MAX_VALUE));
+        // 唯一的群组g0包含全部用户
+        dataset = new SyntheticDataset(groupSize, 0, 1, groupSize, SyntheticDataset.DEFAULT_SEED);
+        server = new Server(0, null, dataset.getDataDir());
+        int online = (int) Math.round(groupSize * onlineRatio);
+        acceptor = new ServerSocket(0, online, InetAddress.getLoopbackAddress());
+        members = server.getGroupManager().getGroupMembers("g0");
+        // 在线成员均匀分布在成员列表中，发送者不在线
+        for (int i = 1; i <= online; i++) {
+            server.addOnlineClient(members.get((int) ((long) i * (groupSize - 1) / online)), connect());
+        }
+        message = new Message(MessageType.GROUP_MESSAGE, members.get(0), "g0", "x".repeat(64));
+        // 消息ID固定不变，每个连接的未确认窗口中始终只有这一条，不会溢出到离线存储
+        message.setMessageId(1L);
+    }
+
+    /**
+     * 建立一条回环连接并在服务器一侧创建客户端处理器
+     * @return 客户端处理器
+     */
+    private ClientHandler connect() throws IOException {
+        Socket client = new Socket(acceptor.getInetAddress(), acceptor.getLocalPort());
+        client.setTcpNoDelay(true);
+        new ObjectOutputStream(client.getOutputStream()).flush();
+        Socket accepted = acceptor.accept();
+        accepted.setTcpNoDelay(true);
+        clientSockets.add(client);
+        Thread drainer = new Thread(() -> discard(client), "fanout-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        ClientHandler handler = new ClientHandler(accepted, server);
+        handler.start(); // 处理器线程创建对象流后阻塞在读取上，客户端一侧不发送任何消息
+        while (handler.getOos() == null) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        return handler;
+    }
+
+    /**
+     * 读取并丢弃服务器发往该连接的所有数据
+     * @param client 客户端一侧的连接
+     */
+    private static void discard(Socket client) {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = client.getInputStream()) {
+            while (in.read(buffer) >= 0) {
+                // 丢弃
+            }
+        } catch (IOException e) {
+            // 连接关闭，结束线程
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Socket socket : clientSockets) {
+            socket.close();
+        }
+        acceptor.close();
+        dataset.delete();
+    }
+
+    /**
+     * 原来的做法：逐个成员查询在线状态注册表
+     */
+    @Benchmark
+    public int perMemberLookup() throws IOException {
+        PresenceRegistry presence = server.getPresence();
+        int delivered = 0;
+        for (String memberId : members) {
+            if (!memberId.equals(message.getSenderId())) {
+                ClientHandler handler = presence.get(memberId);
+                if (handler != null) {
+                    handler.sendMessage(message);
+                    delivered++;
+                }
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * 只遍历群组的在线成员
+     */
+    @Benchmark
+    public int onlineMemberIndex() {
+        return server.deliverToOnlineMembers(message, members.size()).size();
+    }
+
+    /**
+     * 只找出在线接收者：逐个成员查询在线状态注册表
+     */
+    @Benchmark
+    public int selectByMemberLookup() {
+        PresenceRegistry presence = server.getPresence();
+        int recipients = 0;
+        for (String memberId : members) {
+            if (!memberId.equals(message.getSenderId()) && presence.get(memberId) != null) {
+                recipients++;
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * 只找出在线接收者：遍历群组的在线成员
+     */
+    @Benchmark
+    public int selectByOnlineIndex() {
+        int recipients = 0;
+        for (Map.Entry<String, ClientHandler> entry : server.getGroupManager().getOnlineMembers("g0").entrySet()) {
+            if (!entry.getKey().equals(message.getSenderId()) && entry.getValue() != null) {
+                recipients++;
+            }
+        }
+        return recipients;
+    }
+}
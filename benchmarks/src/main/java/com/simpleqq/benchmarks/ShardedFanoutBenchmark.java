@@ -0,0 +1,127 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+import com.simpleqq.server.ClientHandler;
+import com.simpleqq.server.FanoutEngine;
+import com.simpleqq.server.Server;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并行群消息扇出基准测试
+ * 所有群成员都通过本机回环连接在线，测量从开始扇出到最后一个成员写出消息的耗时，
+ * 比较在调用线程中依次发送（shards=1）与经由各接收者的出站队列在扇出线程池中并行发送的差别
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedFanoutBenchmark {
+    @Param({"500", "2000"})
+    public int groupSize;                     // 群组成员数量
+
+    @Param({"1", "4", "8"})
+    public int shards;                        // 扇出线程数，1表示在调用线程中发送
+
+    private SyntheticDataset dataset;         // 合成数据集
+    private Server server;                    // 被测服务器实例（不监听客户端端口）
+    private FanoutEngine engine;              // 被测扇出引擎
+    private ServerSocket acceptor;            // 用于建立回环连接
+    private final List<Socket> clientSockets = new ArrayList<>(); // 模拟客户端一侧的连接
+    private List<String> members;             // 群成员ID列表（第一个成员为发送者）
+    private Message message;                  // 待扇出的群消息
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticDataset.silenceStdout();
+        System.setProperty("simpleqq.fanout.shards", String.valueOf(shards));
+        System.setProperty("simpleqq.fanout.threshold", "0");
+        // 唯一的群组g0包含全部用户
+        dataset = new SyntheticDataset(groupSize + 1, 0, 1, groupSize + 1, SyntheticDataset.DEFAULT_SEED);
+        server = new Server(0, null, dataset.getDataDir());
+        engine = server.getFanoutEngine();
+        acceptor = new ServerSocket(0, groupSize + 1, InetAddress.getLoopbackAddress());
+        members = server.getGroupManager().getGroupMembers("g0");
+        for (int i = 1; i < members.size(); i++) {
+            server.addOnlineClient(members.get(i), connect()); // 第一个成员为发送者，不会收到自己的消息
+        }
+        message = new Message(MessageType.GROUP_MESSAGE, members.get(0), "g0", "x".repeat(64));
+        // 消息ID固定不变，每个连接的未确认窗口中始终只有这一条，不会溢出到离线存储
+        message.setMessageId(1L);
+    }
+
+    /**
+     * 建立一条回环连接并在服务器一侧创建客户端处理器
+     * @return 客户端处理器
+     */
+    private ClientHandler connect() throws IOException {
+        Socket client = new Socket(acceptor.getInetAddress(), acceptor.getLocalPort());
+        client.setTcpNoDelay(true);
+        new ObjectOutputStream(client.getOutputStream()).flush();
+        Socket accepted = acceptor.accept();
+        accepted.setTcpNoDelay(true);
+        clientSockets.add(client);
+        Thread drainer = new Thread(() -> discard(client), "fanout-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        ClientHandler handler = new ClientHandler(accepted, server);
+        handler.start(); // 处理器线程创建对象流后阻塞在读取上，客户端一侧不发送任何消息
+        while (handler.getOos() == null) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+        return handler;
+    }
+
+    /**
+     * 读取并丢弃服务器发往该连接的所有数据
+     * @param client 客户端一侧的连接
+     */
+    private static void discard(Socket client) {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = client.getInputStream()) {
+            while (in.read(buffer) >= 0) {
+                // 丢弃
+            }
+        } catch (IOException e) {
+            // 连接关闭，结束线程
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.clearProperty("simpleqq.fanout.shards");
+        System.clearProperty("simpleqq.fanout.threshold");
+        for (Socket socket : clientSockets) {
+            socket.close();
+        }
+        acceptor.close();
+        dataset.delete();
+    }
+
+    /**
+     * 扇出一条群消息并等待最后一个成员写出
+     */
+    @Benchmark
+    public void deliverToLastRecipient() {
+        server.deliverToGroup(message, members);
+        while (engine.getPendingFanouts() > 0) {
+            Thread.yield(); // 让出处理器给扇出线程
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.simpleqq.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 合成数据集类
+ * 按固定随机种子在临时目录中生成与服务器相同格式的用户、好友关系和群组文件，
+ * 保证每次运行基准测试时数据完全一致，结果可以互相比较
+ */
+public class SyntheticDataset {
+    public static final long DEFAULT_SEED = 20240601L;  // 默认随机种子
+
+    private final File dataDir;                         // 数据文件所在的临时目录
+    private final int userCount;                        // 用户数量
+    private final List<String> groupIds;                // 生成的群组ID列表
+    private final Random random;                        // 生成数据及挑选查询参数使用的随机数生成器
+
+    /**
+     * 构造函数
+     * 生成数据文件
+     * @param userCount 用户数量，用户ID为 u0 ~ u(N-1)
+     * @param friendsPerUser 每个用户的平均好友数量
+     * @param groupCount 群组数量
+     * @param groupSize 每个群组的成员数量
+     * @param seed 随机种子
+     * @throws IOException 写入数据文件失败时抛出
+     */
+    public SyntheticDataset(int userCount, int friendsPerUser, int groupCount, int groupSize, long seed) throws IOException {
+        this.dataDir = Files.createTempDirectory("simpleqq-bench").toFile();
+        this.userCount = userCount;
+        this.groupIds = new ArrayList<>();
+        this.random = new Random(seed);
+        writeUsers();
+        writeFriendships(friendsPerUser);
+        writeGroups(groupCount, groupSize);
+    }
+
+    /**
+     * 生成用户文件
+     * 文件格式：用户ID|用户名|密码
+     */
+    private void writeUsers() throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, "users.txt")))) {
+            for (int i = 0; i < userCount; i++) {
+                writer.write(userId(i) + "|User" + i + "|pw" + i);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * 生成好友关系文件
+     * 每条记录表示一对双向好友关系，因此每个用户只需生成一半的边
+     */
+    private void writeFriendships(int friendsPerUser) throws IOException {
+        Set<Long> edges = new HashSet<>();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, "friendships.txt")))) {
+            for (int i = 0; i < userCount; i++) {
+                for (int k = 0; k < friendsPerUser / 2; k++) {
+                    int j = random.nextInt(userCount);
+                    int a = Math.min(i, j);
+                    int b = Math.max(i, j);
+                    if (a != b && edges.add(((long) a << 32) | b)) {
+                        writer.write(userId(a) + "|" + userId(b));
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 生成群组文件
+     * 文件格式：群组ID|成员ID1|成员ID2|...
+     */
+    private void writeGroups(int groupCount, int groupSize) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, "groups.txt")))) {
+            for (int g = 0; g < groupCount; g++) {
+                String groupId = "g" + g;
+                groupIds.add(groupId);
+                Set<Integer> members = new HashSet<>();
+                while (members.size() < Math.min(groupSize, userCount)) {
+                    members.add(random.nextInt(userCount));
+                }
+                StringBuilder sb = new StringBuilder(groupId);
+                for (int member : members) {
+                    sb.append("|").append(userId(member));
+                }
+                writer.write(sb.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * 根据序号生成用户ID
+     * @param index 用户序号
+     * @return 用户ID
+     */
+    public static String userId(int index) {
+        return "u" + index;
+    }
+
+    /**
+     * 预先随机挑选一组用户ID，基准测试方法循环使用，避免在测量中调用随机数生成器
+     * @param count 数量
+     * @return 用户ID数组
+     */
+    public String[] sampleUserIds(int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = userId(random.nextInt(userCount));
+        }
+        return ids;
+    }
+
+    /**
+     * 预先随机挑选一组群组ID
+     * @param count 数量
+     * @return 群组ID数组
+     */
+    public String[] sampleGroupIds(int count) {
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = groupIds.get(random.nextInt(groupIds.size()));
+        }
+        return ids;
+    }
+
+    /**
+     * 获取数据文件所在目录
+     * @return 临时目录
+     */
+    public File getDataDir() {
+        return dataDir;
+    }
+
+    /**
+     * 删除临时目录及其中的所有文件
+     */
+    public void delete() {
+        File[] files = dataDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dataDir.delete();
+    }
+
+    /**
+     * 丢弃标准输出
+     * 服务器代码在热路径上打印大量日志，基准测试中仍然计入拼接字符串的开销，但不再刷屏
+     */
+    public static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,59 @@
+package com.simpleqq.benchmarks;
+
+import com.simpleqq.server.UserManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用户管理器基准测试
+ * 测量好友关系查询（areFriends、getFriends）在不同用户规模和好友数量下的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserManagerBenchmark {
+    private static final int SAMPLES = 1024;  // 预先挑选的查询参数数量
+
+    @Param({"1000", "10000"})
+    public int userCount;                     // 用户数量
+
+    @Param({"20", "200"})
+    public int friendsPerUser;                // 每个用户的平均好友数量
+
+    private SyntheticDataset dataset;         // 合成数据集
+    private UserManager userManager;          // 被测用户管理器
+    private String[] userIds;                 // 查询的用户ID
+    private String[] otherIds;                // 查询的另一方用户ID
+    private int cursor;                       // 查询参数游标
+
+    @Setup
+    public void setup() throws IOException {
+        SyntheticDataset.silenceStdout();
+        dataset = new SyntheticDataset(userCount, friendsPerUser, 1, 2, SyntheticDataset.DEFAULT_SEED);
+        userManager = new UserManager(dataset.getDataDir());
+        userIds = dataset.sampleUserIds(SAMPLES);
+        otherIds = dataset.sampleUserIds(SAMPLES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataset.delete();
+    }
+
+    @Benchmark
+    public boolean areFriends() {
+        int i = cursor++ & (SAMPLES - 1);
+        return userManager.areFriends(userIds[i], otherIds[i]);
+    }
+
+    @Benchmark
+    public List<String> getFriends() {
+        return userManager.getFriends(userIds[cursor++ & (SAMPLES - 1)]);
+    }
+}
@@ -1,14 +1,18 @@
 package com.simpleqq.client;
 
+import com.simpleqq.common.IdListView;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
 import com.simpleqq.common.User;
+import com.simpleqq.common.UserListView;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -20,18 +24,23 @@ import java.util.Map;
 public class ChatWindow extends JFrame {
     private Client client;                                    // 客户端连接对象
     private JTabbedPane tabbedPane;                          // 主标签页容器
-    private JList<String> friendList;                       // 好友列表组件
+    private JList<UserEntry> friendList;                    // 好友列表组件
     private JList<String> groupList;                        // 群组列表组件
-    private DefaultListModel<String> friendListModel;       // 好友列表数据模型
-    private DefaultListModel<String> groupListModel;        // 群组列表数据模型
+    private KeyedListModel<UserEntry> friendListModel;      // 好友列表数据模型，在线的排在前面
+    private KeyedListModel<String> groupListModel;          // 群组列表数据模型
+    private String selectedFriendId;                        // 好友列表当前选中的好友ID
+    private String selectedGroupId;                         // 群组列表当前选中的群组ID
+    private long friendListVersion;                         // 当前好友列表的版本号，0表示没有
+    private long groupListVersion;                          // 当前群组列表的版本号
+    private long pendingRequestsVersion;                    // 当前待处理请求列表的版本号
     private Map<String, SingleChatWindow> singleChatWindows; // 私聊窗口管理器
     private Map<String, GroupChatWindow> groupChatWindows;   // 群聊窗口管理器
 
     // 请求处理相关组件
     private JPanel requestPanel;                             // 请求处理面板
-    private DefaultListModel<String> friendRequestListModel; // 好友请求列表模型
+    private KeyedListModel<String> friendRequestListModel;  // 好友请求列表模型
     private JList<String> friendRequestList;                // 好友请求列表
-    private DefaultListModel<String> groupInviteListModel;  // 群组邀请列表模型
+    private KeyedListModel<String> groupInviteListModel;    // 群组邀请列表模型
     private JList<String> groupInviteList;                  // 群组邀请列表
 
     // 刷新按钮
@@ -106,19 +115,21 @@ public class ChatWindow extends JFrame {
      */
     private void setupFriendsTab() {
         JPanel friendsPanel = new JPanel(new BorderLayout());
-        friendListModel = new DefaultListModel<>();
+        friendListModel = new KeyedListModel<>(UserEntry::getId, UserEntry.PRESENCE_ORDER);
         friendList = new JList<>(friendListModel);
         friendList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         
-        // 好友列表选择事件：双击打开私聊窗口
+        // 好友列表选择事件：打开私聊窗口
+        // 好友上下线时选中项会随列表移动，选中的仍是同一好友时不重复打开
         friendList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
-                String selectedFriend = friendList.getSelectedValue();
-                if (selectedFriend != null && !selectedFriend.trim().isEmpty()) {
-                    // 从显示文本中提取好友ID（格式：ID username (status)）
-                    String friendId = selectedFriend.split(" ")[0];
+                UserEntry selectedFriend = friendList.getSelectedValue();
+                String friendId = selectedFriend != null ? selectedFriend.getId() : null;
+                if (friendId != null && !friendId.equals(selectedFriendId)) {
+                    selectedFriendId = friendId;
                     openSingleChatWindow(friendId);
                 }
+                selectedFriendId = friendId;
             }
         });
         
@@ -138,18 +149,21 @@ public class ChatWindow extends JFrame {
      */
     private void setupGroupsTab() {
         JPanel groupsPanel = new JPanel(new BorderLayout());
-        groupListModel = new DefaultListModel<>();
+        groupListModel = new KeyedListModel<>(groupId -> groupId, null);
         groupList = new JList<>(groupListModel);
         groupList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         
-        // 群组列表选择事件：双击打开群聊窗口
+        // 群组列表选择事件：打开群聊窗口，选中的仍是同一群组时不重复打开
         groupList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 String selectedGroup = groupList.getSelectedValue();
-                if (selectedGroup != null && !selectedGroup.trim().isEmpty()) {
-                    String groupId = selectedGroup.split(" ")[0];
+                String groupId = selectedGroup != null && !selectedGroup.trim().isEmpty()
+                        ? selectedGroup.split(" ")[0] : null;
+                if (groupId != null && !groupId.equals(selectedGroupId)) {
+                    selectedGroupId = groupId;
                     openGroupChatWindow(groupId);
                 }
+                selectedGroupId = groupId;
             }
         });
         
@@ -172,13 +186,13 @@ public class ChatWindow extends JFrame {
         JTabbedPane requestTabbedPane = new JTabbedPane();
 
         // 好友请求子标签页
-        friendRequestListModel = new DefaultListModel<>();
+        friendRequestListModel = new KeyedListModel<>(senderId -> senderId, null);
         friendRequestList = new JList<>(friendRequestListModel);
         friendRequestList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         requestTabbedPane.addTab("好友请求", new JScrollPane(friendRequestList));
 
         // 群组邀请子标签页
-        groupInviteListModel = new DefaultListModel<>();
+        groupInviteListModel = new KeyedListModel<>(invite -> invite, null);
         groupInviteList = new JList<>(groupInviteListModel);
         groupInviteList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         requestTabbedPane.addTab("群聊邀请", new JScrollPane(groupInviteList));
@@ -229,9 +243,9 @@ public class ChatWindow extends JFrame {
      * 删除当前选中的好友并关闭相关聊天窗口
      */
     private void deleteFriend() {
-        String selectedFriend = friendList.getSelectedValue();
-        if (selectedFriend != null && !selectedFriend.trim().isEmpty()) {
-            String friendId = selectedFriend.split(" ")[0];
+        UserEntry selectedFriend = friendList.getSelectedValue();
+        if (selectedFriend != null) {
+            String friendId = selectedFriend.getId();
             int confirm = JOptionPane.showConfirmDialog(this, 
                 "确定要删除好友 " + friendId + " 吗？", "删除好友", JOptionPane.YES_NO_OPTION);
             if (confirm == JOptionPane.YES_OPTION) {
@@ -262,21 +276,99 @@ public class ChatWindow extends JFrame {
      * 登录后立即获取好友列表、群组列表和待处理请求
      */
     private void requestInitialData() {
-        client.sendMessage(new Message(MessageType.FRIEND_LIST, client.getCurrentUser().getId(), "Server", ""));
-        client.sendMessage(new Message(MessageType.GET_GROUPS, client.getCurrentUser().getId(), "Server", ""));
-        client.sendMessage(new Message(MessageType.GET_PENDING_REQUESTS, client.getCurrentUser().getId(), "Server", ""));
+        requestList(MessageType.FRIEND_LIST, friendListVersion);
+        requestList(MessageType.GET_GROUPS, groupListVersion);
+        requestList(MessageType.GET_PENDING_REQUESTS, pendingRequestsVersion);
+    }
+
+    /**
+     * 请求列表数据
+     * 带上本地列表的版本号，列表未变化时服务器只回复LIST_NOT_MODIFIED
+     * @param type 列表请求的消息类型
+     * @param cachedVersion 本地列表的版本号，0表示没有
+     */
+    private void requestList(MessageType type, long cachedVersion) {
+        Message request = new Message(type, client.getCurrentUser().getId(), "Server", "");
+        request.setVersion(cachedVersion);
+        client.sendMessage(request);
     }
 
     /**
      * 设置消息监听器
-     * 处理从服务器接收到的各种消息类型
+     * 收到的消息经合批分发器每帧交给界面线程处理一次
      */
     private void setupMessageListener() {
-        client.setMessageListener(message -> {
-            SwingUtilities.invokeLater(() -> {
-                handleIncomingMessage(message);
-            });
-        });
+        InboundDispatcher dispatcher = new InboundDispatcher(this::handleIncomingBatch);
+        client.setMessageListener(dispatcher::submit);
+    }
+
+    /**
+     * 处理一批收到的消息
+     * 聊天消息按窗口分组，每个窗口只追加一次文本；好友列表、群组列表等整表刷新的消息只应用每种的最后一条，
+     * 被同批中更新的整表消息覆盖的直接跳过；其余消息按到达顺序逐条处理
+     * @param batch 按到达顺序排列的消息
+     */
+    private void handleIncomingBatch(List<Message> batch) {
+        Map<String, Integer> lastSnapshot = new HashMap<>(); // 整表消息的键 -> 本批中最后一条的下标
+        for (int i = 0; i < batch.size(); i++) {
+            String key = snapshotKey(batch.get(i));
+            if (key != null) {
+                lastSnapshot.put(key, i);
+            }
+        }
+
+        Map<SingleChatWindow, List<Message>> singleChats = new LinkedHashMap<>();
+        Map<GroupChatWindow, List<Message>> groupChats = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            switch (message.getType()) {
+                case TEXT_MESSAGE:
+                case IMAGE_MESSAGE:
+                    SingleChatWindow chatWindow = chatWindowFor(message);
+                    if (chatWindow != null) {
+                        singleChats.computeIfAbsent(chatWindow, w -> new ArrayList<>()).add(message);
+                    }
+                    break;
+                case GROUP_MESSAGE:
+                    GroupChatWindow groupWindow = openGroupChatWindow(message.getReceiverId());
+                    if (groupWindow != null) {
+                        groupChats.computeIfAbsent(groupWindow, w -> new ArrayList<>()).add(message);
+                    }
+                    break;
+                default:
+                    String key = snapshotKey(message);
+                    if (key == null || lastSnapshot.get(key) == i) {
+                        handleIncomingMessage(message);
+                    }
+            }
+        }
+
+        for (Map.Entry<SingleChatWindow, List<Message>> entry : singleChats.entrySet()) {
+            entry.getKey().displayMessages(entry.getValue());
+        }
+        for (Map.Entry<GroupChatWindow, List<Message>> entry : groupChats.entrySet()) {
+            entry.getKey().displayMessages(entry.getValue());
+        }
+    }
+
+    /**
+     * 获取整表刷新消息的键，同一个键的消息后到的完全覆盖先到的
+     * 群成员列表只有第一页是整表刷新，后续页追加到已加载的成员中，必须逐个处理
+     * @param message 收到的消息
+     * @return 键，不是整表刷新的消息返回null
+     */
+    private static String snapshotKey(Message message) {
+        switch (message.getType()) {
+            case FRIEND_LIST:
+            case GET_GROUPS:
+            case GET_PENDING_REQUESTS:
+                return message.getType().name();
+            case GET_GROUP_MEMBERS:
+                String cursor = message.getContent();
+                return cursor == null || cursor.isEmpty() ? message.getType().name() + "#" + message.getSenderId() : null;
+            default:
+                return null;
+        }
     }
 
     /**
@@ -287,7 +379,17 @@ public class ChatWindow extends JFrame {
     private void handleIncomingMessage(Message message) {
         switch (message.getType()) {
             case FRIEND_LIST:
-                updateFriendList(message.getContent());
+                updateFriendList(message.getPayload());
+                friendListVersion = message.getVersion();
+                break;
+            case LIST_NOT_MODIFIED:
+                // 本地列表已是最新；成员列表需要通知群聊窗口继续按需加载
+                if (MessageType.GET_GROUP_MEMBERS.name().equals(message.getContent())) {
+                    GroupChatWindow window = groupChatWindows.get(message.getSenderId());
+                    if (window != null) {
+                        window.memberListNotModified();
+                    }
+                }
                 break;
             case TEXT_MESSAGE:
             case IMAGE_MESSAGE:
@@ -313,6 +415,9 @@ public class ChatWindow extends JFrame {
             case SERVER_MESSAGE:
                 JOptionPane.showMessageDialog(this, "服务器消息: " + message.getContent());
                 break;
+            case MESSAGE_THROTTLED:
+                JOptionPane.showMessageDialog(this, "发送过于频繁，消息未送达，请稍后再试。");
+                break;
             case FRIEND_REQUEST:
                 handleFriendRequest(message);
                 break;
@@ -327,10 +432,12 @@ public class ChatWindow extends JFrame {
                 handleGroupInvite(message);
                 break;
             case GET_GROUPS:
-                updateGroupList(message.getContent());
+                updateGroupList(message.getPayload());
+                groupListVersion = message.getVersion();
                 break;
             case GET_PENDING_REQUESTS:
-                updatePendingRequests(message.getContent());
+                updatePendingRequests(message.getPayload());
+                pendingRequestsVersion = message.getVersion();
                 break;
             case CREATE_GROUP_SUCCESS:
                 JOptionPane.showMessageDialog(this, "群聊创建成功: " + message.getContent());
@@ -360,17 +467,30 @@ public class ChatWindow extends JFrame {
      * @param message 聊天消息对象
      */
     private void handleChatMessage(Message message) {
+        SingleChatWindow chatWindow = chatWindowFor(message);
+        if (chatWindow != null) {
+            chatWindow.displayMessage(message);
+        }
+    }
+
+    /**
+     * 获取聊天消息所属的私聊窗口，窗口未打开时打开
+     * @param message 聊天消息对象
+     * @return 私聊窗口，与当前用户无关的消息返回null
+     */
+    private SingleChatWindow chatWindowFor(Message message) {
         String sender = message.getSenderId();
         String receiver = message.getReceiverId();
         String currentUserId = client.getCurrentUser().getId();
 
         if (receiver.equals(currentUserId)) {
             // 接收到的消息，打开与发送者的聊天窗口
-            openSingleChatWindow(sender).displayMessage(message);
+            return openSingleChatWindow(sender);
         } else if (sender.equals(currentUserId)) {
             // 自己发送的消息，打开与接收者的聊天窗口
-            openSingleChatWindow(receiver).displayMessage(message);
+            return openSingleChatWindow(receiver);
         }
+        return null;
     }
 
     /**
@@ -380,8 +500,8 @@ public class ChatWindow extends JFrame {
      */
     private void handleFriendRequest(Message message) {
         String friendRequestSenderId = message.getSenderId();
-        if (!friendRequestListModel.contains(friendRequestSenderId)) {
-            friendRequestListModel.addElement(friendRequestSenderId);
+        if (!friendRequestListModel.containsKey(friendRequestSenderId)) {
+            friendRequestListModel.put(friendRequestSenderId);
             JOptionPane.showMessageDialog(this, "您收到一条好友请求来自: " + friendRequestSenderId);
         }
     }
@@ -395,109 +515,58 @@ public class ChatWindow extends JFrame {
         String groupInviteGroupId = message.getContent();
         String inviterId = message.getSenderId();
         String inviteDisplay = groupInviteGroupId + " (来自 " + inviterId + ")";
-        if (!groupInviteListModel.contains(inviteDisplay)) {
-            groupInviteListModel.addElement(inviteDisplay);
+        if (!groupInviteListModel.containsKey(inviteDisplay)) {
+            groupInviteListModel.put(inviteDisplay);
             JOptionPane.showMessageDialog(this, "您收到一条群聊邀请来自 " + inviterId + " 加入群聊: " + groupInviteGroupId);
         }
     }
 
     /**
      * 更新群组成员信息
-     * 将服务器返回的群组成员列表更新到相应的群聊窗口
-     * @param message 包含群组成员信息的消息
+     * 将服务器返回的一页群组成员交给相应的群聊窗口
+     * @param message 包含一页群组成员的消息
      */
     private void updateGroupMembers(Message message) {
-        String groupId = message.getSenderId();
-        GroupChatWindow groupWindow = groupChatWindows.get(groupId);
+        GroupChatWindow groupWindow = groupChatWindows.get(message.getSenderId());
         if (groupWindow != null) {
-            String membersStr = message.getContent();
-            java.util.List<String> members = new java.util.ArrayList<>();
-            if (membersStr != null && !membersStr.isEmpty()) {
-                String[] memberInfos = membersStr.split(";");
-                for (String memberInfo : memberInfos) {
-                    String[] parts = memberInfo.split(":");
-                    if (parts.length >= 2) {
-                        members.add(parts[0] + " " + parts[1]); // ID + username
-                    }
-                }
-            }
-            groupWindow.updateGroupMembers(members);
+            groupWindow.updateGroupMembers(message);
         }
     }
 
     /**
      * 更新好友列表
-     * 解析服务器返回的好友列表数据并更新界面
-     * @param friendListStr 好友列表字符串，格式：id:username:status;id:username:status;...
+     * 读取服务器返回的用户列表，与当前列表比较后只更新变化的好友
+     * 好友上下线时只把该好友移动到新的位置，不重建整个列表
+     * @param payload 好友列表数据，每项为好友ID、用户名和在线状态
      */
-    private void updateFriendList(String friendListStr) {
-        friendListModel.clear();
-        if (friendListStr != null && !friendListStr.isEmpty()) {
-            String[] friends = friendListStr.split(";");
-            for (String friendInfo : friends) {
-                String[] parts = friendInfo.split(":");
-                if (parts.length == 3) {
-                    String id = parts[0];
-                    String username = parts[1];
-                    String status = parts[2];
-                    String displayText = id + " " + username + " (" + status + ")";
-                    friendListModel.addElement(displayText);
-                }
-            }
+    private void updateFriendList(byte[] payload) {
+        UserListView view = new UserListView(payload, 0);
+        List<UserEntry> friends = new ArrayList<>(view.size());
+        for (int i = 0; i < view.size(); i++) {
+            friends.add(new UserEntry(view.getId(i), view.getUsername(i), view.isOnline(i)));
         }
-        // 强制刷新界面
-        friendList.revalidate();
-        friendList.repaint();
+        friendListModel.replaceAll(friends);
     }
 
     /**
      * 更新群组列表
-     * 解析服务器返回的群组列表数据并更新界面
-     * @param groupListStr 群组列表字符串，格式：groupId;groupId;...
+     * 读取服务器返回的群组ID列表，只增删变化的群组
+     * @param payload 群组列表数据
      */
-    private void updateGroupList(String groupListStr) {
-        groupListModel.clear();
-        if (groupListStr != null && !groupListStr.isEmpty()) {
-            String[] groups = groupListStr.split(";");
-            for (String groupId : groups) {
-                groupListModel.addElement(groupId);
-            }
-        }
-        // 强制刷新界面
-        groupList.revalidate();
-        groupList.repaint();
+    private void updateGroupList(byte[] payload) {
+        groupListModel.replaceAll(new IdListView(payload, 0));
     }
 
     /**
      * 更新待处理请求列表
-     * 解析服务器返回的待处理请求数据并更新界面
-     * @param pendingRequestsStr 待处理请求字符串，格式：friendRequests||groupInvites
+     * 读取服务器返回的好友请求和群组邀请两个ID列表，只增删变化的请求，保留当前选中项
+     * @param payload 待处理请求数据，依次为好友请求发送者ID列表和群组邀请的群组ID列表
      */
-    private void updatePendingRequests(String pendingRequestsStr) {
-        friendRequestListModel.clear();
-        groupInviteListModel.clear();
-
-        if (pendingRequestsStr != null && !pendingRequestsStr.isEmpty()) {
-            String[] parts = pendingRequestsStr.split("\\|\\|");
-            String friendRequests = parts.length > 0 ? parts[0] : "";
-            String groupInvites = parts.length > 1 ? parts[1] : "";
-
-            // 处理好友请求
-            if (!friendRequests.isEmpty()) {
-                String[] requests = friendRequests.split(";");
-                for (String senderId : requests) {
-                    friendRequestListModel.addElement(senderId);
-                }
-            }
-
-            // 处理群组邀请
-            if (!groupInvites.isEmpty()) {
-                String[] invites = groupInvites.split(";");
-                for (String inviteInfo : invites) {
-                    groupInviteListModel.addElement(inviteInfo);
-                }
-            }
-        }
+    private void updatePendingRequests(byte[] payload) {
+        IdListView friendRequests = new IdListView(payload, 0);
+        IdListView groupInvites = new IdListView(payload, friendRequests.getEnd());
+        friendRequestListModel.replaceAll(friendRequests);
+        groupInviteListModel.replaceAll(groupInvites);
     }
 
     /**
@@ -594,7 +663,8 @@ public class ChatWindow extends JFrame {
                 client.sendMessage(new Message(MessageType.FRIEND_REJECT, client.getCurrentUser().getId(), senderId, ""));
             }
             // 从列表中移除已处理的请求
-            friendRequestListModel.removeElement(selectedRequest);
+            friendRequestListModel.remove(selectedRequest);
+            pendingRequestsVersion = 0; // 本地列表已先行修改，下次刷新取完整列表
         } else {
             JOptionPane.showMessageDialog(this, "请选择一个好友请求。");
         }
@@ -618,7 +688,8 @@ public class ChatWindow extends JFrame {
                 client.sendMessage(new Message(MessageType.GROUP_REJECT, client.getCurrentUser().getId(), inviterId, groupId));
             }
             // 从列表中移除已处理的邀请
-            groupInviteListModel.removeElement(selectedInvite);
+            groupInviteListModel.remove(selectedInvite);
+            pendingRequestsVersion = 0;
         } else {
             JOptionPane.showMessageDialog(this, "请选择一个群聊邀请。");
         }
@@ -629,7 +700,7 @@ public class ChatWindow extends JFrame {
      * 向服务器请求最新的好友列表数据
      */
     private void refreshFriendList() {
-        client.sendMessage(new Message(MessageType.FRIEND_LIST, client.getCurrentUser().getId(), "Server", ""));
+        requestList(MessageType.FRIEND_LIST, friendListVersion);
     }
 
     /**
@@ -637,7 +708,7 @@ public class ChatWindow extends JFrame {
      * 向服务器请求最新的群组列表数据
      */
     private void refreshGroupList() {
-        client.sendMessage(new Message(MessageType.GET_GROUPS, client.getCurrentUser().getId(), "Server", ""));
+        requestList(MessageType.GET_GROUPS, groupListVersion);
     }
 
     /**
@@ -1,28 +1,98 @@
 package com.simpleqq.client;
 
 import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
 import com.simpleqq.common.User;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
  * 客户端核心类
  * 负责与服务器建立连接、发送和接收消息
  * 管理客户端的网络通信和消息处理
+ *
+ * 发送的消息先进入发送队列，由专用的发送线程写入Socket，界面线程不会因网络慢而卡住；
+ * 发送线程一次取出队列中积压的全部消息，写完后只刷新一次，连续的小消息合并成一次网络写入
  */
 public class Client {
     private static final String SERVER_IP = "127.0.0.1"; // 服务器IP地址
     private static final int SERVER_PORT = 8888;          // 服务器端口号
+    private static final int DEDUP_WINDOW = 4096;         // 接收去重窗口大小（最近收到的消息数）
+    private static final int RECONNECT_ATTEMPTS = 6;      // 断线后最多重连次数
+    private static final long RECONNECT_INITIAL_DELAY_MS = 500; // 首次重连前的等待时间
+    private static final long RECONNECT_MAX_DELAY_MS = 8000;    // 重连等待时间上限
+    private static final long HEARTBEAT_INTERVAL_MS = 15000;    // 心跳发送间隔
+    private static final long HEARTBEAT_TIMEOUT_MS = 45000;     // 超过该时间没有收到任何消息即认为连接已失效
+    private static final int SEND_BUFFER_SIZE = 64 * 1024;      // 发送缓冲区大小，合并写入的小消息在此攒批
+    private static final int MAX_SEND_BATCH = 64;               // 发送线程每批最多写入的消息数
+    private static final long LOGOUT_FLUSH_TIMEOUT_MS = 1000;   // 退出时等待退出消息发出的最长时间
 
-    public Socket socket;                    // 与服务器的Socket连接
+    public volatile Socket socket;           // 与服务器的Socket连接，关闭时不加锁读取
     private ObjectOutputStream oos;          // 对象输出流，用于发送消息
     private ObjectInputStream ois;           // 对象输入流，用于接收消息
     private User currentUser;                // 当前登录的用户信息
     private Consumer<Message> messageListener; // 消息监听器，处理接收到的消息
+    private volatile String sessionToken;    // 服务器签发的会话令牌，用于断线后恢复会话
+    private volatile boolean closing;        // 是否由用户主动断开连接
+    private volatile long lastReceived;      // 最近一次收到服务器消息的时间
+    private ScheduledExecutorService heartbeat; // 心跳定时器
+    private Thread writer;                   // 发送线程
+    private final BlockingQueue<Outgoing> outbound = new LinkedBlockingQueue<>(); // 等待发送线程写出的消息
+
+    // 以当前时间为起点，保证客户端重启后消息ID仍然单调递增
+    private final AtomicLong nextMessageId = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final Map<Long, Message> pendingAcks = new ConcurrentSkipListMap<>(); // 已发送但服务器尚未确认的消息，按ID排序便于重连后按序重发
+    private final Map<String, Boolean> recentlyReceived = new LinkedHashMap<>() { // 最近收到的消息，key为 发送者ID#消息ID
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > DEDUP_WINDOW;
+        }
+    };
+
+    /**
+     * 发送结果回调
+     * 在发送线程中调用，更新界面时需要通过 SwingUtilities.invokeLater 切换到界面线程
+     */
+    @FunctionalInterface
+    public interface SendCallback {
+        /**
+         * 消息已写入Socket，或写入失败
+         * 写入失败的聊天消息仍在等待服务器确认的列表中，断线重连成功后会自动重发
+         * @param message 发送的消息
+         * @param error 失败原因，成功时为null
+         */
+        void completed(Message message, IOException error);
+    }
+
+    /**
+     * 发送队列中的一条消息
+     */
+    private static class Outgoing {
+        final Message message;          // 要发送的消息
+        final SendCallback callback;    // 发送结果回调，可为null
+
+        Outgoing(Message message, SendCallback callback) {
+            this.message = message;
+            this.callback = callback;
+        }
+    }
 
     /**
      * 默认构造函数
@@ -36,39 +106,258 @@ public class Client {
      * @throws IOException 连接失败时抛出异常
      */
     public void connect() throws IOException {
+        closing = false;
+        openConnection();
+
+        // 启动消息接收线程
+        new Thread(this::receiveLoop, "client-reader").start();
+        startWriter();
+        startHeartbeat();
+    }
+
+    /**
+     * 启动发送线程
+     * 发送线程在重连后继续使用新的连接，整个客户端生命周期内只启动一次
+     */
+    private synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(this::writeLoop, "client-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 发送线程主循环
+     * 取出队列中积压的消息依次写入，最后刷新一次；写入期间持有本对象的锁，不与重连握手交错
+     */
+    private void writeLoop() {
+        List<Outgoing> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(outbound.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            outbound.drainTo(batch, MAX_SEND_BATCH - 1);
+            IOException error = null;
+            synchronized (this) {
+                try {
+                    if (oos == null || socket == null || socket.isClosed()) {
+                        throw new IOException("Not connected to server");
+                    }
+                    for (Outgoing outgoing : batch) {
+                        oos.writeObject(outgoing.message);
+                        oos.reset(); // 清空对象引用表，避免已发送的图片数据一直被输出流引用
+                    }
+                    oos.flush();
+                } catch (IOException e) {
+                    System.out.println("Failed to send " + batch.size() + " message(s): " + e.getMessage());
+                    error = e;
+                }
+            }
+            for (Outgoing outgoing : batch) {
+                if (outgoing.callback != null) {
+                    try {
+                        outgoing.callback.completed(outgoing.message, error);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * 启动心跳定时器
+     * 定期向服务器发送PING；长时间收不到任何消息时主动关闭Socket，触发断线重连
+     */
+    private synchronized void startHeartbeat() {
+        if (heartbeat != null) {
+            return;
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "client-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleAtFixedRate(() -> {
+            if (closing || socket == null || socket.isClosed()) {
+                return;
+            }
+            if (System.currentTimeMillis() - lastReceived > HEARTBEAT_TIMEOUT_MS) {
+                System.out.println("No response from server for " + HEARTBEAT_TIMEOUT_MS + " ms. Reconnecting.");
+                closeConnection();
+                return;
+            }
+            sendMessage(new Message(MessageType.PING, currentUser != null ? currentUser.getId() : "", "Server", ""));
+        }, HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 建立Socket连接和对象流
+     * @throws IOException 连接失败时抛出异常
+     */
+    private synchronized void openConnection() throws IOException {
         socket = new Socket(SERVER_IP, SERVER_PORT);
-        oos = new ObjectOutputStream(socket.getOutputStream());
+        oos = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream(), SEND_BUFFER_SIZE));
+        oos.flush(); // 立即发出对象流头，服务器创建输入流时需要读取
         ois = new ObjectInputStream(socket.getInputStream());
+        lastReceived = System.currentTimeMillis();
+    }
 
-        // 启动消息接收线程
-        new Thread(() -> {
+    /**
+     * 消息接收循环
+     * 连接意外断开时，如果持有会话令牌则尝试重连并恢复会话
+     */
+    private void receiveLoop() {
+        while (true) {
             try {
                 while (true) {
                     // 持续监听服务器消息
                     Message message = (Message) ois.readObject();
-                    System.out.println("Client received: " + message);
-                    
-                    // 如果设置了消息监听器，则调用处理方法
-                    if (messageListener != null) {
-                        messageListener.accept(message);
-                    }
+                    lastReceived = System.currentTimeMillis();
+                    handleIncoming(message);
                 }
             } catch (IOException | ClassNotFoundException e) {
                 System.out.println("Server disconnected or error: " + e.getMessage());
-                disconnect(); // 连接断开时自动清理资源
+                closeConnection();
+                if (closing || sessionToken == null || !resumeSession()) {
+                    sessionToken = null;
+                    if (!closing && messageListener != null) {
+                        messageListener.accept(new Message(MessageType.SERVER_MESSAGE, "Server",
+                                currentUser != null ? currentUser.getId() : "", "与服务器的连接已断开，请重新登录。"));
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理接收到的消息
+     * 协议层消息（确认、会话令牌）在这里消化，其余交给消息监听器
+     * @param message 接收到的消息
+     */
+    private void handleIncoming(Message message) {
+        // 心跳消息只用于保活
+        if (message.getType() == MessageType.PONG) {
+            return;
+        }
+        if (message.getType() == MessageType.PING) {
+            sendMessage(new Message(MessageType.PONG, currentUser != null ? currentUser.getId() : "", "Server", ""));
+            return;
+        }
+        System.out.println("Client received: " + message);
+
+        // 服务器确认收到了自己发送的消息
+        if (message.getType() == MessageType.MESSAGE_ACK) {
+            pendingAcks.remove(message.getMessageId());
+            return;
+        }
+
+        // 发送过快被服务器丢弃的消息不再重发，通知交给界面显示
+        if (message.getType() == MessageType.MESSAGE_THROTTLED) {
+            pendingAcks.remove(message.getMessageId());
+        }
+
+        // 保存会话令牌，用于断线后恢复会话
+        if (message.getType() == MessageType.SESSION_TOKEN) {
+            sessionToken = message.getContent();
+            return;
+        }
+
+        // 聊天消息先回复投递确认，重复投递的消息不再交给界面处理
+        if (message.isChatMessage() && message.getMessageId() != 0) {
+            sendDeliveryAck(message);
+            if (recentlyReceived.put(message.getSenderId() + "#" + message.getMessageId(), Boolean.TRUE) != null) {
+                System.out.println("Dropped duplicate message " + message.getMessageId() + " from " + message.getSenderId());
+                return;
             }
-        }).start();
+        }
+
+        // 如果设置了消息监听器，则调用处理方法
+        if (messageListener != null) {
+            messageListener.accept(message);
+        }
+    }
+
+    /**
+     * 断线后尝试恢复会话
+     * 按指数退避重连，在服务器宽限期内携带会话令牌发送恢复请求
+     * 恢复成功后重发尚未被服务器确认的消息
+     * @return 恢复成功返回true
+     */
+    private boolean resumeSession() {
+        long delay = RECONNECT_INITIAL_DELAY_MS;
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closing; attempt++) {
+            try {
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MS);
+                // 整个握手期间持有本对象的锁，发送线程排队的新消息只能写在恢复请求和重发的旧消息之后，
+                // 否则服务器先收到较大的消息ID，会把随后重发的旧消息当作重复丢弃
+                synchronized (this) {
+                    openConnection();
+                    oos.writeObject(new Message(MessageType.SESSION_RESUME, currentUser.getId(), "Server", sessionToken));
+                    oos.flush();
+                    socket.setSoTimeout((int) HEARTBEAT_TIMEOUT_MS);
+                    Message reply = (Message) ois.readObject();
+                    socket.setSoTimeout(0);
+                    if (reply.getType() != MessageType.SESSION_RESUMED) {
+                        System.out.println("Session resume rejected: " + reply.getContent());
+                        closeConnection();
+                        return false;
+                    }
+                    System.out.println("Session resumed after " + attempt + " attempt(s).");
+                    for (Message pending : pendingAcks.values()) {
+                        oos.writeObject(pending); // 服务器按消息ID去重
+                        oos.reset();
+                    }
+                    oos.flush();
+                }
+                return true;
+            } catch (IOException | ClassNotFoundException e) {
+                System.out.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+                closeConnection();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
     }
 
     /**
      * 断开与服务器的连接
-     * 关闭所有网络资源
+     * 用户主动退出时调用，通知服务器立即结束会话并关闭所有网络资源
      */
     public void disconnect() {
+        closing = true;
+        if (sessionToken != null && socket != null && !socket.isClosed()) {
+            // 等待排在前面的消息和退出消息写出后再关闭连接
+            CountDownLatch written = new CountDownLatch(1);
+            sendMessage(new Message(MessageType.LOGOUT, currentUser.getId(), "Server", ""), (m, error) -> written.countDown());
+            try {
+                written.await(LOGOUT_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        sessionToken = null;
+        closeConnection();
+    }
+
+    /**
+     * 关闭网络资源
+     * 不获取本对象的锁：发送线程可能正持有锁阻塞在写入上，关闭Socket会让阻塞的读写立即失败；
+     * Socket关闭时其输入输出流随之关闭，对象流不再单独关闭（关闭对象流需要先刷新缓冲区，同样可能阻塞）
+     */
+    private void closeConnection() {
+        Socket current = socket;
         try {
-            if (socket != null) socket.close();
-            if (ois != null) ois.close();
-            if (oos != null) oos.close();
+            if (current != null) current.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -76,17 +365,68 @@ public class Client {
 
     /**
      * 发送消息到服务器
+     * 消息放入发送队列后立即返回，不等待写入完成
      * @param message 要发送的消息对象
      */
     public void sendMessage(Message message) {
-        try {
-            oos.writeObject(message);
-            oos.flush(); // 确保消息立即发送
-        } catch (IOException e) {
-            e.printStackTrace();
+        sendMessage(message, null);
+    }
+
+    /**
+     * 发送消息到服务器
+     * 消息放入发送队列后立即返回，写入完成或失败后调用回调
+     * 聊天消息在入队时分配消息ID并等待服务器确认
+     * @param message 要发送的消息对象
+     * @param callback 发送结果回调，可为null
+     */
+    public void sendMessage(Message message, SendCallback callback) {
+        // 分配ID和入队在同一个同步块内，保证线路上的消息ID顺序与发送顺序一致（服务器丢弃ID倒退的消息）
+        synchronized (outbound) {
+            if (message.isChatMessage() && message.getMessageId() == 0) {
+                message.setMessageId(nextMessageId.incrementAndGet());
+                pendingAcks.put(message.getMessageId(), message);
+            }
+            outbound.add(new Outgoing(message, callback));
         }
     }
 
+    /**
+     * 获取发送队列中等待写出的消息数量
+     * @return 消息数量
+     */
+    public int getOutboundQueueSize() {
+        return outbound.size();
+    }
+
+    /**
+     * 回复投递确认
+     * 告知服务器已收到某条聊天消息
+     * @param message 收到的聊天消息
+     */
+    private void sendDeliveryAck(Message message) {
+        Message ack = new Message(MessageType.DELIVERY_ACK, currentUser != null ? currentUser.getId() : "",
+                message.getSenderId(), "");
+        ack.setMessageId(message.getMessageId());
+        sendMessage(ack);
+    }
+
+    /**
+     * 判断消息是否已被服务器确认
+     * @param messageId 消息ID
+     * @return 已确认返回true
+     */
+    public boolean isAcknowledged(long messageId) {
+        return !pendingAcks.containsKey(messageId);
+    }
+
+    /**
+     * 获取尚未被服务器确认的消息数量
+     * @return 未确认消息数量
+     */
+    public int getPendingAckCount() {
+        return pendingAcks.size();
+    }
+
     /**
      * 获取当前登录用户
      * @return 当前用户对象
@@ -1,9 +1,13 @@
 package com.simpleqq.client;
 
+import com.simpleqq.common.MemberPageRequest;
+import com.simpleqq.common.MemberPageView;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
+import com.simpleqq.common.UserListView;
 
 import javax.swing.*;
+import javax.swing.border.TitledBorder;
 import java.awt.*;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
@@ -13,7 +17,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -23,16 +29,23 @@ import java.util.List;
  * 包含群成员管理、邀请功能等
  */
 public class GroupChatWindow extends JFrame {
+    private static final int PREFETCH_ROWS = 20;      // 距离已加载成员末尾不足这么多行时请求下一页
+
     private Client client;                           // 客户端连接对象
     private String groupId;                          // 群组ID
-    private JTextArea chatArea;                      // 聊天内容显示区域
+    private TranscriptView chatArea;                 // 聊天内容显示区域
     private JTextField messageField;                 // 消息输入框
     private JButton sendButton;                      // 发送文本消息按钮
     private JButton sendImageButton;                 // 发送图片按钮
     private JButton inviteMemberButton;              // 邀请成员按钮
     private JButton refreshMembersButton;            // 刷新成员列表按钮
-    private JList<String> memberList;               // 群成员列表组件
-    private DefaultListModel<String> memberListModel; // 群成员列表数据模型
+    private JList<UserEntry> memberList;             // 群成员列表组件
+    private KeyedListModel<UserEntry> memberListModel; // 群成员列表数据模型，只含已加载的成员
+    private TitledBorder memberBorder;               // 成员面板标题，显示群成员总数
+    private JCheckBox onlineFirstBox;                // 在线成员排在前面
+    private long memberListVersion;                  // 当前成员列表第一页的版本号，0表示没有
+    private String nextMemberCursor = "";            // 下一页成员的游标，空字符串表示已全部加载
+    private String pendingMemberCursor;              // 已请求、尚未返回的成员页的游标，null表示没有
     private SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm:ss"); // 时间格式化器
 
     /**
@@ -65,10 +78,7 @@ public class GroupChatWindow extends JFrame {
 
         // 创建聊天区域面板
         JPanel chatPanel = new JPanel(new BorderLayout());
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);        // 设置为只读
-        chatArea.setLineWrap(true);         // 启用自动换行
-        chatArea.setWrapStyleWord(true);    // 按单词换行
+        chatArea = new TranscriptView();    // 只渲染可见的消息，较早的消息换出到本地缓存
         chatPanel.add(new JScrollPane(chatArea), BorderLayout.CENTER);
 
         // 创建输入面板
@@ -99,13 +109,19 @@ public class GroupChatWindow extends JFrame {
     private void setupMemberListPanel(JPanel mainPanel) {
         JPanel memberListPanel = new JPanel(new BorderLayout());
         memberListPanel.setPreferredSize(new Dimension(150, 0));
-        memberListPanel.setBorder(BorderFactory.createTitledBorder("群成员"));
+        memberBorder = BorderFactory.createTitledBorder("群成员");
+        memberListPanel.setBorder(memberBorder);
 
-        // 创建成员列表
-        memberListModel = new DefaultListModel<>();
+        // 创建成员列表：成员按页加载，滚动到已加载部分的末尾附近时请求下一页
+        onlineFirstBox = new JCheckBox("在线优先", true);
+        memberListModel = newMemberListModel();
         memberList = new JList<>(memberListModel);
         memberList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        memberListPanel.add(new JScrollPane(memberList), BorderLayout.CENTER);
+        memberList.setPrototypeCellValue(new UserEntry("0000000000", "username", false)); // 固定行高，只布局可见的行
+        JScrollPane memberScrollPane = new JScrollPane(memberList);
+        memberScrollPane.getVerticalScrollBar().getModel().addChangeListener(e -> loadMoreMembersIfNeeded());
+        memberListPanel.add(onlineFirstBox, BorderLayout.NORTH);
+        memberListPanel.add(memberScrollPane, BorderLayout.CENTER);
 
         // 创建成员操作按钮面板
         JPanel memberButtonPanel = new JPanel(new GridLayout(2, 1));
@@ -129,6 +145,14 @@ public class GroupChatWindow extends JFrame {
         sendImageButton.addActionListener(e -> sendImage());
         inviteMemberButton.addActionListener(e -> inviteMember());
         refreshMembersButton.addActionListener(e -> refreshGroupMembers());
+        onlineFirstBox.addActionListener(e -> {
+            // 排列顺序改变后从第一页重新加载
+            memberListModel = newMemberListModel();
+            memberList.setModel(memberListModel);
+            memberListVersion = 0;
+            nextMemberCursor = "";
+            requestGroupMembers();
+        });
     }
 
     /**
@@ -140,7 +164,7 @@ public class GroupChatWindow extends JFrame {
         if (!content.trim().isEmpty()) {
             // 创建群组消息对象
             Message message = new Message(MessageType.GROUP_MESSAGE, client.getCurrentUser().getId(), groupId, content);
-            client.sendMessage(message);
+            client.sendMessage(message, this::onSendCompleted);
             
             // 立即显示自己的消息
             displayMessage(message);
@@ -148,6 +172,19 @@ public class GroupChatWindow extends JFrame {
         }
     }
 
+    /**
+     * 发送结果回调
+     * 在发送线程中调用，写入失败时切换到界面线程提示用户
+     * @param message 发送的消息
+     * @param error 失败原因，成功时为null
+     */
+    private void onSendCompleted(Message message, IOException error) {
+        if (error != null) {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "消息发送失败，重新连接后将自动重发: " + error.getMessage(), "错误", JOptionPane.ERROR_MESSAGE));
+        }
+    }
+
     /**
      * 发送群组图片消息
      * 弹出文件选择对话框，选择图片并发送给群组
@@ -167,7 +204,7 @@ public class GroupChatWindow extends JFrame {
                 // 群聊中直接发送图片数据，不需要确认
                 String imageContent = selectedFile.getName() + ":" + base64Image;
                 Message message = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), groupId, imageContent);
-                client.sendMessage(message);
+                client.sendMessage(message, this::onSendCompleted);
                 
                 // 立即显示自己发送的图片消息
                 Message displayMessage = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), groupId, selectedFile.getName());
@@ -202,10 +239,32 @@ public class GroupChatWindow extends JFrame {
 
     /**
      * 显示消息到聊天区域
-     * 处理群组文本消息和图片消息的显示
      * @param message 要显示的消息对象
      */
     public void displayMessage(Message message) {
+        displayMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * 显示一批消息到聊天区域
+     * 整批只追加、滚动一次，收到大量消息时避免逐条重绘
+     * @param messages 按到达顺序排列的消息
+     */
+    public void displayMessages(List<Message> messages) {
+        List<String> lines = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            lines.add(formatMessage(message));
+        }
+        chatArea.append(lines); // 追加后滚动到底部
+    }
+
+    /**
+     * 生成消息在聊天区域中显示的一行文本
+     * 处理群组文本消息和图片消息的显示，收到的图片自动保存到本地
+     * @param message 要显示的消息对象
+     * @return 显示文本
+     */
+    private String formatMessage(Message message) {
         // 确定发送者显示名称
         String senderName = message.getSenderId().equals(client.getCurrentUser().getId()) ? "我" : message.getSenderId();
         String time = dateFormat.format(new Date(message.getTimestamp()));
@@ -249,10 +308,8 @@ public class GroupChatWindow extends JFrame {
             // 普通文本消息
             displayContent = message.getContent();
         }
-        
-        // 将消息添加到聊天区域
-        chatArea.append(time + " [" + senderName + "]: " + displayContent + "\n");
-        chatArea.setCaretPosition(chatArea.getDocument().getLength()); // 滚动到底部
+
+        return time + " [" + senderName + "]: " + displayContent;
     }
 
     /**
@@ -263,37 +320,98 @@ public class GroupChatWindow extends JFrame {
         String fileName = "chat_history_group_" + groupId + ".txt";
 
         try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            List<String> lines = new ArrayList<>();
             String line;
             while ((line = reader.readLine()) != null) {
-                chatArea.append(line + "\n");
+                lines.add(line);
             }
+            chatArea.append(lines);
         } catch (IOException e) {
             System.err.println("No chat history found for group " + groupId + ": " + e.getMessage());
         }
     }
 
     /**
-     * 请求群组成员列表
-     * 向服务器发送获取群组成员的请求
+     * 请求群组成员列表的第一页
+     * 成员列表未变化时服务器只回复未修改
      */
     private void requestGroupMembers() {
-        client.sendMessage(new Message(MessageType.GET_GROUP_MEMBERS, client.getCurrentUser().getId(), "Server", groupId));
+        requestMemberPage("");
+    }
+
+    /**
+     * 请求一页群组成员
+     * @param cursor 上一页返回的游标，空字符串表示第一页
+     */
+    private void requestMemberPage(String cursor) {
+        MemberPageRequest page = new MemberPageRequest(cursor, MemberPageRequest.DEFAULT_PAGE_SIZE, onlineFirstBox.isSelected());
+        Message request = new Message(MessageType.GET_GROUP_MEMBERS, client.getCurrentUser().getId(), "Server", groupId);
+        request.setPayload(page.toPayload());
+        if (page.isFirstPage()) {
+            request.setVersion(memberListVersion);
+        }
+        pendingMemberCursor = cursor;
+        client.sendMessage(request);
+    }
+
+    /**
+     * 已加载的成员快要滚动到底时请求下一页
+     * 同一时间只有一个分页请求
+     */
+    private void loadMoreMembersIfNeeded() {
+        if (pendingMemberCursor != null || nextMemberCursor.isEmpty()) {
+            return;
+        }
+        if (memberList.getLastVisibleIndex() >= memberListModel.getSize() - PREFETCH_ROWS) {
+            requestMemberPage(nextMemberCursor);
+        }
+    }
+
+    private KeyedListModel<UserEntry> newMemberListModel() {
+        return new KeyedListModel<>(UserEntry::getId,
+                onlineFirstBox.isSelected() ? UserEntry.PRESENCE_ORDER : UserEntry.ID_ORDER);
     }
 
     /**
      * 更新群组成员列表
-     * 根据服务器返回的成员信息更新界面显示
-     * @param members 成员列表，每个元素格式为"ID username"
+     * 第一页替换已加载的成员，后续页追加到已加载的成员中；不是最近请求的页（如切换排列顺序之前发出的请求）直接忽略
+     * @param message 服务器返回的成员页，content为请求时的游标
+     */
+    public void updateGroupMembers(Message message) {
+        String cursor = message.getContent() != null ? message.getContent() : "";
+        if (!cursor.equals(pendingMemberCursor)) {
+            return;
+        }
+        MemberPageView page = new MemberPageView(message.getPayload());
+        UserListView view = page.getMembers();
+        List<UserEntry> members = new ArrayList<>(view.size());
+        for (int i = 0; i < view.size(); i++) {
+            members.add(new UserEntry(view.getId(i), view.getUsername(i), view.isOnline(i)));
+        }
+        if (cursor.isEmpty()) {
+            memberListVersion = message.getVersion();
+            memberListModel.replaceAll(members);
+        } else {
+            for (UserEntry member : members) {
+                memberListModel.put(member);
+            }
+        }
+        nextMemberCursor = page.getNextCursor();
+        pendingMemberCursor = null;
+        memberBorder.setTitle("群成员 (" + page.getTotal() + ")");
+        repaint();
+        SwingUtilities.invokeLater(this::loadMoreMembersIfNeeded); // 等列表完成布局后判断是否需要继续加载
+    }
+
+    /**
+     * 服务器回复成员列表第一页未变化
+     * 保留已加载的成员，继续按需加载
      */
-    public void updateGroupMembers(List<String> members) {
-        memberListModel.clear();
-        for (String member : members) {
-            memberListModel.addElement(member);
+    public void memberListNotModified() {
+        if ("".equals(pendingMemberCursor)) {
+            pendingMemberCursor = null;
+            loadMoreMembersIfNeeded();
         }
-        // 强制刷新界面
-        memberList.revalidate();
-        memberList.repaint();
-        System.out.println("Updated group members list with " + members.size() + " members");
     }
 
     /**
@@ -307,6 +425,11 @@ public class GroupChatWindow extends JFrame {
                 // 窗口关闭时可以进行一些清理工作
                 // 目前聊天记录由服务器自动保存，这里暂时不需要额外操作
             }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                chatArea.getTranscript().close(); // 删除本窗口的聊天记录缓存文件
+            }
         });
     }
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.simpleqq.client;
+
+import com.simpleqq.common.Message;
+
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 收到消息的合批分发器
+ * 接收线程只把消息放入队列；界面线程每帧（约16毫秒）取出积压的全部消息，一次交给界面处理，
+ * 群聊刷屏或重连补发大量消息时界面事件队列不会被逐条的任务淹没
+ */
+public class InboundDispatcher {
+    private static final int FRAME_MS = 16;        // 分发间隔，约每秒60帧
+    private static final int MAX_BATCH = 2000;     // 每帧最多处理的消息数，超出部分留到下一帧，避免界面长时间无响应
+
+    private final Queue<Message> pending = new ConcurrentLinkedQueue<>(); // 等待界面线程处理的消息
+    private final AtomicBoolean scheduled = new AtomicBoolean();           // 是否已安排下一帧
+    private final Consumer<List<Message>> batchHandler;                     // 在界面线程中处理一批消息
+    private final Timer timer;                                             // 单次触发的帧定时器
+
+    /**
+     * 构造函数
+     * @param batchHandler 在界面线程中调用，参数为按到达顺序排列的一批消息
+     */
+    public InboundDispatcher(Consumer<List<Message>> batchHandler) {
+        this.batchHandler = batchHandler;
+        this.timer = new Timer(FRAME_MS, e -> drain());
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * 提交收到的消息
+     * 在接收线程中调用；本帧还没有安排处理时安排一次
+     * @param message 收到的消息
+     */
+    public void submit(Message message) {
+        pending.add(message);
+        if (scheduled.compareAndSet(false, true)) {
+            timer.restart();
+        }
+    }
+
+    /**
+     * 在界面线程中取出积压的消息并处理
+     */
+    private void drain() {
+        scheduled.set(false); // 先清除标记，处理期间到达的消息会安排下一帧
+        List<Message> batch = new ArrayList<>();
+        Message message;
+        while (batch.size() < MAX_BATCH && (message = pending.poll()) != null) {
+            batch.add(message);
+        }
+        if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+            timer.restart();
+        }
+        if (!batch.isEmpty()) {
+            batchHandler.accept(batch);
+        }
+    }
+}
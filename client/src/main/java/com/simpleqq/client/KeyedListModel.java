@@ -0,0 +1,163 @@
+package com.simpleqq.client;
+
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 按键比较差异的列表模型
+ * 每个元素有唯一的键；收到整表数据时只对新增、删除、变化的元素触发最小范围的事件，
+ * 未变化的元素不重绘，列表的选中项随下标变化自动调整
+ *
+ * 指定排序规则时列表始终保持有序，元素变化只移动该元素本身；未指定时按首次出现的顺序排列
+ * 只在界面线程中访问
+ * @param <T> 元素类型，通过equals判断元素内容是否变化
+ */
+public class KeyedListModel<T> extends AbstractListModel<T> {
+    private final Function<T, String> keyOf;        // 取元素的键
+    private final Comparator<T> order;              // 排序规则，可为null；必须与键一致（键不同的元素不相等）
+    private final List<T> items = new ArrayList<>(); // 按显示顺序排列的元素
+    private final Map<String, T> byKey = new HashMap<>(); // 键 -> 元素
+
+    /**
+     * 构造函数
+     * @param keyOf 取元素的键
+     * @param order 排序规则，为null时按首次出现的顺序排列
+     */
+    public KeyedListModel(Function<T, String> keyOf, Comparator<T> order) {
+        this.keyOf = keyOf;
+        this.order = order;
+    }
+
+    @Override
+    public int getSize() {
+        return items.size();
+    }
+
+    @Override
+    public T getElementAt(int index) {
+        return items.get(index);
+    }
+
+    public boolean containsKey(String key) {
+        return byKey.containsKey(key);
+    }
+
+    /**
+     * 新增或更新一个元素
+     * 内容未变化时不触发事件；排序位置未变化时只重绘该行
+     * @param item 元素
+     */
+    public void put(T item) {
+        T existing = byKey.get(keyOf.apply(item));
+        if (existing == null) {
+            insert(item);
+            return;
+        }
+        if (existing.equals(item)) {
+            return;
+        }
+        int index = indexOf(existing);
+        if (order == null || fitsAt(index, item)) {
+            items.set(index, item);
+            byKey.put(keyOf.apply(item), item);
+            fireContentsChanged(this, index, index);
+        } else {
+            removeAt(index);
+            insert(item);
+        }
+    }
+
+    /**
+     * 删除一个元素
+     * @param key 元素的键
+     * @return 元素存在并已删除返回true
+     */
+    public boolean remove(String key) {
+        T existing = byKey.get(key);
+        if (existing == null) {
+            return false;
+        }
+        removeAt(indexOf(existing));
+        return true;
+    }
+
+    /**
+     * 用整表数据替换列表内容
+     * 依次删除不再存在的元素（相邻的合并为一个事件）、更新变化的元素、插入新元素
+     * @param snapshot 新的全部元素
+     */
+    public void replaceAll(Collection<T> snapshot) {
+        Map<String, T> next = new LinkedHashMap<>();
+        for (T item : snapshot) {
+            next.put(keyOf.apply(item), item);
+        }
+        int runEnd = -1; // 当前连续删除区间的末尾下标
+        for (int i = items.size() - 1; i >= 0; i--) {
+            String key = keyOf.apply(items.get(i));
+            if (!next.containsKey(key)) {
+                byKey.remove(key);
+                items.remove(i);
+                if (runEnd < 0) {
+                    runEnd = i;
+                }
+            } else if (runEnd >= 0) {
+                fireIntervalRemoved(this, i + 1, runEnd);
+                runEnd = -1;
+            }
+        }
+        if (runEnd >= 0) {
+            fireIntervalRemoved(this, 0, runEnd);
+        }
+        for (T item : next.values()) {
+            put(item);
+        }
+    }
+
+    private void insert(T item) {
+        int index = items.size();
+        if (order != null) {
+            index = -(Collections.binarySearch(items, item, order) + 1);
+        }
+        items.add(index, item);
+        byKey.put(keyOf.apply(item), item);
+        fireIntervalAdded(this, index, index);
+    }
+
+    private void removeAt(int index) {
+        byKey.remove(keyOf.apply(items.remove(index)));
+        fireIntervalRemoved(this, index, index);
+    }
+
+    /**
+     * 查找元素的下标
+     * 有序时二分查找，否则按键顺序查找
+     */
+    private int indexOf(T item) {
+        if (order != null) {
+            return Collections.binarySearch(items, item, order);
+        }
+        String key = keyOf.apply(item);
+        for (int i = 0; i < items.size(); i++) {
+            if (keyOf.apply(items.get(i)).equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 判断新内容放在原下标处是否仍然有序
+     */
+    private boolean fitsAt(int index, T item) {
+        return (index == 0 || order.compare(items.get(index - 1), item) < 0)
+                && (index == items.size() - 1 || order.compare(item, items.get(index + 1)) < 0);
+    }
+}
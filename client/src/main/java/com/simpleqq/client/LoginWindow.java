@@ -102,7 +102,11 @@ public class LoginWindow extends JFrame {
             
             // 发送登录请求，格式：ID,密码
             String loginData = id + "," + password;
-            client.sendMessage(new Message(MessageType.LOGIN, id, "Server", loginData));
+            client.sendMessage(new Message(MessageType.LOGIN, id, "Server", loginData), (m, error) -> {
+                if (error != null) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "发送登录请求失败: " + error.getMessage()));
+                }
+            });
         } catch (IOException ex) {
             JOptionPane.showMessageDialog(this, "连接服务器失败: " + ex.getMessage());
         }
@@ -124,7 +124,11 @@ public class RegisterWindow extends JFrame {
             
             // 发送注册请求，格式：ID,用户名,密码
             String registerData = id + "," + username + "," + password;
-            client.sendMessage(new Message(MessageType.REGISTER, id, "Server", registerData));
+            client.sendMessage(new Message(MessageType.REGISTER, id, "Server", registerData), (m, error) -> {
+                if (error != null) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "发送注册请求失败: " + error.getMessage()));
+                }
+            });
         } catch (IOException ex) {
             JOptionPane.showMessageDialog(this, "连接服务器失败: " + ex.getMessage());
         }
@@ -11,10 +11,15 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * 私聊窗口类
@@ -24,7 +29,7 @@ import java.util.Date;
 public class SingleChatWindow extends JFrame {
     private Client client;                    // 客户端连接对象
     private String friendId;                  // 聊天对象的用户ID
-    private JTextArea chatArea;               // 聊天内容显示区域
+    private TranscriptView chatArea;          // 聊天内容显示区域
     private JTextField messageField;          // 消息输入框
     private JButton sendButton;               // 发送文本消息按钮
     private JButton sendImageButton;          // 发送图片按钮
@@ -59,10 +64,7 @@ public class SingleChatWindow extends JFrame {
         add(panel);
 
         // 创建聊天内容显示区域
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);        // 设置为只读
-        chatArea.setLineWrap(true);         // 启用自动换行
-        chatArea.setWrapStyleWord(true);    // 按单词换行
+        chatArea = new TranscriptView();    // 只渲染可见的消息，较早的消息换出到本地缓存
         panel.add(new JScrollPane(chatArea), BorderLayout.CENTER);
 
         // 创建输入面板
@@ -103,7 +105,7 @@ public class SingleChatWindow extends JFrame {
         if (!content.trim().isEmpty()) {
             // 创建文本消息对象
             Message message = new Message(MessageType.TEXT_MESSAGE, client.getCurrentUser().getId(), friendId, content);
-            client.sendMessage(message);
+            client.sendMessage(message, this::onSendCompleted);
             
             // 立即在界面显示自己发送的消息
             displayMessage(message);
@@ -111,6 +113,19 @@ public class SingleChatWindow extends JFrame {
         }
     }
 
+    /**
+     * 发送结果回调
+     * 在发送线程中调用，写入失败时切换到界面线程提示用户
+     * @param message 发送的消息
+     * @param error 失败原因，成功时为null
+     */
+    private void onSendCompleted(Message message, IOException error) {
+        if (error != null) {
+            SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this,
+                    "消息发送失败，重新连接后将自动重发: " + error.getMessage(), "错误", JOptionPane.ERROR_MESSAGE));
+        }
+    }
+
     /**
      * 发送图片消息
      * 弹出文件选择对话框，选择图片并发送
@@ -130,7 +145,7 @@ public class SingleChatWindow extends JFrame {
                 // 创建图片消息，格式：文件名:Base64数据
                 String imageContent = selectedFile.getName() + ":" + base64Image;
                 Message message = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), friendId, imageContent);
-                client.sendMessage(message);
+                client.sendMessage(message, this::onSendCompleted);
                 
                 // 立即在界面显示自己发送的图片消息（只显示文件名）
                 Message displayMessage = new Message(MessageType.IMAGE_MESSAGE, client.getCurrentUser().getId(), friendId, selectedFile.getName());
@@ -143,10 +158,32 @@ public class SingleChatWindow extends JFrame {
 
     /**
      * 显示消息到聊天区域
-     * 处理文本消息和图片消息的显示
      * @param message 要显示的消息对象
      */
     public void displayMessage(Message message) {
+        displayMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * 显示一批消息到聊天区域
+     * 整批只追加、滚动一次，收到大量消息时避免逐条重绘
+     * @param messages 按到达顺序排列的消息
+     */
+    public void displayMessages(List<Message> messages) {
+        List<String> lines = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            lines.add(formatMessage(message));
+        }
+        chatArea.append(lines); // 追加后滚动到底部
+    }
+
+    /**
+     * 生成消息在聊天区域中显示的一行文本
+     * 处理文本消息和图片消息的显示，收到的图片自动保存到本地
+     * @param message 要显示的消息对象
+     * @return 显示文本
+     */
+    private String formatMessage(Message message) {
         // 确定发送者显示名称
         String senderName = message.getSenderId().equals(client.getCurrentUser().getId()) ? "我" : message.getSenderId();
         String time = dateFormat.format(new Date(message.getTimestamp()));
@@ -190,10 +227,8 @@ public class SingleChatWindow extends JFrame {
             // 普通文本消息
             displayContent = message.getContent();
         }
-        
-        // 将消息添加到聊天区域
-        chatArea.append(time + " [" + senderName + "]: " + displayContent + "\n");
-        chatArea.setCaretPosition(chatArea.getDocument().getLength()); // 滚动到底部
+
+        return time + " [" + senderName + "]: " + displayContent;
     }
 
     /**
@@ -212,10 +247,12 @@ public class SingleChatWindow extends JFrame {
         }
 
         try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            List<String> lines = new ArrayList<>();
             String line;
             while ((line = reader.readLine()) != null) {
-                chatArea.append(line + "\n");
+                lines.add(line);
             }
+            chatArea.append(lines);
         } catch (IOException e) {
             System.err.println("No chat history found for " + friendId + ": " + e.getMessage());
         }
@@ -239,8 +276,10 @@ public class SingleChatWindow extends JFrame {
         if (userSelection == JFileChooser.APPROVE_OPTION) {
             File fileToSave = fileChooser.getSelectedFile();
             try {
-                // 将聊天区域的所有文本保存到文件
-                Files.write(fileToSave.toPath(), chatArea.getText().getBytes());
+                // 将聊天记录逐条写入文件（较早的消息从本地缓存读回）
+                try (Writer writer = Files.newBufferedWriter(fileToSave.toPath(), Charset.defaultCharset())) {
+                    chatArea.getTranscript().writeTo(writer);
+                }
                 JOptionPane.showMessageDialog(this, "聊天记录已保存到: " + fileToSave.getAbsolutePath());
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(this, "保存聊天记录失败: " + ex.getMessage(), "错误", JOptionPane.ERROR_MESSAGE);
@@ -259,6 +298,11 @@ public class SingleChatWindow extends JFrame {
                 // 窗口关闭时可以进行一些清理工作
                 // 目前聊天记录由服务器自动保存，这里暂时不需要额外操作
             }
+
+            @Override
+            public void windowClosed(WindowEvent e) {
+                chatArea.getTranscript().close(); // 删除本窗口的聊天记录缓存文件
+            }
         });
     }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package com.simpleqq.client;
+
+import javax.swing.AbstractListModel;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 聊天记录列表模型
+ * 内存中只保留最新的若干条消息，超出的较早消息按页写入本地缓存文件；
+ * 滚动到较早的位置时按页从缓存文件读回，并只在内存中保留最近访问的几页
+ *
+ * 只在界面线程中访问
+ */
+public class TranscriptModel extends AbstractListModel<String> implements Closeable {
+    private static final int MAX_IN_MEMORY = 1000;  // 内存中保留的最新消息数上限
+    private static final int PAGE_SIZE = 250;       // 每页消息数，按页写出和读回
+    private static final int CACHED_PAGES = 4;      // 内存中保留的已读回页数
+
+    private final List<String> tail = new ArrayList<>(); // 尚未写出的最新消息
+    private long[] offsets = new long[64];               // 已写出的每条消息在缓存文件中的位置
+    private int pagedOut;                                // 已写出到缓存文件的消息数（PAGE_SIZE的整数倍）
+    private RandomAccessFile cache;                      // 缓存文件，尚未创建时为null
+    private File cacheFile;                              // 缓存文件路径
+    private boolean cacheUnavailable;                    // 缓存文件读写失败，此后所有消息留在内存中
+    private final Map<Integer, String[]> pages = new LinkedHashMap<>(16, 0.75f, true) { // 页号 -> 已读回的消息，按访问顺序淘汰
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    @Override
+    public int getSize() {
+        return pagedOut + tail.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index >= pagedOut) {
+            return tail.get(index - pagedOut);
+        }
+        String[] page = pages.get(index / PAGE_SIZE);
+        if (page == null) {
+            try {
+                page = readPage(index / PAGE_SIZE);
+            } catch (IOException e) {
+                System.err.println("Failed to read transcript cache: " + e.getMessage());
+                return "[无法读取缓存的消息]";
+            }
+            pages.put(index / PAGE_SIZE, page);
+        }
+        return page[index % PAGE_SIZE];
+    }
+
+    /**
+     * 在末尾追加一批消息
+     * 只触发一次新增事件；内存中的消息超过上限时把最早的整页写出到缓存文件，行号不变
+     * @param lines 消息显示文本
+     */
+    public void append(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        int first = getSize();
+        tail.addAll(lines);
+        fireIntervalAdded(this, first, getSize() - 1);
+        while (tail.size() > MAX_IN_MEMORY && pageOut()) {
+            // 继续写出，直到回到上限以内
+        }
+    }
+
+    /**
+     * 把内存中最早的一页写出到缓存文件
+     * @return 写出成功返回true；缓存文件不可用时返回false，消息继续留在内存中
+     */
+    private boolean pageOut() {
+        if (cacheUnavailable) {
+            return false;
+        }
+        try {
+            if (cache == null) {
+                cacheFile = File.createTempFile("simpleqq-transcript-", ".cache");
+                cacheFile.deleteOnExit();
+                cache = new RandomAccessFile(cacheFile, "rw");
+            }
+            List<String> page = tail.subList(0, PAGE_SIZE);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(PAGE_SIZE * 64);
+            DataOutputStream out = new DataOutputStream(buffer);
+            long position = cache.length();
+            if (offsets.length < pagedOut + PAGE_SIZE) {
+                offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, pagedOut + PAGE_SIZE));
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                offsets[pagedOut + i] = position + out.size();
+                byte[] bytes = page.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            cache.seek(position);
+            cache.write(buffer.toByteArray());
+            page.clear();
+            pagedOut += PAGE_SIZE;
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to write transcript cache, keeping messages in memory: " + e.getMessage());
+            cacheUnavailable = true;
+            return false;
+        }
+    }
+
+    /**
+     * 从缓存文件读回一页
+     * @param pageIndex 页号
+     * @return 该页的消息
+     * @throws IOException 读取失败时抛出
+     */
+    private String[] readPage(int pageIndex) throws IOException {
+        String[] page = new String[PAGE_SIZE];
+        int first = pageIndex * PAGE_SIZE;
+        long end = first + PAGE_SIZE < pagedOut ? offsets[first + PAGE_SIZE] : cache.length();
+        byte[] data = new byte[(int) (end - offsets[first])];
+        cache.seek(offsets[first]);
+        cache.readFully(data);
+        int position = 0;
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            int length = ((data[position] & 0xff) << 24) | ((data[position + 1] & 0xff) << 16)
+                    | ((data[position + 2] & 0xff) << 8) | (data[position + 3] & 0xff);
+            page[i] = new String(data, position + 4, length, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+        return page;
+    }
+
+    /**
+     * 按顺序写出全部消息，每条一行
+     * 较早的消息从缓存文件逐页读回
+     * @param writer 输出
+     * @throws IOException 写入失败时抛出
+     */
+    public void writeTo(Writer writer) throws IOException {
+        int size = getSize();
+        for (int i = 0; i < size; i++) {
+            writer.write(getElementAt(i));
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * 关闭并删除缓存文件
+     */
+    @Override
+    public void close() {
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            cache = null;
+            cacheFile.delete();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.simpleqq.client;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+import javax.swing.ToolTipManager;
+import java.awt.Component;
+import java.util.List;
+
+/**
+ * 聊天记录显示组件
+ * 每条消息占固定高度的一行，列表只为可见的行调用渲染器，
+ * 显示和追加的开销与聊天记录总长度无关；过长的消息以省略号截断，完整内容见鼠标提示
+ */
+public class TranscriptView extends JList<String> {
+    private final TranscriptModel transcript;   // 聊天记录模型
+
+    /**
+     * 构造函数
+     */
+    public TranscriptView() {
+        this(new TranscriptModel());
+    }
+
+    private TranscriptView(TranscriptModel transcript) {
+        super(transcript);
+        this.transcript = transcript;
+        // 固定行高和宽度：列表不再逐行测量所有消息来计算首选尺寸，宽度随滚动窗口变化
+        setFixedCellHeight(getFontMetrics(getFont()).getHeight() + 4);
+        setFixedCellWidth(1);
+        setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                String text = (String) value;
+                super.getListCellRendererComponent(list, text.replace('\n', ' '), index, isSelected, cellHasFocus);
+                setToolTipText(text.length() > 40 ? text : null);
+                return this;
+            }
+        });
+        ToolTipManager.sharedInstance().registerComponent(this);
+    }
+
+    /**
+     * 追加一批消息并滚动到底部
+     * @param lines 消息显示文本
+     */
+    public void append(List<String> lines) {
+        transcript.append(lines);
+        ensureIndexIsVisible(transcript.getSize() - 1);
+    }
+
+    /**
+     * 获取聊天记录模型
+     * @return 聊天记录模型
+     */
+    public TranscriptModel getTranscript() {
+        return transcript;
+    }
+}
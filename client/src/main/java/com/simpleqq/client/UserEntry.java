@@ -0,0 +1,59 @@
+package com.simpleqq.client;
+
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * 好友列表、群成员列表中的一项
+ * 显示格式：ID 用户名 (状态)
+ */
+public class UserEntry {
+    /** 在线的用户排在前面，同一状态内按ID排序（与服务器群成员分页的在线优先顺序一致） */
+    public static final Comparator<UserEntry> PRESENCE_ORDER =
+            Comparator.comparing((UserEntry u) -> !u.online).thenComparing(u -> u.id);
+    /** 按ID排序（与服务器群成员分页的默认顺序一致） */
+    public static final Comparator<UserEntry> ID_ORDER = Comparator.comparing(u -> u.id);
+
+    private final String id;          // 用户ID
+    private final String username;    // 用户名
+    private final boolean online;     // 是否在线
+
+    /**
+     * 构造函数
+     * @param id 用户ID
+     * @param username 用户名
+     * @param online 是否在线
+     */
+    public UserEntry(String id, String username, boolean online) {
+        this.id = id;
+        this.username = username;
+        this.online = online;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof UserEntry)) {
+            return false;
+        }
+        UserEntry other = (UserEntry) o;
+        return id.equals(other.id) && username.equals(other.username) && online == other.online;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, username, online);
+    }
+
+    @Override
+    public String toString() {
+        return id + " " + username + " (" + (online ? "online" : "offline") + ")";
+    }
+}
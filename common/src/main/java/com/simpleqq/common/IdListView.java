@@ -0,0 +1,53 @@
+package com.simpleqq.common;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * ID列表的只读视图
+ * 构造时只扫描一遍记录各ID的位置，不复制数据；get时才解码对应的字符串
+ * 一份数据中可以依次存放多个列表，用 {@link #getEnd()} 定位下一个列表
+ */
+public final class IdListView extends AbstractList<String> implements RandomAccess {
+    private final byte[] data;     // 列表数据
+    private final int[] starts;    // 各ID的UTF-8字节起始位置
+    private final int[] lengths;   // 各ID的UTF-8字节数
+    private final int end;         // 列表结束位置
+
+    /**
+     * 读取从offset开始的ID列表
+     * @param data 列表数据
+     * @param offset 列表起始位置
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    public IdListView(byte[] data, int offset) {
+        this.data = data;
+        PayloadReader reader = new PayloadReader(data, offset);
+        int count = reader.readCount();
+        starts = new int[count];
+        lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = reader.skipString();
+            starts[i] = reader.position() - lengths[i];
+        }
+        end = reader.position();
+    }
+
+    @Override
+    public String get(int index) {
+        return PayloadReader.decode(data, starts[index], lengths[index]);
+    }
+
+    @Override
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * 获取列表结束位置，即下一个列表的起始位置
+     * @return 位置
+     */
+    public int getEnd() {
+        return end;
+    }
+}
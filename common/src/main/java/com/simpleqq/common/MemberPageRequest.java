@@ -0,0 +1,74 @@
+package com.simpleqq.common;
+
+/**
+ * 群成员分页请求
+ * 放在 GET_GROUP_MEMBERS 请求的payload中，content仍为群组ID
+ * 编码格式：游标（字符串）、每页人数（整数）、是否在线优先（布尔值）
+ */
+public final class MemberPageRequest {
+    public static final int DEFAULT_PAGE_SIZE = 100;   // 默认每页人数
+
+    private final String cursor;        // 上一页返回的游标，空字符串表示第一页
+    private final int limit;            // 每页人数
+    private final boolean onlineFirst;  // true：在线成员在前、同状态按ID排序；false：按ID排序
+
+    /**
+     * 构造函数
+     * @param cursor 上一页返回的游标，null或空字符串表示第一页
+     * @param limit 每页人数
+     * @param onlineFirst 是否在线优先
+     */
+    public MemberPageRequest(String cursor, int limit, boolean onlineFirst) {
+        this.cursor = cursor != null ? cursor : "";
+        this.limit = limit;
+        this.onlineFirst = onlineFirst;
+    }
+
+    /**
+     * 从请求的payload解析
+     * @param payload 请求数据，为null时返回按ID排序的第一页
+     * @return 分页请求
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    public static MemberPageRequest fromPayload(byte[] payload) {
+        if (payload == null) {
+            return new MemberPageRequest("", DEFAULT_PAGE_SIZE, false);
+        }
+        PayloadReader reader = new PayloadReader(payload, 0);
+        String cursor = reader.readString();
+        int limit = reader.readInt();
+        return new MemberPageRequest(cursor, limit, reader.readBoolean());
+    }
+
+    /**
+     * 编码为请求的payload
+     * @return 请求数据
+     */
+    public byte[] toPayload() {
+        PayloadWriter writer = new PayloadWriter(32 + cursor.length() * 3);
+        writer.writeString(cursor);
+        writer.writeInt(limit);
+        writer.writeBoolean(onlineFirst);
+        return writer.toByteArray();
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean isOnlineFirst() {
+        return onlineFirst;
+    }
+
+    /**
+     * 判断是否请求第一页
+     * @return 第一页返回true
+     */
+    public boolean isFirstPage() {
+        return cursor.isEmpty();
+    }
+}
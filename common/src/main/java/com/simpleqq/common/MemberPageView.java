@@ -0,0 +1,55 @@
+package com.simpleqq.common;
+
+/**
+ * 群成员分页响应的只读视图
+ * GET_GROUP_MEMBERS 响应的payload依次为：本页成员（用户列表）、下一页的游标（字符串）、群成员总数（整数）；
+ * 响应的content为请求时的游标，空字符串表示第一页
+ */
+public final class MemberPageView {
+    private final UserListView members;  // 本页成员
+    private final String nextCursor;     // 下一页的游标，空字符串表示没有下一页
+    private final int total;             // 群成员总数
+
+    /**
+     * 读取分页响应
+     * @param payload 响应数据
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    public MemberPageView(byte[] payload) {
+        members = new UserListView(payload, 0);
+        PayloadReader reader = new PayloadReader(payload, members.getEnd());
+        nextCursor = reader.readString();
+        total = reader.readInt();
+    }
+
+    /**
+     * 写入分页响应中成员列表之后的部分，供服务器编码时使用
+     * @param writer 已写完本页成员列表的编码器
+     * @param nextCursor 下一页的游标，空字符串表示没有下一页
+     * @param total 群成员总数
+     */
+    public static void writeTrailer(PayloadWriter writer, String nextCursor, int total) {
+        writer.writeString(nextCursor);
+        writer.writeInt(total);
+    }
+
+    public UserListView getMembers() {
+        return members;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * 判断是否还有下一页
+     * @return 有下一页返回true
+     */
+    public boolean hasMore() {
+        return !nextCursor.isEmpty();
+    }
+
+    public int getTotal() {
+        return total;
+    }
+}
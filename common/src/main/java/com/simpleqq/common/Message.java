@@ -13,6 +13,9 @@ public class Message implements Serializable {
     private String receiverId;    // 接收者用户ID（群聊时为群组ID）
     private long timestamp;       // 消息时间戳，用于排序和显示时间
     private String content;       // 消息内容（文本内容或图片数据）
+    private long messageId;       // 消息ID，同一发送者内单调递增，0表示未分配
+    private byte[] payload;       // 列表类响应的二进制数据，格式见PayloadWriter，其他消息为null
+    private long version;         // 列表版本号：请求中为客户端缓存的版本（0表示没有缓存），响应中为当前版本
 
     /**
      * 构造函数
@@ -50,6 +53,18 @@ public class Message implements Serializable {
         return content;
     }
 
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
     // Setter方法
     public void setType(MessageType type) {
         this.type = type;
@@ -71,6 +86,27 @@ public class Message implements Serializable {
         this.content = content;
     }
 
+    public void setMessageId(long messageId) {
+        this.messageId = messageId;
+    }
+
+    public void setPayload(byte[] payload) {
+        this.payload = payload;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * 判断是否为需要可靠投递的聊天消息（文本、图片、群组消息）
+     * @return 是聊天消息返回true
+     */
+    public boolean isChatMessage() {
+        return type == MessageType.TEXT_MESSAGE || type == MessageType.IMAGE_MESSAGE
+                || type == MessageType.GROUP_MESSAGE;
+    }
+
     /**
      * 重写toString方法，便于调试和日志输出
      */
@@ -78,10 +114,13 @@ public class Message implements Serializable {
     public String toString() {
         return "Message{" +
                "type=" + type +
+               ", messageId=" + messageId +
                ", senderId='" + senderId + '\'' +
                ", receiverId='" + receiverId + '\'' +
                ", timestamp=" + timestamp +
                ", content='" + content + '\'' +
+               (payload != null ? ", payload=" + payload.length + " bytes" : "") +
+               (version != 0 ? ", version=" + version : "") +
                '}';
     }
 }
\ No newline at end of file
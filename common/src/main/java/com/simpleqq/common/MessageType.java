@@ -10,6 +10,11 @@ public enum MessageType {
     REGISTER,                 // 用户注册请求
     LOGIN_SUCCESS,            // 登录成功响应
     LOGIN_FAIL,               // 登录失败响应
+    LOGOUT,                   // 用户主动退出
+    SESSION_TOKEN,            // 登录成功后签发的会话令牌
+    SESSION_RESUME,           // 断线重连后请求恢复会话（内容为会话令牌）
+    SESSION_RESUMED,          // 会话恢复成功
+    SESSION_RESUME_FAIL,      // 会话恢复失败，需要重新登录
     REGISTER_SUCCESS,         // 注册成功响应
     REGISTER_FAIL,            // 注册失败响应
     
@@ -43,5 +48,13 @@ public enum MessageType {
     
     // 系统消息类型
     SERVER_MESSAGE,           // 服务器系统消息
-    GET_PENDING_REQUESTS      // 获取待处理请求列表
+    GET_PENDING_REQUESTS,     // 获取待处理请求列表
+    LIST_NOT_MODIFIED,        // 列表未变化（content为请求的消息类型名，senderId与完整响应相同）
+    PING,                     // 心跳请求
+    PONG,                     // 心跳响应
+
+    // 可靠投递相关类型
+    MESSAGE_ACK,              // 服务器已收到发送者的消息（messageId为被确认的消息ID）
+    MESSAGE_THROTTLED,        // 发送过快，服务器丢弃了消息（messageId为被丢弃的消息ID）
+    DELIVERY_ACK              // 接收者已收到消息（receiverId为原发送者，messageId为被确认的消息ID）
 }
\ No newline at end of file
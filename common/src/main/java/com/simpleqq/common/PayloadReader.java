@@ -0,0 +1,98 @@
+package com.simpleqq.common;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制列表数据的读取游标
+ * 只解析长度和位置，不复制字节；格式见 {@link PayloadWriter}
+ */
+final class PayloadReader {
+    private final byte[] data;   // 列表数据
+    private int pos;             // 当前读取位置
+
+    PayloadReader(byte[] data, int pos) {
+        this.data = data;
+        this.pos = pos;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    /**
+     * 读取列表的元素个数
+     * @return 元素个数
+     * @throws IllegalArgumentException 数据不完整或个数不合理
+     */
+    int readCount() {
+        int count = readInt();
+        if (count < 0 || count > data.length - pos) {
+            throw new IllegalArgumentException("Invalid list size: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * 跳过一个字符串，返回其UTF-8字节的长度；读取后position()-长度即为起始位置
+     * @return 字节数
+     */
+    int skipString() {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            require(1);
+            if (shift > 28) {
+                throw new IllegalArgumentException("Malformed string length");
+            }
+            byte b = data[pos++];
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Malformed string length");
+        }
+        require(length);
+        pos += length;
+        return length;
+    }
+
+    int readInt() {
+        require(4);
+        int value = ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+        pos += 4;
+        return value;
+    }
+
+    /**
+     * 读取一个字符串
+     * @return 字符串
+     */
+    String readString() {
+        int length = skipString();
+        return decode(data, pos - length, length);
+    }
+
+    boolean readBoolean() {
+        require(1);
+        return data[pos++] != 0;
+    }
+
+    private void require(int bytes) {
+        if (bytes > data.length - pos) {
+            throw new IllegalArgumentException("Truncated payload");
+        }
+    }
+
+    /**
+     * 解码数组中的一段UTF-8字节
+     * @param data 列表数据
+     * @param start 起始位置
+     * @param length 字节数
+     * @return 字符串
+     */
+    static String decode(byte[] data, int start, int length) {
+        return new String(data, start, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,159 @@
+package com.simpleqq.common;
+
+import java.util.Arrays;
+
+/**
+ * 二进制列表数据编码器
+ * 列表类响应（好友列表、群组列表、群成员列表、待处理请求）不再拼接分隔符字符串，
+ * 而是直接把各字段编码为字节：
+ * - 列表：4字节大端元素个数，后跟各元素
+ * - 字符串：变长整数表示的UTF-8字节数，后跟UTF-8字节，直接从字符编码，不生成中间字符串或字节数组
+ * - 布尔值：1字节
+ * - 整数：4字节大端
+ * 字段内容不受分隔符限制，客户端用 {@link UserListView}、{@link IdListView} 原地读取
+ * 非线程安全，每次编码使用新的实例
+ */
+public final class PayloadWriter {
+    private byte[] buf;   // 编码缓冲区
+    private int size;     // 已写入的字节数
+
+    public PayloadWriter() {
+        this(256);
+    }
+
+    /**
+     * 构造函数
+     * @param initialCapacity 缓冲区初始大小
+     */
+    public PayloadWriter(int initialCapacity) {
+        this.buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * 开始写一个列表，先占位元素个数
+     * @return 占位位置，写完元素后传给endList
+     */
+    public int beginList() {
+        ensure(4);
+        int mark = size;
+        size += 4;
+        return mark;
+    }
+
+    /**
+     * 结束列表，回填元素个数
+     * @param mark beginList返回的占位位置
+     * @param count 实际写入的元素个数
+     */
+    public void endList(int mark, int count) {
+        buf[mark] = (byte) (count >>> 24);
+        buf[mark + 1] = (byte) (count >>> 16);
+        buf[mark + 2] = (byte) (count >>> 8);
+        buf[mark + 3] = (byte) count;
+    }
+
+    /**
+     * 写一个ID列表
+     * @param ids ID列表
+     */
+    public void writeIdList(Iterable<String> ids) {
+        int mark = beginList();
+        int count = 0;
+        for (String id : ids) {
+            writeString(id);
+            count++;
+        }
+        endList(mark, count);
+    }
+
+    public void writeInt(int value) {
+        ensure(4);
+        buf[size++] = (byte) (value >>> 24);
+        buf[size++] = (byte) (value >>> 16);
+        buf[size++] = (byte) (value >>> 8);
+        buf[size++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value) {
+        ensure(1);
+        buf[size++] = (byte) (value ? 1 : 0);
+    }
+
+    /**
+     * 写一个字符串
+     * 先计算UTF-8字节数再逐字符编码；不成对的代理字符按JDK的做法替换为 '?'
+     * @param value 字符串，null按空字符串处理
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            value = "";
+        }
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        writeVarInt(bytes);
+        ensure(bytes);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[size++] = (byte) (0xC0 | (c >> 6));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[size++] = (byte) (0xF0 | (cp >> 18));
+                buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[size++] = '?';
+            } else {
+                buf[size++] = (byte) (0xE0 | (c >> 12));
+                buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeVarInt(int value) {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buf[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[size++] = (byte) value;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 获取编码结果
+     * @return 恰好包含已写入内容的字节数组
+     */
+    public byte[] toByteArray() {
+        return size == buf.length ? buf : Arrays.copyOf(buf, size);
+    }
+}
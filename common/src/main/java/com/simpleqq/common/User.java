@@ -10,8 +10,8 @@ import java.io.Serializable;
 public class User implements Serializable {
     private String id;           // 用户唯一标识ID
     private String username;     // 用户显示名称
-    private String password;     // 用户登录密码
-    private boolean isOnline;    // 用户在线状态标志
+    private volatile String password; // 用户登录密码（服务器端保存的是散列值）
+    private volatile boolean isOnline; // 用户在线状态标志，服务器的多个线程会读写
 
     /**
      * 构造函数
@@ -39,6 +39,15 @@ public class User implements Serializable {
         return password;
     }
 
+    /**
+     * 设置用户密码
+     * 服务器端把旧的明文密码改写为散列值时使用
+     * @param password 新的密码或散列值
+     */
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
     public boolean isOnline() {
         return isOnline;
     }
@@ -0,0 +1,74 @@
+package com.simpleqq.common;
+
+/**
+ * 用户列表（好友列表、群成员列表）的只读视图
+ * 每个元素依次为：用户ID、用户名、是否在线
+ * 构造时只扫描一遍记录各字段的位置，不复制数据；读取字段时才解码对应的字符串
+ */
+public final class UserListView {
+    private final byte[] data;      // 列表数据
+    private final int[] fields;     // 每个元素4项：ID起始位置、ID字节数、用户名起始位置、用户名字节数
+    private final boolean[] online; // 各用户的在线状态
+    private final int end;          // 列表结束位置
+
+    /**
+     * 读取从offset开始的用户列表
+     * @param data 列表数据
+     * @param offset 列表起始位置
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    public UserListView(byte[] data, int offset) {
+        this.data = data;
+        PayloadReader reader = new PayloadReader(data, offset);
+        int count = reader.readCount();
+        fields = new int[count * 4];
+        online = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int length = reader.skipString();
+            fields[i * 4] = reader.position() - length;
+            fields[i * 4 + 1] = length;
+            length = reader.skipString();
+            fields[i * 4 + 2] = reader.position() - length;
+            fields[i * 4 + 3] = length;
+            online[i] = reader.readBoolean();
+        }
+        end = reader.position();
+    }
+
+    /**
+     * 写入一个用户，供服务器编码列表时使用
+     * @param writer 编码器
+     * @param id 用户ID
+     * @param username 用户名
+     * @param online 是否在线
+     */
+    public static void write(PayloadWriter writer, String id, String username, boolean online) {
+        writer.writeString(id);
+        writer.writeString(username);
+        writer.writeBoolean(online);
+    }
+
+    public int size() {
+        return online.length;
+    }
+
+    public String getId(int index) {
+        return PayloadReader.decode(data, fields[index * 4], fields[index * 4 + 1]);
+    }
+
+    public String getUsername(int index) {
+        return PayloadReader.decode(data, fields[index * 4 + 2], fields[index * 4 + 3]);
+    }
+
+    public boolean isOnline(int index) {
+        return online[index];
+    }
+
+    /**
+     * 获取列表结束位置，即下一个列表的起始位置
+     * @return 位置
+     */
+    public int getEnd() {
+        return end;
+    }
+}
@@ -0,0 +1,141 @@
+package com.simpleqq.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 压测统计类
+ * 按流量类型记录发送量、接收量和端到端延迟（发送时刻到接收者读出消息的时刻），
+ * 另外记录发送者收到服务器确认（MESSAGE_ACK）的延迟
+ * 各线程通过Recorder无锁记录，汇报线程定期取出区间直方图并累加到总直方图
+ */
+public class LatencyStats {
+    private static final long HIGHEST_TRACKABLE_US = TimeUnit.MINUTES.toMicros(5); // 可记录的最大延迟（微秒）
+    private static final int SIGNIFICANT_DIGITS = 3;                               // 直方图精度
+
+    private final Map<TrafficKind, Recorder> deliveryRecorders = new EnumMap<>(TrafficKind.class); // 各类型端到端延迟
+    private final Map<TrafficKind, Histogram> deliveryTotals = new EnumMap<>(TrafficKind.class);   // 各类型累计延迟
+    private final Map<TrafficKind, LongAdder> sent = new EnumMap<>(TrafficKind.class);             // 各类型发送数量
+    private final Map<TrafficKind, LongAdder> received = new EnumMap<>(TrafficKind.class);         // 各类型接收数量
+    private final Recorder ackRecorder = new Recorder(HIGHEST_TRACKABLE_US, SIGNIFICANT_DIGITS);   // 服务器确认延迟
+    private final Histogram ackTotal = new Histogram(HIGHEST_TRACKABLE_US, SIGNIFICANT_DIGITS);    // 累计服务器确认延迟
+    private final LongAdder serverNotices = new LongAdder();  // 服务器返回的提示消息数量（如对方离线）
+    private volatile boolean measuring;                        // 是否处于正式测量阶段
+
+    public LatencyStats() {
+        for (TrafficKind kind : TrafficKind.values()) {
+            deliveryRecorders.put(kind, new Recorder(HIGHEST_TRACKABLE_US, SIGNIFICANT_DIGITS));
+            deliveryTotals.put(kind, new Histogram(HIGHEST_TRACKABLE_US, SIGNIFICANT_DIGITS));
+            sent.put(kind, new LongAdder());
+            received.put(kind, new LongAdder());
+        }
+    }
+
+    void recordSent(TrafficKind kind) {
+        if (measuring) {
+            sent.get(kind).increment();
+        }
+    }
+
+    void recordDelivery(TrafficKind kind, long latencyNanos) {
+        if (measuring) {
+            received.get(kind).increment();
+            deliveryRecorders.get(kind).recordValue(toMicros(latencyNanos));
+        }
+    }
+
+    void recordAck(long latencyNanos) {
+        if (measuring) {
+            ackRecorder.recordValue(toMicros(latencyNanos));
+        }
+    }
+
+    void recordServerNotice() {
+        if (measuring) {
+            serverNotices.increment();
+        }
+    }
+
+    private static long toMicros(long nanos) {
+        return Math.min(Math.max(nanos / 1000, 0), HIGHEST_TRACKABLE_US);
+    }
+
+    /**
+     * 开始正式测量，丢弃预热阶段的数据
+     */
+    void startMeasuring() {
+        for (TrafficKind kind : TrafficKind.values()) {
+            deliveryRecorders.get(kind).reset();
+            deliveryTotals.get(kind).reset();
+            sent.get(kind).reset();
+            received.get(kind).reset();
+        }
+        ackRecorder.reset();
+        ackTotal.reset();
+        serverNotices.reset();
+        measuring = true;
+    }
+
+    /**
+     * 停止测量，之后到达的消息不再计入
+     */
+    void stopMeasuring() {
+        measuring = false;
+    }
+
+    /**
+     * 输出区间统计并累加到总直方图
+     * @param elapsedSeconds 从开始测量到现在的秒数
+     */
+    synchronized void printInterval(long elapsedSeconds) {
+        StringBuilder line = new StringBuilder(String.format("[%4ds]", elapsedSeconds));
+        for (TrafficKind kind : TrafficKind.values()) {
+            Histogram interval = deliveryRecorders.get(kind).getIntervalHistogram();
+            deliveryTotals.get(kind).add(interval);
+            line.append(String.format("  %s recv=%d p99=%.2fms", kind.name().toLowerCase(), interval.getTotalCount(),
+                    interval.getValueAtPercentile(99) / 1000.0));
+        }
+        Histogram ackInterval = ackRecorder.getIntervalHistogram();
+        ackTotal.add(ackInterval);
+        line.append(String.format("  ack p99=%.2fms", ackInterval.getValueAtPercentile(99) / 1000.0));
+        System.out.println(line);
+    }
+
+    /**
+     * 输出最终结果：吞吐量和延迟百分位
+     * @param seconds 正式测量时长（秒）
+     */
+    synchronized void printSummary(double seconds) {
+        printInterval(Math.round(seconds));
+        System.out.println();
+        System.out.println(String.format("%-7s %10s %10s %12s %9s %9s %9s %9s %9s %9s",
+                "kind", "sent", "received", "recv/s", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "mean(ms)"));
+        long totalSent = 0;
+        long totalReceived = 0;
+        for (TrafficKind kind : TrafficKind.values()) {
+            long s = sent.get(kind).sum();
+            long r = received.get(kind).sum();
+            totalSent += s;
+            totalReceived += r;
+            printRow(kind.name().toLowerCase(), s, r, seconds, deliveryTotals.get(kind));
+        }
+        printRow("ack", totalSent, ackTotal.getTotalCount(), seconds, ackTotal);
+        System.out.println();
+        System.out.println(String.format("Throughput: sent %.1f msg/s, received %.1f msg/s (group messages count once per recipient)",
+                totalSent / seconds, totalReceived / seconds));
+        System.out.println("Server notices (offline receiver, rejected message, ...): " + serverNotices.sum());
+    }
+
+    private static void printRow(String name, long sentCount, long receivedCount, double seconds, Histogram histogram) {
+        System.out.println(String.format("%-7s %10d %10d %12.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                name, sentCount, receivedCount, receivedCount / seconds,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0, histogram.getMean() / 1000.0));
+    }
+}
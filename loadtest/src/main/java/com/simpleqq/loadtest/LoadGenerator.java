@@ -0,0 +1,280 @@
+package com.simpleqq.loadtest;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无界面压测客户端
+ * 建立N个并发连接，注册并登录虚拟用户，建立好友关系和群组，
+ * 然后按配置的速率和流量组成发送私聊、群聊和图片消息，输出吞吐量和延迟百分位
+ *
+ * 好友关系：用户i与 i±1 ~ i±friends/2 互为好友（按用户数取模）
+ * 群组：第g个群组由用户 g*groupSize 创建，成员为其后连续的 groupSize 个用户
+ */
+public class LoadGenerator {
+    private static final int SETUP_THREADS = 32;              // 建立连接、注册登录使用的线程数
+    private static final long HEARTBEAT_INTERVAL_MS = 15000;  // 心跳间隔，与图形客户端一致
+    private static final long QUIET_PERIOD_MS = 1000;         // 准备阶段响应停止增长多久后视为完成
+    private static final long SETUP_PHASE_TIMEOUT_MS = 120000; // 准备阶段单步最长等待时间
+    private static final long DRAIN_MS = 2000;                // 停止发送后继续接收在途消息的时长
+    private static final long SEED = 20240601L;               // 流量随机种子
+
+    private final LoadTestConfig config;                      // 压测配置
+    private final LatencyStats stats = new LatencyStats();    // 压测统计
+    private final LongAdder setupActivity = new LongAdder();  // 准备阶段响应计数
+    private final List<VirtualUser> users = new ArrayList<>(); // 虚拟用户
+    private final List<List<String>> groupsOfUser = new ArrayList<>(); // 每个用户所在的群组ID
+    private String textPayload;                               // 文本消息填充内容
+    private String imagePayload;                              // 图片消息填充内容
+    private volatile boolean running;                         // 发送线程是否继续运行
+
+    public LoadGenerator(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    private String userId(int index) {
+        return config.prefix + index;
+    }
+
+    private String groupId(int index) {
+        return config.prefix + "-g" + index;
+    }
+
+    /**
+     * 执行完整的压测流程
+     */
+    public void run() throws Exception {
+        System.out.println("Load test against " + config.host + ":" + config.port + " with " + config);
+        long start = System.currentTimeMillis();
+        connectAll();
+        System.out.println("Connected and logged in " + users.size() + " users in " + (System.currentTimeMillis() - start) + " ms.");
+
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "loadtest-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        heartbeat.scheduleAtFixedRate(() -> {
+            for (VirtualUser user : users) {
+                user.sendQuietly(new Message(MessageType.PING, user.id, "Server", ""));
+            }
+        }, HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        buildFriendGraph();
+        buildGroups();
+        preparePayloads();
+        driveTraffic();
+
+        heartbeat.shutdownNow();
+        for (VirtualUser user : users) {
+            user.close();
+        }
+    }
+
+    /**
+     * 并行建立连接并注册、登录所有虚拟用户
+     */
+    private void connectAll() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(SETUP_THREADS);
+        List<Future<VirtualUser>> futures = new ArrayList<>();
+        for (int i = 0; i < config.users; i++) {
+            int index = i;
+            futures.add(pool.submit(() -> {
+                VirtualUser user = new VirtualUser(index, userId(index), config, stats, setupActivity);
+                user.register("pw");
+                if (!user.login("pw")) {
+                    throw new IOException("Login failed for " + user.id);
+                }
+                return user;
+            }));
+        }
+        try {
+            for (Future<VirtualUser> future : futures) {
+                users.add(future.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * 建立好友关系：每个用户向后面的 friends/2 个用户发送好友请求，对方自动接受
+     */
+    private void buildFriendGraph() throws IOException, InterruptedException {
+        int half = config.friends / 2;
+        for (VirtualUser user : users) {
+            for (int k = 1; k <= half; k++) {
+                String friendId = userId((user.index + k) % config.users);
+                user.send(new Message(MessageType.FRIEND_REQUEST, user.id, friendId, ""));
+            }
+        }
+        awaitQuiet("friend graph");
+    }
+
+    /**
+     * 建立群组：创建者建群后邀请成员，成员自动接受
+     */
+    private void buildGroups() throws IOException, InterruptedException {
+        for (int i = 0; i < config.users; i++) {
+            groupsOfUser.add(new ArrayList<>());
+        }
+        for (int g = 0; g < config.groups; g++) {
+            int owner = (g * config.groupSize) % config.users;
+            users.get(owner).send(new Message(MessageType.CREATE_GROUP, users.get(owner).id, "Server", groupId(g)));
+            groupsOfUser.get(owner).add(groupId(g));
+        }
+        awaitQuiet("group creation");
+        for (int g = 0; g < config.groups; g++) {
+            int owner = (g * config.groupSize) % config.users;
+            for (int k = 1; k < config.groupSize; k++) {
+                int member = (owner + k) % config.users;
+                users.get(owner).send(new Message(MessageType.GROUP_INVITE, users.get(owner).id, userId(member), groupId(g)));
+                groupsOfUser.get(member).add(groupId(g));
+            }
+        }
+        awaitQuiet("group membership");
+    }
+
+    /**
+     * 等待服务器处理完准备阶段的请求（响应数在一段时间内不再增长）
+     * @param phase 阶段名称
+     */
+    private void awaitQuiet(String phase) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long last = -1;
+        long stableSince = start;
+        while (System.currentTimeMillis() - start < SETUP_PHASE_TIMEOUT_MS) {
+            Thread.sleep(100);
+            long now = setupActivity.sum();
+            if (now != last) {
+                last = now;
+                stableSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - stableSince >= QUIET_PERIOD_MS) {
+                break;
+            }
+        }
+        System.out.println("Set up " + phase + " in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * 预先生成填充内容，发送时不再分配
+     */
+    private void preparePayloads() {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder(config.textSize);
+        for (int i = 0; i < config.textSize; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        textPayload = text.toString();
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder image = new StringBuilder(config.imageSize);
+        for (int i = 0; i < config.imageSize; i++) {
+            image.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        imagePayload = image.toString();
+    }
+
+    /**
+     * 按配置的速率发送流量：预热、正式测量、排空在途消息
+     */
+    private void driveTraffic() throws InterruptedException {
+        running = true;
+        List<Thread> senders = new ArrayList<>();
+        for (int t = 0; t < config.senders; t++) {
+            int slot = t;
+            Thread sender = new Thread(() -> sendLoop(slot), "loadtest-sender-" + t);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+        System.out.println("Warming up for " + config.warmupSeconds + " s...");
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.warmupSeconds));
+
+        stats.startMeasuring();
+        long measureStart = System.nanoTime();
+        for (int s = 1; s <= config.durationSeconds; s++) {
+            long wakeAt = measureStart + TimeUnit.SECONDS.toNanos(s);
+            LockSupport.parkNanos(wakeAt - System.nanoTime());
+            if (s < config.durationSeconds) {
+                stats.printInterval(s);
+            }
+        }
+        running = false;
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        Thread.sleep(DRAIN_MS);
+        stats.stopMeasuring();
+        stats.printSummary(config.durationSeconds);
+    }
+
+    /**
+     * 发送线程主循环
+     * 每个线程负责序号对线程数取模等于slot的用户，按固定间隔发送；
+     * 落后于计划时不补等待，延迟仍从计划时刻算起
+     * @param slot 发送线程序号
+     */
+    private void sendLoop(int slot) {
+        List<VirtualUser> mine = new ArrayList<>();
+        for (VirtualUser user : users) {
+            if (user.index % config.senders == slot) {
+                mine.add(user);
+            }
+        }
+        if (mine.isEmpty()) {
+            return;
+        }
+        Random random = new Random(SEED + slot);
+        int totalWeight = config.textWeight + config.groupWeight + config.imageWeight;
+        int half = config.friends / 2;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * config.senders / Math.max(1, config.rate);
+        long next = System.nanoTime();
+        while (running) {
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            VirtualUser user = mine.get(random.nextInt(mine.size()));
+            int pick = random.nextInt(Math.max(1, totalWeight));
+            TrafficKind kind = pick < config.textWeight ? TrafficKind.TEXT
+                    : pick < config.textWeight + config.groupWeight ? TrafficKind.GROUP : TrafficKind.IMAGE;
+            List<String> groups = groupsOfUser.get(user.index);
+            if (kind == TrafficKind.GROUP && groups.isEmpty()) {
+                kind = TrafficKind.TEXT;
+            }
+            try {
+                if (kind == TrafficKind.GROUP) {
+                    user.sendChat(kind, groups.get(random.nextInt(groups.size())), next, textPayload);
+                } else if (half > 0) {
+                    int offset = 1 + random.nextInt(half);
+                    int friend = Math.floorMod(user.index + (random.nextBoolean() ? offset : -offset), config.users);
+                    user.sendChat(kind, userId(friend), next, kind == TrafficKind.IMAGE ? imagePayload : textPayload);
+                }
+            } catch (IOException e) {
+                System.err.println("Send failed for " + user.id + ": " + e.getMessage());
+            }
+            next += intervalNanos;
+        }
+    }
+
+    /**
+     * 主方法，程序入口点
+     * @param args 命令行参数，见 --help
+     */
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(LoadTestConfig.parse(args)).run();
+        System.exit(0);
+    }
+}
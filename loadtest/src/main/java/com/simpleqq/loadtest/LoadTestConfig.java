@@ -0,0 +1,115 @@
+package com.simpleqq.loadtest;
+
+/**
+ * 压测配置类
+ * 从命令行参数解析压测规模和流量组成，参数格式为 --名称 值
+ */
+public class LoadTestConfig {
+    String host = "127.0.0.1";     // 服务器地址
+    int port = 8888;               // 服务器端口
+    String prefix = "lt";          // 虚拟用户ID和群组ID前缀，不同前缀的压测数据互不影响
+    int users = 100;               // 并发连接（虚拟用户）数量
+    int friends = 10;              // 每个用户的好友数量
+    int groups = 10;               // 群组数量
+    int groupSize = 20;            // 每个群组的成员数量
+    int rate = 500;                // 全部虚拟用户合计每秒发送的消息数
+    int senders = 4;               // 发送线程数量
+    int warmupSeconds = 5;         // 预热时长（秒），预热期间的延迟不计入结果
+    int durationSeconds = 30;      // 正式测量时长（秒）
+    int textWeight = 70;           // 私聊文本消息权重
+    int groupWeight = 25;          // 群聊消息权重
+    int imageWeight = 5;           // 私聊图片消息权重
+    int textSize = 64;             // 文本消息内容长度
+    int imageSize = 32 * 1024;     // 图片消息Base64数据长度
+
+    /**
+     * 解析命令行参数
+     * @param args 命令行参数
+     * @return 压测配置
+     */
+    static LoadTestConfig parse(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if ("--help".equals(name)) {
+                printUsage();
+                System.exit(0);
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--host": config.host = value; break;
+                case "--port": config.port = Integer.parseInt(value); break;
+                case "--prefix": config.prefix = value; break;
+                case "--users": config.users = Integer.parseInt(value); break;
+                case "--friends": config.friends = Integer.parseInt(value); break;
+                case "--groups": config.groups = Integer.parseInt(value); break;
+                case "--group-size": config.groupSize = Integer.parseInt(value); break;
+                case "--rate": config.rate = Integer.parseInt(value); break;
+                case "--senders": config.senders = Integer.parseInt(value); break;
+                case "--warmup": config.warmupSeconds = Integer.parseInt(value); break;
+                case "--duration": config.durationSeconds = Integer.parseInt(value); break;
+                case "--mix": parseMix(config, value); break;
+                case "--text-size": config.textSize = Integer.parseInt(value); break;
+                case "--image-size": config.imageSize = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        if (config.users < 2) {
+            throw new IllegalArgumentException("--users must be at least 2");
+        }
+        config.friends = Math.min(config.friends, config.users - 1);
+        config.groupSize = Math.min(config.groupSize, config.users);
+        return config;
+    }
+
+    /**
+     * 解析流量组成
+     * 格式：text:70,group:25,image:5
+     */
+    private static void parseMix(LoadTestConfig config, String value) {
+        config.textWeight = 0;
+        config.groupWeight = 0;
+        config.imageWeight = 0;
+        for (String part : value.split(",")) {
+            String[] kv = part.split(":");
+            int weight = Integer.parseInt(kv[1]);
+            switch (kv[0]) {
+                case "text": config.textWeight = weight; break;
+                case "group": config.groupWeight = weight; break;
+                case "image": config.imageWeight = weight; break;
+                default: throw new IllegalArgumentException("Unknown message kind in mix: " + kv[0]);
+            }
+        }
+    }
+
+    /**
+     * 打印用法说明
+     */
+    static void printUsage() {
+        System.out.println("Usage: java -jar loadtest.jar [options]");
+        System.out.println("  --host <host>          server host (default 127.0.0.1)");
+        System.out.println("  --port <port>          server port (default 8888)");
+        System.out.println("  --prefix <prefix>      user/group id prefix (default lt)");
+        System.out.println("  --users <n>            concurrent connections (default 100)");
+        System.out.println("  --friends <n>          friends per user (default 10)");
+        System.out.println("  --groups <n>           number of groups (default 10)");
+        System.out.println("  --group-size <n>       members per group (default 20)");
+        System.out.println("  --rate <n>             total messages per second (default 500)");
+        System.out.println("  --senders <n>          sender threads (default 4)");
+        System.out.println("  --warmup <seconds>     warmup before measuring (default 5)");
+        System.out.println("  --duration <seconds>   measured duration (default 30)");
+        System.out.println("  --mix <spec>           traffic mix, e.g. text:70,group:25,image:5");
+        System.out.println("  --text-size <chars>    text message length (default 64)");
+        System.out.println("  --image-size <chars>   image payload length (default 32768)");
+    }
+
+    @Override
+    public String toString() {
+        return "users=" + users + " friends=" + friends + " groups=" + groups + "x" + groupSize
+                + " rate=" + rate + "/s senders=" + senders + " mix=text:" + textWeight + ",group:" + groupWeight
+                + ",image:" + imageWeight + " warmup=" + warmupSeconds + "s duration=" + durationSeconds + "s";
+    }
+}
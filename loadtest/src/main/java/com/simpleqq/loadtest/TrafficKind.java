@@ -0,0 +1,32 @@
+package com.simpleqq.loadtest;
+
+import com.simpleqq.common.MessageType;
+
+/**
+ * 压测流量类型
+ */
+public enum TrafficKind {
+    TEXT(MessageType.TEXT_MESSAGE),     // 私聊文本消息
+    GROUP(MessageType.GROUP_MESSAGE),   // 群聊消息
+    IMAGE(MessageType.IMAGE_MESSAGE);   // 私聊图片消息
+
+    final MessageType messageType;      // 对应的协议消息类型
+
+    TrafficKind(MessageType messageType) {
+        this.messageType = messageType;
+    }
+
+    /**
+     * 根据协议消息类型查找流量类型
+     * @param type 协议消息类型
+     * @return 流量类型，不是压测流量返回null
+     */
+    static TrafficKind of(MessageType type) {
+        for (TrafficKind kind : values()) {
+            if (kind.messageType == type) {
+                return kind;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,237 @@
+package com.simpleqq.loadtest;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 虚拟用户类
+ * 一个虚拟用户对应一条到服务器的连接，使用与图形客户端相同的消息协议，但没有任何界面
+ * 读取线程自动接受好友请求和群组邀请、回复心跳、发送投递确认，并记录压测消息的延迟
+ */
+public class VirtualUser {
+    static final String MARKER = "LT|";                     // 压测消息内容前缀，后面紧跟发送时刻（纳秒）
+    private static final long RESPONSE_TIMEOUT_MS = 10000;  // 等待注册、登录响应的超时时间
+    private static final long READER_STACK_SIZE = 256 * 1024; // 读取线程栈大小，便于创建上万个连接
+
+    final int index;                           // 虚拟用户序号
+    final String id;                           // 用户ID
+    private final LatencyStats stats;          // 压测统计
+    private final LongAdder setupActivity;     // 准备阶段收到的响应计数，用于判断服务器是否已处理完
+    private final Socket socket;               // 到服务器的连接
+    private final ObjectOutputStream out;      // 对象输出流
+    private final ObjectInputStream in;        // 对象输入流
+    private final BlockingQueue<Message> responses = new LinkedBlockingQueue<>(); // 注册、登录响应
+    private final Map<Long, Long> pendingAcks = new ConcurrentHashMap<>();        // 等待服务器确认的消息ID -> 发送时刻
+    private final AtomicLong nextMessageId;    // 消息ID生成器
+    private volatile boolean closing;          // 是否正在主动断开
+
+    /**
+     * 构造函数
+     * 建立连接并启动读取线程
+     * @param index 虚拟用户序号
+     * @param id 用户ID
+     * @param config 压测配置
+     * @param stats 压测统计
+     * @param setupActivity 准备阶段响应计数
+     * @throws IOException 连接失败时抛出
+     */
+    VirtualUser(int index, String id, LoadTestConfig config, LatencyStats stats, LongAdder setupActivity) throws IOException {
+        this.index = index;
+        this.id = id;
+        this.stats = stats;
+        this.setupActivity = setupActivity;
+        this.nextMessageId = new AtomicLong(System.currentTimeMillis() * 1000);
+        this.socket = new Socket(config.host, config.port);
+        socket.setTcpNoDelay(true);
+        // 与服务器相反：先创建输出流并写出流头，再创建输入流
+        this.out = new ObjectOutputStream(socket.getOutputStream());
+        out.flush();
+        this.in = new ObjectInputStream(socket.getInputStream());
+        Thread reader = new Thread(null, this::receiveLoop, "vu-" + id, READER_STACK_SIZE);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * 注册用户，ID已存在视为成功（重复运行压测时复用已有用户）
+     */
+    void register(String password) throws IOException, InterruptedException {
+        send(new Message(MessageType.REGISTER, id, "Server", id + "," + id + "," + password));
+        awaitResponse(MessageType.REGISTER_SUCCESS, MessageType.REGISTER_FAIL);
+    }
+
+    /**
+     * 登录
+     * @return 登录成功返回true
+     */
+    boolean login(String password) throws IOException, InterruptedException {
+        send(new Message(MessageType.LOGIN, id, "Server", id + "," + password));
+        return awaitResponse(MessageType.LOGIN_SUCCESS, MessageType.LOGIN_FAIL).getType() == MessageType.LOGIN_SUCCESS;
+    }
+
+    private Message awaitResponse(MessageType success, MessageType failure) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + RESPONSE_TIMEOUT_MS;
+        while (true) {
+            Message response = responses.poll(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            if (response == null) {
+                throw new IOException("Timed out waiting for " + success + " for " + id);
+            }
+            if (response.getType() == success || response.getType() == failure) {
+                return response;
+            }
+        }
+    }
+
+    /**
+     * 发送一条压测聊天消息
+     * 内容中携带计划发送时刻，延迟从计划时刻算起，发送线程落后时不会掩盖排队造成的延迟
+     * @param kind 流量类型
+     * @param receiverId 接收者ID（群聊时为群组ID）
+     * @param intendedNanos 计划发送时刻（System.nanoTime）
+     * @param payload 填充内容
+     */
+    void sendChat(TrafficKind kind, String receiverId, long intendedNanos, String payload) throws IOException {
+        String content = kind == TrafficKind.IMAGE
+                ? MARKER + intendedNanos + "|bench.png:" + payload
+                : MARKER + intendedNanos + "|" + payload;
+        Message message = new Message(kind.messageType, id, receiverId, content);
+        synchronized (this) {
+            long messageId = nextMessageId.incrementAndGet();
+            message.setMessageId(messageId);
+            pendingAcks.put(messageId, intendedNanos);
+            writeMessage(message);
+        }
+        stats.recordSent(kind);
+    }
+
+    /**
+     * 发送消息
+     * @param message 消息
+     */
+    synchronized void send(Message message) throws IOException {
+        writeMessage(message);
+    }
+
+    private void writeMessage(Message message) throws IOException {
+        out.writeObject(message);
+        out.reset(); // 与服务器一致，避免对象流句柄表无限增长
+        out.flush();
+    }
+
+    /**
+     * 发送不关心结果的消息（心跳、确认等），连接已断开时忽略
+     */
+    void sendQuietly(Message message) {
+        try {
+            send(message);
+        } catch (IOException e) {
+            // 连接已断开，由读取线程报告
+        }
+    }
+
+    /**
+     * 读取线程主循环
+     */
+    private void receiveLoop() {
+        try {
+            while (true) {
+                handleIncoming((Message) in.readObject());
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            if (!closing) {
+                System.err.println("Connection of " + id + " closed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 处理服务器发来的消息
+     * @param message 消息
+     */
+    private void handleIncoming(Message message) {
+        TrafficKind kind = TrafficKind.of(message.getType());
+        if (kind != null) {
+            sendDeliveryAck(message);
+            String content = message.getContent();
+            if (content != null && content.startsWith(MARKER)) {
+                long sentNanos = Long.parseLong(content.substring(MARKER.length(), content.indexOf('|', MARKER.length())));
+                stats.recordDelivery(kind, System.nanoTime() - sentNanos);
+            }
+            return;
+        }
+        switch (message.getType()) {
+            case PING:
+                sendQuietly(new Message(MessageType.PONG, id, "Server", ""));
+                break;
+            case MESSAGE_ACK:
+                Long sentNanos = pendingAcks.remove(message.getMessageId());
+                if (sentNanos != null) {
+                    stats.recordAck(System.nanoTime() - sentNanos);
+                }
+                break;
+            case REGISTER_SUCCESS:
+            case REGISTER_FAIL:
+            case LOGIN_SUCCESS:
+            case LOGIN_FAIL:
+                responses.add(message);
+                break;
+            case FRIEND_REQUEST:
+                // 自动接受好友请求
+                sendQuietly(new Message(MessageType.FRIEND_ACCEPT, id, message.getSenderId(), ""));
+                setupActivity.increment();
+                break;
+            case GROUP_INVITE:
+                // 自动接受群组邀请，内容为群组ID
+                sendQuietly(new Message(MessageType.GROUP_ACCEPT, id, "Server", message.getContent()));
+                setupActivity.increment();
+                break;
+            case MESSAGE_THROTTLED:
+                pendingAcks.remove(message.getMessageId());
+                stats.recordServerNotice();
+                break;
+            case SERVER_MESSAGE:
+                stats.recordServerNotice();
+                setupActivity.increment();
+                break;
+            default:
+                setupActivity.increment(); // 好友列表、群组列表等响应
+        }
+    }
+
+    /**
+     * 向服务器确认已收到聊天消息，避免服务器的未确认窗口溢出到离线存储
+     */
+    private void sendDeliveryAck(Message message) {
+        if (message.getMessageId() == 0) {
+            return;
+        }
+        Message ack = new Message(MessageType.DELIVERY_ACK, id, message.getSenderId(), "");
+        ack.setMessageId(message.getMessageId());
+        sendQuietly(ack);
+    }
+
+    /**
+     * 退出登录并关闭连接
+     */
+    void close() {
+        closing = true;
+        sendQuietly(new Message(MessageType.LOGOUT, id, "Server", ""));
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.simpleqq.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接准入控制类
+ * 位于accept循环和ClientHandler之间，在连接占用线程和文件句柄之前限制重连风暴：
+ * 1. 按来源IP的令牌桶限制新建连接的速率（默认不限制本机回环地址）
+ * 2. 通过准入检查的连接进入有界的待处理队列，队列已满时直接关闭
+ * 3. 准入线程从队列中取出连接，在未完成登录的连接数低于上限时才为其启动处理线程
+ *
+ * 连接登录成功、恢复会话或断开时归还名额；未登录的连接仍由空闲连接清理器按空闲超时关闭
+ */
+public class AdmissionController {
+    private final Server server;                        // 服务器实例
+    private final KeyedRateLimiter perIpLimiter;        // 按来源IP的新建连接限流
+    private final boolean limitLoopback;                // 是否对本机回环地址限流
+    private final BlockingQueue<Socket> pendingAccepts; // 已接受、等待启动处理线程的连接
+    private final Semaphore handshakes;                 // 未完成登录的连接名额
+    private final int maxHandshakes;                    // 未完成登录的连接数上限
+    private final LongAdder rejectedQueueFull = new LongAdder(); // 因待处理队列已满被拒绝的连接数
+
+    /**
+     * 构造函数
+     * 参数可通过 simpleqq.admission.* 系统属性调整
+     * @param server 服务器实例
+     */
+    public AdmissionController(Server server) {
+        this.server = server;
+        this.perIpLimiter = new KeyedRateLimiter(
+                Integer.getInteger("simpleqq.admission.perIpRate", 10),
+                Integer.getInteger("simpleqq.admission.perIpBurst", 30));
+        this.limitLoopback = Boolean.getBoolean("simpleqq.admission.limitLoopback");
+        this.pendingAccepts = new ArrayBlockingQueue<>(Integer.getInteger("simpleqq.admission.acceptQueue", 128));
+        this.maxHandshakes = Integer.getInteger("simpleqq.admission.maxHandshakes", 256);
+        this.handshakes = new Semaphore(maxHandshakes);
+    }
+
+    /**
+     * 启动准入线程
+     */
+    public void start() {
+        Thread t = new Thread(this::admitLoop, "connection-admission");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 对刚接受的连接做准入检查
+     * 在accept线程中调用，不做任何阻塞操作；被拒绝的连接立即关闭
+     * @param socket 客户端连接
+     * @return 进入待处理队列返回true
+     */
+    public boolean offer(Socket socket) {
+        boolean limited = limitLoopback || !socket.getInetAddress().isLoopbackAddress();
+        if (limited && !perIpLimiter.tryAcquire(socket.getInetAddress().getHostAddress())) {
+            closeQuietly(socket);
+            return false;
+        }
+        if (!pendingAccepts.offer(socket)) {
+            rejectedQueueFull.increment();
+            closeQuietly(socket);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 准入线程主循环
+     * 等到有空闲名额时再为队首的连接启动处理线程，名额用尽期间新连接在队列中等待
+     */
+    private void admitLoop() {
+        while (true) {
+            Socket socket = null;
+            try {
+                socket = pendingAccepts.take();
+                handshakes.acquire();
+                new ClientHandler(socket, server).start();
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // 例如无法再创建线程：归还名额并关闭连接，准入线程继续工作
+                e.printStackTrace();
+                handshakes.release();
+                if (socket != null) {
+                    closeQuietly(socket);
+                }
+            }
+        }
+    }
+
+    /**
+     * 归还未完成登录的连接名额
+     * 每个连接只能调用一次，由ClientHandler保证
+     */
+    public void handshakeFinished() {
+        handshakes.release();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // 连接本来就要丢弃
+        }
+    }
+
+    public long getRateLimitedCount() {
+        return perIpLimiter.getRejectedCount();
+    }
+
+    public long getQueueFullCount() {
+        return rejectedQueueFull.sum();
+    }
+
+    /**
+     * 获取等待启动处理线程的连接数
+     * @return 连接数
+     */
+    public int getPendingCount() {
+        return pendingAccepts.size();
+    }
+
+    /**
+     * 获取未完成登录的连接数
+     * @return 连接数
+     */
+    public int getActiveHandshakes() {
+        return maxHandshakes - handshakes.availablePermits();
+    }
+}
@@ -0,0 +1,17 @@
+package com.simpleqq.server;
+
+import java.util.List;
+
+/**
+ * 用户数据、群组数据变化监听器
+ * 集群模式下用于把本节点上的修改复制到其他节点
+ * 在发生变化的线程中同步调用，实现不应阻塞；需要写网络的处理应交给其他线程
+ */
+public interface ChangeListener {
+    /**
+     * 数据发生变化
+     * @param operation 操作名称，如 user、friend_accept、group_create
+     * @param args 操作参数，含义由操作决定
+     */
+    void changed(String operation, List<String> args);
+}
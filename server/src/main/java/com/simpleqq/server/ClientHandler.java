@@ -1,26 +1,52 @@
 package com.simpleqq.server;
 
+import com.simpleqq.common.MemberPageRequest;
 import com.simpleqq.common.Message;
 import com.simpleqq.common.MessageType;
+import com.simpleqq.common.PayloadWriter;
 import com.simpleqq.common.User;
+import com.simpleqq.common.UserListView;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * 客户端处理器类
  * 每个连接的客户端都有一个对应的ClientHandler线程
  * 负责处理单个客户端的所有消息请求和响应
  */
-public class ClientHandler extends Thread {
+public class ClientHandler extends Thread implements MessageSink {
+    private static final int MAX_UNACKED_MESSAGES = 1000; // 未确认消息窗口的最大长度
+    private static final int HANDSHAKE_TIMEOUT_MS = 10000; // 等待客户端发送对象流头的超时
+
     private Socket socket;              // 客户端Socket连接
     private Server server;              // 服务器实例引用
     private ObjectInputStream ois;      // 对象输入流，用于接收客户端消息
+    private CountingInputStream countingIn; // 统计读取字节数并记录消息到达时刻
     private ObjectOutputStream oos;     // 对象输出流，用于发送消息给客户端
-    private String userId;              // 当前连接的用户ID
+    private final SerialExecutor inbound; // 按到达顺序执行本连接消息处理的队列
+    private final SerialExecutor fanoutQueue; // 大群消息的出站队列，在扇出线程池中按顺序发送
+    private volatile String userId;     // 当前连接的用户ID
+    private volatile boolean detached;  // 连接已断开但会话仍在宽限期内
+    private volatile long lastActivity = System.currentTimeMillis(); // 最近一次收到客户端消息的时间
+    private volatile int reaperSlot = -1; // 在空闲连接清理器时间轮中的格号
+    private final AtomicBoolean handshaking = new AtomicBoolean(true); // 是否仍占用准入控制的未登录连接名额
+    private volatile long sentFriendsVersion;  // 本连接最近发送的好友列表版本号
+    private volatile long sentGroupsVersion;   // 本连接最近发送的群组列表版本号
+    private volatile long sentPendingVersion;  // 本连接最近发送的待处理请求列表版本号
+    private volatile long lastMessageId;       // 本会话已处理的最大聊天消息ID，用于去重；恢复会话时从原连接继承
+    private final Map<String, Message> unackedMessages = new LinkedHashMap<>(); // 已发送但客户端未确认的聊天消息，key为 发送者ID#消息ID
+    private final Object unackedLock = new Object(); // 保护未确认窗口，与写出消息的锁分开，处理投递确认时不必等待正在进行的写出
 
     /**
      * 构造函数
@@ -30,12 +56,39 @@ public class ClientHandler extends Thread {
     public ClientHandler(Socket socket, Server server) {
         this.socket = socket;
         this.server = server;
-        try {
-            // 注意：必须先创建输出流，再创建输入流，避免死锁
-            oos = new ObjectOutputStream(socket.getOutputStream());
-            ois = new ObjectInputStream(socket.getInputStream());
-        } catch (IOException e) {
-            e.printStackTrace();
+        this.inbound = server.getRouter().newConnectionQueue();
+        this.fanoutQueue = server.getFanoutEngine().newRecipientQueue();
+    }
+
+    /**
+     * 获取大群消息的出站队列
+     * @return 出站队列
+     */
+    SerialExecutor getFanoutQueue() {
+        return fanoutQueue;
+    }
+
+    /**
+     * 创建对象流
+     * 创建输入流时会阻塞读取客户端的对象流头，因此在本连接的线程中执行，并限定超时
+     * @throws IOException 超时或连接断开时抛出
+     */
+    private void openStreams() throws IOException {
+        // 注意：必须先创建输出流，再创建输入流，避免死锁
+        oos = new ObjectOutputStream(new CountingOutputStream(socket.getOutputStream(), server.getMetrics().getBytesSent()));
+        countingIn = new CountingInputStream(socket.getInputStream(), server.getMetrics().getBytesReceived());
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        ois = new ObjectInputStream(countingIn);
+        socket.setSoTimeout(0);
+    }
+
+    /**
+     * 结束握手阶段，归还准入控制的未登录连接名额
+     * 登录成功、恢复会话或连接断开时调用，只有第一次调用生效
+     */
+    private void finishHandshake() {
+        if (handshaking.compareAndSet(true, false)) {
+            server.getAdmissionController().handshakeFinished();
         }
     }
 
@@ -47,6 +100,42 @@ public class ClientHandler extends Thread {
         return userId;
     }
 
+    /**
+     * 判断连接是否已关闭
+     * @return true表示连接已关闭
+     */
+    public boolean isClosed() {
+        return detached || socket.isClosed();
+    }
+
+    /**
+     * 获取最近一次收到客户端消息的时间
+     * @return 时间戳（毫秒）
+     */
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    int getReaperSlot() {
+        return reaperSlot;
+    }
+
+    void setReaperSlot(int reaperSlot) {
+        this.reaperSlot = reaperSlot;
+    }
+
+    /**
+     * 关闭连接
+     * 空闲连接清理器调用，读取线程随即抛出异常并走正常的断线流程
+     */
+    void closeConnection() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * 获取输出流对象
      * @return 对象输出流
@@ -61,81 +150,49 @@ public class ClientHandler extends Thread {
      */
     @Override
     public void run() {
+        try {
+            openStreams();
+        } catch (IOException e) {
+            System.out.println("Handshake with " + socket.getInetAddress().getHostAddress() + " failed: " + e.getMessage());
+            finishHandshake();
+            server.getMetrics().connectionClosed();
+            closeConnection();
+            return;
+        }
+        server.getConnectionReaper().register(this);
         try {
             while (true) {
                 // 接收客户端消息
+                countingIn.markMessageBoundary(server.getTracer().isEnabled());
                 Message message = (Message) ois.readObject();
-                System.out.println("Received message from client: " + message);
-
-                // 根据消息类型分发处理
-                switch (message.getType()) {
-                    case LOGIN:
-                        handleLogin(message);
-                        break;
-                    case REGISTER:
-                        handleRegister(message);
-                        break;
-                    case FRIEND_REQUEST:
-                        handleFriendRequest(message);
-                        break;
-                    case FRIEND_ACCEPT:
-                        handleFriendAccept(message);
-                        break;
-                    case FRIEND_REJECT:
-                        handleFriendReject(message);
-                        break;
-                    case DELETE_FRIEND:
-                        handleDeleteFriend(message);
-                        break;
-                    case TEXT_MESSAGE:
-                        handleTextMessage(message);
-                        break;
-                    case GROUP_MESSAGE:
-                        handleGroupMessage(message);
-                        break;
-                    case IMAGE_MESSAGE:
-                        handleImageMessage(message);
-                        break;
-                    case GROUP_INVITE:
-                        handleGroupInvite(message);
-                        break;
-                    case GROUP_ACCEPT:
-                        handleGroupAccept(message);
-                        break;
-                    case GROUP_REJECT:
-                        handleGroupReject(message);
-                        break;
-                    case CREATE_GROUP:
-                        handleCreateGroup(message);
-                        break;
-                    case GET_GROUPS:
-                        sendGroupList(message.getSenderId());
-                        break;
-                    case GET_PENDING_REQUESTS:
-                        sendPendingRequests(message.getSenderId());
-                        break;
-                    case GET_GROUP_MEMBERS:
-                        sendGroupMembers(message.getContent(), message.getSenderId());
-                        break;
-                    case FRIEND_LIST:
-                        sendFriendList(message.getSenderId());
-                        break;
-                    default:
-                        System.out.println("Unknown message type: " + message.getType());
+                lastActivity = System.currentTimeMillis();
+                server.getMetrics().messageReceived(message.getType());
+                if (message.getType() == MessageType.PING) {
+                    sendMessage(new Message(MessageType.PONG, "Server", message.getSenderId(), ""));
+                    continue;
+                }
+                if (message.getType() == MessageType.PONG) {
+                    continue;
                 }
+                server.getRouter().dispatch(this, inbound, message, countingIn.getFirstReadNanos());
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException | ClassNotFoundException | InterruptedException e) {
             System.out.println("Client " + userId + " disconnected.");
-            // 客户端断开连接时的清理工作
-            server.removeClient(userId);
-            if (userId != null) {
-                User user = server.getUserManager().getUserById(userId);
-                if (user != null) {
-                    user.setOnline(false);
-                    notifyFriendsStatusChange(userId); // 通知好友状态变化
-                }
+            // 等待已读到的消息处理完毕，之后再清理会话
+            try {
+                inbound.awaitIdle();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            // 已登录的连接先挂起会话，宽限期内客户端可以重连恢复；否则立即清理
+            detached = server.getSessionManager().detach(this);
+            if (!detached) {
+                endSession();
             }
         } finally {
+            finishHandshake();
+            server.getConnectionReaper().unregister(this);
+            server.getMetrics().connectionClosed();
             // 关闭资源
             try {
                 if (ois != null) ois.close();
@@ -147,42 +204,266 @@ public class ClientHandler extends Thread {
         }
     }
 
+    /**
+     * 注册各消息类型的处理器
+     * 只读内存数据的处理器在读取线程中直接执行；
+     * 需要写文件、修改好友关系或群组、扇出聊天消息的处理器在工作线程池中执行
+     * @param router 消息路由器
+     */
+    static void registerHandlers(MessageRouter router) {
+        router.register(MessageType.LOGIN, ClientHandler::handleLogin);
+        router.register(MessageType.LOGOUT, (client, message) -> client.handleLogout());
+        router.register(MessageType.SESSION_RESUME, ClientHandler::handleSessionResume);
+        router.register(MessageType.REGISTER, ClientHandler::handleRegister);
+        router.registerBlocking(MessageType.FRIEND_REQUEST, ClientHandler::handleFriendRequest);
+        router.registerBlocking(MessageType.FRIEND_ACCEPT, ClientHandler::handleFriendAccept);
+        router.registerBlocking(MessageType.FRIEND_REJECT, ClientHandler::handleFriendReject);
+        router.registerBlocking(MessageType.DELETE_FRIEND, ClientHandler::handleDeleteFriend);
+        router.registerBlocking(MessageType.TEXT_MESSAGE, ClientHandler::handleTextMessage);
+        router.registerBlocking(MessageType.GROUP_MESSAGE, ClientHandler::handleGroupMessage);
+        router.registerBlocking(MessageType.IMAGE_MESSAGE, ClientHandler::handleImageMessage);
+        router.registerBlocking(MessageType.GROUP_INVITE, ClientHandler::handleGroupInvite);
+        router.registerBlocking(MessageType.GROUP_ACCEPT, ClientHandler::handleGroupAccept);
+        router.registerBlocking(MessageType.GROUP_REJECT, ClientHandler::handleGroupReject);
+        router.registerBlocking(MessageType.CREATE_GROUP, ClientHandler::handleCreateGroup);
+        router.register(MessageType.GET_GROUPS, ClientHandler::handleGroupListRequest);
+        router.register(MessageType.GET_PENDING_REQUESTS, ClientHandler::handlePendingRequestsRequest);
+        router.register(MessageType.GET_GROUP_MEMBERS, ClientHandler::handleGroupMembersRequest);
+        router.register(MessageType.FRIEND_LIST, ClientHandler::handleFriendListRequest);
+        router.register(MessageType.DELIVERY_ACK, ClientHandler::handleDeliveryAck);
+    }
+
+    /**
+     * 处理一条客户端消息
+     * 由消息路由器在读取线程或工作线程中调用，同一连接的消息按到达顺序依次调用
+     * 写回客户端失败时关闭连接，读取线程随即走正常的断线流程
+     * @param message 客户端消息
+     * @param handler 该消息类型的处理器
+     * @param firstByteNanos 收到该消息第一个字节的时刻，未记录时为0
+     */
+    void process(Message message, MessageHandler handler, long firstByteNanos) {
+        MessageTracer tracer = server.getTracer();
+        boolean traced = tracer.begin(message.getType(), message.getSenderId(), message.getReceiverId(), firstByteNanos);
+        try {
+            System.out.println("Received message from client: " + message);
+
+            // 重连后客户端可能重发已处理过的消息，只重新确认不再转发
+            if (message.isChatMessage() && message.getMessageId() != 0 && !acceptMessageId(message.getMessageId())) {
+                acknowledge(message);
+                return;
+            }
+
+            // 超出发送速率的聊天消息在扇出之前丢弃，以限流通知代替确认
+            if (message.isChatMessage() && !server.getFloodGuard().allow(floodKey(), message, isMemberGroupTarget(message))) {
+                rejectThrottled(message);
+                return;
+            }
+
+            handler.handle(this, message);
+
+            // 聊天消息处理完毕后向发送者确认
+            if (message.isChatMessage()) {
+                acknowledge(message);
+                tracer.mark(MessageTracer.Stage.ACK);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to handle " + message.getType() + " from " + userId + ": " + e.getMessage());
+            closeConnection();
+        } finally {
+            if (traced) {
+                tracer.finish();
+            }
+        }
+    }
+
+    /**
+     * 获取本连接的防刷限流键
+     * 已登录时为用户ID；未登录时按来源IP限流，客户端填写的发送者ID不可信
+     * @return 限流键
+     */
+    private String floodKey() {
+        String id = userId;
+        return id != null ? id : socket.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * 判断聊天消息是否发往发送者所在的群组
+     * 群聊图片消息的类型也是IMAGE_MESSAGE，按接收者ID是否为群组判断；
+     * 群组不存在或发送者不是成员时消息会被群消息处理器拒绝，不应消耗该群组的令牌，
+     * 否则非成员可以向任意群组ID刷消息，耗尽令牌后让真正的成员无法发言
+     * @param message 聊天消息
+     * @return 发往发送者所在的群组返回true
+     */
+    private boolean isMemberGroupTarget(Message message) {
+        if (message.getType() != MessageType.GROUP_MESSAGE && message.getType() != MessageType.IMAGE_MESSAGE) {
+            return false;
+        }
+        List<String> members = server.getGroupManager().getGroupMembers(message.getReceiverId());
+        return members != null && members.contains(message.getSenderId());
+    }
+
+    /**
+     * 结束会话
+     * 客户端断开连接且会话无法恢复时调用，将用户移出在线列表
+     */
+    void endSession() {
+        requeueUnackedMessages();
+        server.removeClient(userId, this); // 在线状态注册表随即通知好友
+    }
+
+    /**
+     * 记录本会话的消息ID并判断是否为新消息
+     * 去重范围是登录后的会话而不是客户端填写的发送者ID：重新登录时从零开始，恢复会话时继承原连接的记录，
+     * 因此客户端时钟回拨或另一台设备登录都不会使新消息被当作重复消息丢弃
+     * 只在本连接的消息队列中调用，不需要加锁
+     * @param messageId 消息ID
+     * @return 新消息返回true，重复消息返回false
+     */
+    private boolean acceptMessageId(long messageId) {
+        if (messageId <= lastMessageId) {
+            return false;
+        }
+        lastMessageId = messageId;
+        return true;
+    }
+
+    /**
+     * 恢复会话时绑定原连接的用户ID，并继承原连接已处理的最大消息ID
+     * 会话管理器校验令牌之后、登记到在线列表之前调用
+     * 原连接的消息队列在会话挂起之前已处理完毕；接管未断开的会话时原连接可能仍有消息在处理，继承的是当时的记录
+     * @param previous 原客户端处理器
+     */
+    void continueSession(ClientHandler previous) {
+        userId = previous.userId;
+        lastMessageId = Math.max(lastMessageId, previous.lastMessageId);
+    }
+
+    /**
+     * 在密码校验线程池中执行耗时的校验
+     * 校验期间挂起本连接的消息队列，后续消息排队等待但不占用消息处理工作线程；
+     * 校验完成后回到消息队列中执行后续处理，与本连接其他消息的先后顺序不变
+     * @param check 校验
+     * @param then 后续处理，参数为校验结果（校验抛出异常时为null）
+     * @param busyReply 校验线程池排队已满时回复客户端的消息
+     */
+    private <T> void verifyOffThread(Supplier<T> check, Consumer<T> then, Message busyReply) throws IOException {
+        inbound.suspend();
+        boolean admitted = server.getCredentialVerifier().submit(() -> {
+            T result = null;
+            try {
+                result = check.get();
+            } finally {
+                T checked = result;
+                inbound.resume(() -> then.accept(checked));
+            }
+        });
+        if (!admitted) {
+            inbound.resume(null);
+            sendMessage(busyReply);
+        }
+    }
+
     /**
      * 处理用户登录请求
-     * 验证用户凭据并建立会话
+     * 在密码校验线程池中验证用户凭据，通过后建立会话
      * @param message 登录消息，内容格式：用户ID,密码
      */
     private void handleLogin(Message message) throws IOException {
         String[] credentials = message.getContent().split(",");
         String id = credentials[0];
         String password = credentials[1];
-        User user = server.getUserManager().login(id, password);
+        verifyOffThread(() -> server.getUserManager().login(id, password), user -> completeLogin(id, user),
+                new Message(MessageType.LOGIN_FAIL, "Server", id, "Server is busy. Please try again later."));
+    }
 
+    /**
+     * 完成登录
+     * 密码校验完成后在本连接的消息队列中执行
+     * @param id 用户ID
+     * @param user 校验通过的用户，失败为null
+     */
+    private void completeLogin(String id, User user) {
+        try {
+            establishSession(id, user);
+        } catch (IOException e) {
+            System.out.println("Failed to complete login of " + id + ": " + e.getMessage());
+            closeConnection();
+        }
+    }
+
+    private void establishSession(String id, User user) throws IOException {
         if (user != null) {
-            // 检查用户是否已在其他地方登录
+            // 检查用户是否已在其他地方登录：断线宽限期内的旧会话直接结束；
+            // 仍绑定在连接上的旧会话由本连接接管（原连接多半已经半开），凭密码登录的用户不会被拒绝
+            ClientHandler previous = null;
             if (server.isUserOnline(id)) {
-                sendMessage(new Message(MessageType.LOGIN_FAIL, "Server", id, "User already online."));
-                return;
+                if (server.getSessionManager().isDetached(id)) {
+                    server.getSessionManager().expireNow(id);
+                } else {
+                    previous = server.getSessionManager().takeOver(id);
+                }
             }
             
             // 登录成功，建立会话
             this.userId = id;
-            server.addOnlineClient(id, this);
-            user.setOnline(true);
+            if (previous != null && previous != this) {
+                // 直接替换在线列表中的连接，好友不会看到下线再上线；之后再关闭原连接
+                server.replaceOnlineClient(id, previous, this);
+                previous.closeConnection();
+                System.out.println("User " + id + " logged in again. Previous connection closed.");
+            } else {
+                server.addOnlineClient(id, this); // 同时更新用户在线状态，并通知好友用户上线
+            }
+            finishHandshake();
+            String token = server.getSessionManager().open(id, this);
             sendMessage(new Message(MessageType.LOGIN_SUCCESS, "Server", id, user.getUsername()));
+            sendMessage(new Message(MessageType.SESSION_TOKEN, "Server", id, token));
             
             // 发送初始数据
             sendFriendList(id);
             sendGroupList(id);
             sendPendingRequests(id);
-            
-            // 通知好友用户上线
-            notifyFriendsStatusChange(id);
+
+            // 分批投递离线期间收到的消息
+            server.getOfflineMessageStore().startDrain(id, this);
         } else {
             sendMessage(new Message(MessageType.LOGIN_FAIL, "Server", id, "Invalid ID or password."));
         }
     }
 
+    /**
+     * 处理用户主动退出
+     * 关闭会话后断开连接，不进入断线宽限期
+     */
+    private void handleLogout() throws IOException {
+        server.getSessionManager().close(this);
+        socket.close(); // 读取线程随即抛出异常，走正常的下线流程
+    }
+
+    /**
+     * 处理会话恢复请求
+     * 客户端断线重连后携带会话令牌恢复会话，只重放断线期间错过的消息
+     * @param message 会话恢复消息，内容为会话令牌
+     */
+    private void handleSessionResume(Message message) throws IOException {
+        String id = message.getSenderId();
+        // 令牌校验通过后才绑定用户ID，见continueSession
+        List<Message> replay = server.getSessionManager().resume(message.getContent(), id, this);
+        if (replay == null) {
+            sendMessage(new Message(MessageType.SESSION_RESUME_FAIL, "Server", id, "Session expired. Please log in again."));
+            return;
+        }
+        finishHandshake();
+        synchronized (this) {
+            sendMessage(new Message(MessageType.SESSION_RESUMED, "Server", id, ""));
+            for (Message missed : replay) {
+                sendMessage(missed);
+            }
+        }
+        // 断线期间存入离线收件箱的聊天消息继续分批投递
+        server.getOfflineMessageStore().startDrain(id, this);
+    }
+
     /**
      * 处理用户注册请求
      * 创建新用户账户
@@ -193,12 +474,17 @@ public class ClientHandler extends Thread {
         String id = userInfo[0];
         String username = userInfo[1];
         String password = userInfo[2];
-
-        if (server.getUserManager().registerUser(id, username, password)) {
-            sendMessage(new Message(MessageType.REGISTER_SUCCESS, "Server", id, "Registration successful."));
-        } else {
-            sendMessage(new Message(MessageType.REGISTER_FAIL, "Server", id, "ID already exists."));
-        }
+        verifyOffThread(() -> server.getUserManager().registerUser(id, username, password), registered -> {
+            try {
+                if (Boolean.TRUE.equals(registered)) {
+                    sendMessage(new Message(MessageType.REGISTER_SUCCESS, "Server", id, "Registration successful."));
+                } else {
+                    sendMessage(new Message(MessageType.REGISTER_FAIL, "Server", id, "ID already exists."));
+                }
+            } catch (IOException e) {
+                closeConnection();
+            }
+        }, new Message(MessageType.REGISTER_FAIL, "Server", id, "Server is busy. Please try again later."));
     }
 
     /**
@@ -317,18 +603,18 @@ public class ClientHandler extends Thread {
                 "You can only send messages to friends."));
             return;
         }
+        server.getTracer().mark(MessageTracer.Stage.CHECK);
 
-        // 转发消息给接收者
-        ClientHandler receiverHandler = server.getOnlineClients().get(message.getReceiverId());
-        if (receiverHandler != null) {
-            receiverHandler.sendMessage(message);
-        } else {
+        // 转发消息给接收者，接收者离线时存入离线收件箱
+        if (!server.forwardMessage(message)) {
             sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", message.getSenderId(), 
-                "User " + message.getReceiverId() + " is offline."));
+                "User " + message.getReceiverId() + " is offline. Message will be delivered when they log in."));
         }
+        server.getTracer().mark(MessageTracer.Stage.FANOUT);
         
         // 保存聊天记录
         server.saveChatMessage(message);
+        server.getTracer().mark(MessageTracer.Stage.PERSIST);
     }
 
     /**
@@ -345,20 +631,17 @@ public class ClientHandler extends Thread {
                     "You are not a member of group " + message.getReceiverId() + "."));
                 return;
             }
+            server.getTracer().mark(MessageTracer.Stage.CHECK);
             
-            // 转发给群内其他成员（不包括发送者）
-            for (String memberId : groupMembers) {
-                if (!memberId.equals(message.getSenderId())) { // 不发送给自己
-                    ClientHandler memberHandler = server.getOnlineClients().get(memberId);
-                    if (memberHandler != null) {
-                        // 创建新的消息对象，确保消息类型正确
-                        Message groupMsg = new Message(MessageType.GROUP_MESSAGE, 
-                            message.getSenderId(), message.getReceiverId(), message.getContent());
-                        groupMsg.setTimestamp(message.getTimestamp());
-                        memberHandler.sendMessage(groupMsg);
-                    }
-                }
-            }
+            // 创建新的消息对象，确保消息类型正确
+            Message groupMsg = new Message(MessageType.GROUP_MESSAGE, 
+                message.getSenderId(), message.getReceiverId(), message.getContent());
+            groupMsg.setTimestamp(message.getTimestamp());
+            groupMsg.setMessageId(message.getMessageId());
+
+            // 转发给群内其他成员（不包括发送者），不在本节点的成员交给集群转发或存入离线收件箱
+            server.deliverToGroup(groupMsg, groupMembers);
+            server.getTracer().mark(MessageTracer.Stage.FANOUT);
         } else {
             sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", message.getSenderId(), 
                 "Group " + message.getReceiverId() + " does not exist."));
@@ -366,6 +649,7 @@ public class ClientHandler extends Thread {
         
         // 保存聊天记录
         server.saveChatMessage(message);
+        server.getTracer().mark(MessageTracer.Stage.PERSIST);
     }
 
     /**
@@ -383,16 +667,10 @@ public class ClientHandler extends Thread {
                     "You are not a member of group " + message.getReceiverId() + "."));
                 return;
             }
+            server.getTracer().mark(MessageTracer.Stage.CHECK);
             
-            // 转发给所有其他成员
-            for (String memberId : groupMembers) {
-                if (!memberId.equals(message.getSenderId())) {
-                    ClientHandler memberHandler = server.getOnlineClients().get(memberId);
-                    if (memberHandler != null) {
-                        memberHandler.sendMessage(message);
-                    }
-                }
-            }
+            // 转发给所有其他成员，不在本节点的成员交给集群转发或存入离线收件箱
+            server.deliverToGroup(message, groupMembers);
         } else {
             // 单聊图片消息处理
             if (!server.getUserManager().areFriends(message.getSenderId(), message.getReceiverId())) {
@@ -400,16 +678,15 @@ public class ClientHandler extends Thread {
                     "You can only send images to friends."));
                 return;
             }
+            server.getTracer().mark(MessageTracer.Stage.CHECK);
             
-            // 直接转发给接收者
-            ClientHandler receiverHandler = server.getOnlineClients().get(message.getReceiverId());
-            if (receiverHandler != null) {
-                receiverHandler.sendMessage(message);
-            } else {
+            // 直接转发给接收者，接收者离线时存入离线收件箱
+            if (!server.forwardMessage(message)) {
                 sendMessage(new Message(MessageType.SERVER_MESSAGE, "Server", message.getSenderId(), 
-                    "User " + message.getReceiverId() + " is offline."));
+                    "User " + message.getReceiverId() + " is offline. Image will be delivered when they log in."));
             }
         }
+        server.getTracer().mark(MessageTracer.Stage.FANOUT);
         
         // 保存聊天记录（只保存文件名）
         String content = message.getContent();
@@ -417,6 +694,7 @@ public class ClientHandler extends Thread {
         Message historyMessage = new Message(MessageType.IMAGE_MESSAGE, 
             message.getSenderId(), message.getReceiverId(), fileName);
         server.saveChatMessage(historyMessage);
+        server.getTracer().mark(MessageTracer.Stage.PERSIST);
     }
 
     /**
@@ -516,132 +794,318 @@ public class ClientHandler extends Thread {
         }
     }
 
+    /**
+     * 处理接收者的投递确认
+     * 从未确认窗口中移除对应消息；在读取线程中直接执行，只锁未确认窗口，不等待其他线程正在进行的写出
+     * @param message 投递确认消息，receiverId为原发送者，messageId为被确认的消息ID
+     */
+    private void handleDeliveryAck(Message message) {
+        synchronized (unackedLock) {
+            unackedMessages.remove(message.getReceiverId() + "#" + message.getMessageId());
+        }
+    }
+
+    /**
+     * 通知发送者消息因发送过快被丢弃
+     * 客户端收到后不再等待该消息的确认，也不会在重连后重发
+     * @param message 被丢弃的聊天消息
+     * @throws IOException 发送失败时抛出
+     */
+    private void rejectThrottled(Message message) throws IOException {
+        Message notice = new Message(MessageType.MESSAGE_THROTTLED, "Server", message.getSenderId(),
+                "You are sending messages too fast. Message to " + message.getReceiverId() + " was not delivered.");
+        notice.setMessageId(message.getMessageId());
+        sendMessage(notice);
+    }
+
+    /**
+     * 向发送者确认服务器已收到并处理了聊天消息
+     * @param message 被确认的聊天消息
+     */
+    private void acknowledge(Message message) throws IOException {
+        if (message.getMessageId() == 0) {
+            return; // 旧版客户端未分配消息ID，无需确认
+        }
+        Message ack = new Message(MessageType.MESSAGE_ACK, "Server", message.getSenderId(), "");
+        ack.setMessageId(message.getMessageId());
+        sendMessage(ack);
+    }
+
+    /**
+     * 获取未确认窗口中的消息数量
+     * @return 未确认的聊天消息数量
+     */
+    int getUnackedCount() {
+        synchronized (unackedLock) {
+            return unackedMessages.size();
+        }
+    }
+
+    /**
+     * 取出并清空未确认窗口中的聊天消息
+     * 会话恢复时由新连接重新发送
+     * @return 未确认的聊天消息列表
+     */
+    List<Message> takeUnackedMessages() {
+        synchronized (unackedLock) {
+            List<Message> pending = new ArrayList<>(unackedMessages.values());
+            unackedMessages.clear();
+            return pending;
+        }
+    }
+
+    /**
+     * 将未确认的聊天消息放回离线收件箱
+     * 连接断开时调用，用户下次登录时重新投递（客户端按消息ID去重）
+     */
+    private void requeueUnackedMessages() {
+        List<Message> pending = takeUnackedMessages();
+        if (userId != null && !pending.isEmpty()) {
+            System.out.println("Requeueing " + pending.size() + " unacknowledged messages for " + userId);
+            for (Message message : pending) {
+                server.storeOffline(message, List.of(userId));
+            }
+        }
+    }
+
     /**
      * 发送消息给客户端
+     * 多个线程（其他客户端的处理线程、离线消息投递线程）可能同时写入，因此需要同步
+     * 会话处于断线宽限期时消息不会写入，而是交给会话管理器记录
+     * 带消息ID的聊天消息会进入未确认窗口，直到客户端回复投递确认
+     * 未确认窗口已满时被挤出的最早消息在释放本对象的锁之后再转入离线收件箱，不在持锁期间写磁盘
      * @param message 要发送的消息对象
      */
     public void sendMessage(Message message) throws IOException {
-        oos.writeObject(message);
-        oos.flush(); // 确保消息立即发送
+        Message evicted = null;
+        try {
+            synchronized (this) {
+                if (detached) {
+                    // 连接已断开但会话仍在宽限期内，记录下来等待重连后重放
+                    server.getSessionManager().recordMissed(this, message);
+                    return;
+                }
+                // 带消息ID的聊天消息在写出之前登记到未确认窗口：未确认窗口不受本对象的锁保护，
+                // 客户端的投递确认可能在写出完成之前就被读取线程处理
+                String unackedKey = message.isChatMessage() && message.getMessageId() != 0
+                        ? message.getSenderId() + "#" + message.getMessageId() : null;
+                if (unackedKey != null) {
+                    synchronized (unackedLock) {
+                        unackedMessages.put(unackedKey, message);
+                        if (unackedMessages.size() > MAX_UNACKED_MESSAGES) {
+                            Iterator<Message> eldest = unackedMessages.values().iterator();
+                            evicted = eldest.next();
+                            eldest.remove();
+                        }
+                    }
+                }
+                MessageTracer tracer = server.getTracer();
+                long writeStart = tracer.isEnabled() ? System.nanoTime() : 0;
+                try {
+                    oos.writeObject(message);
+                    oos.reset(); // 清空对象引用表，避免已发送的消息（尤其是图片数据）一直被输出流引用
+                    oos.flush(); // 确保消息立即发送
+                } catch (IOException e) {
+                    if (unackedKey != null) {
+                        // 写出失败由调用方转存，不再留在未确认窗口中，避免断线时重复转存
+                        synchronized (unackedLock) {
+                            unackedMessages.remove(unackedKey, message);
+                        }
+                    }
+                    throw e;
+                }
+                if (writeStart != 0) {
+                    tracer.addTime(MessageTracer.Stage.SOCKET_WRITE, System.nanoTime() - writeStart); // 计入当前线程正在追踪的消息
+                }
+            }
+            server.getMetrics().messageSent(message.getType());
+        } finally {
+            if (evicted != null) {
+                // 客户端长时间不确认，最早的消息转入离线收件箱，保证至少投递一次
+                server.storeOffline(evicted, List.of(userId));
+            }
+        }
     }
 
     /**
-     * 发送好友列表给客户端
-     * 包含好友的ID、用户名和在线状态
+     * 响应客户端的好友列表请求
+     * 客户端缓存的版本为最新时只回复未修改
+     * @param message 请求消息，version为客户端缓存的版本号
+     */
+    private void handleFriendListRequest(Message message) throws IOException {
+        String userId = message.getSenderId();
+        long version = server.getListVersions().current(ListVersions.Kind.FRIENDS, userId);
+        if (!replyIfNotModified(message, "Server", version)) {
+            writeFriendList(userId, version);
+        }
+    }
+
+    /**
+     * 向客户端推送好友列表
+     * 包含好友的ID、用户名和在线状态；与本连接上次发送的版本相同时不发送
      * @param userId 请求用户的ID
      */
     public void sendFriendList(String userId) throws IOException {
-        List<String> friendIds = server.getUserManager().getFriends(userId);
-        
-        StringBuilder sb = new StringBuilder();
-        for (String friendId : friendIds) {
-            User friendUser = server.getUserManager().getUserById(friendId);
-            if (friendUser != null) {
-                // 检查好友是否在线
-                boolean isOnline = server.isUserOnline(friendId);
-                String status = isOnline ? "online" : "offline";
-                String friendInfo = friendUser.getId() + ":" + friendUser.getUsername() + ":" + status;
-                sb.append(friendInfo).append(";");
-            }
+        long version = server.getListVersions().current(ListVersions.Kind.FRIENDS, userId);
+        if (version != sentFriendsVersion) {
+            writeFriendList(userId, version);
         }
-        if (sb.length() > 0) {
-            sb.setLength(sb.length() - 1); // 移除末尾的分号
+    }
+
+    private void writeFriendList(String userId, long version) throws IOException {
+        byte[] payload = server.getListPayloadCache().get(ListVersions.Kind.FRIENDS, userId, version,
+                () -> encodeUsers(new ArrayList<>(server.getUserManager().getFriends(userId)))); // 副本，下标与快照对应
+        sendListResponse(new Message(MessageType.FRIEND_LIST, "Server", userId, ""), payload, version);
+        sentFriendsVersion = version;
+    }
+
+    /**
+     * 响应客户端的群组列表请求
+     * @param message 请求消息，version为客户端缓存的版本号
+     */
+    private void handleGroupListRequest(Message message) throws IOException {
+        String userId = message.getSenderId();
+        long version = server.getListVersions().current(ListVersions.Kind.GROUPS, userId);
+        if (!replyIfNotModified(message, "Server", version)) {
+            writeGroupList(userId, version);
         }
-        
-        sendMessage(new Message(MessageType.FRIEND_LIST, "Server", userId, sb.toString()));
     }
 
     /**
-     * 发送群组列表给客户端
+     * 向客户端推送群组列表
+     * 与本连接上次发送的版本相同时不发送
      * @param userId 请求用户的ID
      */
     public void sendGroupList(String userId) throws IOException {
-        List<String> groupIds = server.getGroupManager().getUserGroups(userId);
-        StringBuilder sb = new StringBuilder();
-        for (String groupId : groupIds) {
-            sb.append(groupId).append(";");
+        long version = server.getListVersions().current(ListVersions.Kind.GROUPS, userId);
+        if (version != sentGroupsVersion) {
+            writeGroupList(userId, version);
         }
-        if (sb.length() > 0) {
-            sb.setLength(sb.length() - 1); // 移除末尾的分号
+    }
+
+    private void writeGroupList(String userId, long version) throws IOException {
+        byte[] payload = server.getListPayloadCache().get(ListVersions.Kind.GROUPS, userId, version, () -> {
+            PayloadWriter writer = new PayloadWriter();
+            writer.writeIdList(server.getGroupManager().getUserGroups(userId));
+            return writer.toByteArray();
+        });
+        sendListResponse(new Message(MessageType.GET_GROUPS, "Server", userId, ""), payload, version);
+        sentGroupsVersion = version;
+    }
+
+    /**
+     * 响应客户端的待处理请求列表请求
+     * @param message 请求消息，version为客户端缓存的版本号
+     */
+    private void handlePendingRequestsRequest(Message message) throws IOException {
+        String userId = message.getSenderId();
+        long version = server.getListVersions().current(ListVersions.Kind.PENDING, userId);
+        if (!replyIfNotModified(message, "Server", version)) {
+            writePendingRequests(userId, version);
         }
-        sendMessage(new Message(MessageType.GET_GROUPS, "Server", userId, sb.toString()));
     }
 
     /**
-     * 发送待处理请求列表给客户端
-     * 包含好友请求和群组邀请
+     * 向客户端推送待处理请求列表
+     * 与本连接上次发送的版本相同时不发送
      * @param userId 请求用户的ID
      */
     public void sendPendingRequests(String userId) throws IOException {
-        List<String> pendingFriendRequests = server.getUserManager().getPendingFriendRequests(userId);
-        List<String> pendingGroupInvites = server.getGroupManager().getPendingGroupInvites(userId);
-
-        // 构建好友请求字符串
-        StringBuilder friendReqSb = new StringBuilder();
-        for (String senderId : pendingFriendRequests) {
-            friendReqSb.append(senderId).append(";");
-        }
-        if (friendReqSb.length() > 0) {
-            friendReqSb.setLength(friendReqSb.length() - 1);
-        }
-
-        // 构建群组邀请字符串
-        StringBuilder groupInvSb = new StringBuilder();
-        for (String groupId : pendingGroupInvites) {
-            groupInvSb.append(groupId).append(";");
-        }
-        if (groupInvSb.length() > 0) {
-            groupInvSb.setLength(groupInvSb.length() - 1);
+        long version = server.getListVersions().current(ListVersions.Kind.PENDING, userId);
+        if (version != sentPendingVersion) {
+            writePendingRequests(userId, version);
         }
+    }
 
-        // 使用双竖线分隔好友请求和群组邀请
-        String content = friendReqSb.toString() + "||" + groupInvSb.toString();
-        sendMessage(new Message(MessageType.GET_PENDING_REQUESTS, "Server", userId, content));
+    /**
+     * 发送待处理请求列表
+     * 依次编码好友请求的发送者ID列表和群组邀请的群组ID列表
+     */
+    private void writePendingRequests(String userId, long version) throws IOException {
+        byte[] payload = server.getListPayloadCache().get(ListVersions.Kind.PENDING, userId, version, () -> {
+            PayloadWriter writer = new PayloadWriter();
+            writer.writeIdList(server.getUserManager().getPendingFriendRequests(userId));
+            writer.writeIdList(server.getGroupManager().getPendingGroupInvites(userId));
+            return writer.toByteArray();
+        });
+        sendListResponse(new Message(MessageType.GET_PENDING_REQUESTS, "Server", userId, ""), payload, version);
+        sentPendingVersion = version;
     }
 
     /**
-     * 发送群组成员列表给客户端
-     * 包含成员的ID、用户名和在线状态
-     * @param groupId 群组ID
-     * @param requesterId 请求者ID
+     * 响应客户端的群组成员列表请求
+     * 按payload中的分页请求返回一页成员，包含成员的ID、用户名和在线状态；
+     * 只有第一页比较客户端缓存的版本号，默认每页人数的第一页按排列顺序分别缓存
+     * @param message 请求消息，content为群组ID，payload为分页请求，version为客户端缓存的版本号
      */
-    public void sendGroupMembers(String groupId, String requesterId) throws IOException {
-        List<String> members = server.getGroupManager().getGroupMembers(groupId);
-        StringBuilder sb = new StringBuilder();
-        if (members != null) {
-            for (String memberId : members) {
-                User memberUser = server.getUserManager().getUserById(memberId);
-                if (memberUser != null) {
-                    // 检查成员是否在线
-                    boolean isOnline = server.isUserOnline(memberId);
-                    String status = isOnline ? "online" : "offline";
-                    sb.append(memberUser.getId()).append(":").append(memberUser.getUsername())
-                      .append(":").append(status).append(";");
-                }
-            }
+    private void handleGroupMembersRequest(Message message) throws IOException {
+        String groupId = message.getContent();
+        MemberPageRequest request = MemberPageRequest.fromPayload(message.getPayload());
+        long version = server.getListVersions().current(ListVersions.Kind.MEMBERS, groupId);
+        if (request.isFirstPage() && replyIfNotModified(message, groupId, version)) {
+            return;
         }
-        if (sb.length() > 0) {
-            sb.setLength(sb.length() - 1); // 移除末尾的分号
+        Supplier<byte[]> encoder = () -> {
+            List<String> groupMembers = server.getGroupManager().getGroupMembers(groupId);
+            return MemberPager.encodePage(groupMembers != null ? new ArrayList<>(groupMembers) : List.of(), // 副本，下标与快照对应
+                    server.getPresence(), server.getUserManager(), request);
+        };
+        byte[] payload = request.isFirstPage() && request.getLimit() == MemberPageRequest.DEFAULT_PAGE_SIZE
+                ? server.getListPayloadCache().get(ListVersions.Kind.MEMBERS, groupId, request.isOnlineFirst() ? 1 : 0,
+                        version, encoder)
+                : encoder.get();
+        sendListResponse(new Message(MessageType.GET_GROUP_MEMBERS, groupId, message.getSenderId(), request.getCursor()),
+                payload, version);
+    }
+
+    /**
+     * 客户端缓存的列表为最新时回复未修改
+     * @param request 列表请求
+     * @param senderId 回复的发送者ID，与完整响应一致
+     * @param version 列表的当前版本号
+     * @return 已回复未修改返回true，调用方不再发送完整列表
+     */
+    private boolean replyIfNotModified(Message request, String senderId, long version) throws IOException {
+        if (!server.getListVersions().isUpToDate(request.getVersion(), version)) {
+            return false;
         }
-        sendMessage(new Message(MessageType.GET_GROUP_MEMBERS, groupId, requesterId, sb.toString()));
+        Message reply = new Message(MessageType.LIST_NOT_MODIFIED, senderId, request.getSenderId(), request.getType().name());
+        reply.setVersion(version);
+        sendMessage(reply);
+        return true;
     }
 
     /**
-     * 通知好友状态变化
-     * 当用户上线或下线时，通知其所有好友更新状态
-     * @param userId 状态发生变化的用户ID
+     * 把一组用户编码为二进制用户列表
+     * 所有用户的在线状态取自同一版本的快照，已不存在的用户跳过
+     * @param userIds 用户ID列表
+     * @return 列表数据
      */
-    private void notifyFriendsStatusChange(String userId) {
-        List<String> friends = server.getUserManager().getFriends(userId);
-        for (String friendId : friends) {
-            ClientHandler friendHandler = server.getOnlineClients().get(friendId);
-            if (friendHandler != null) {
-                try {
-                    friendHandler.sendFriendList(friendId); // 发送更新的好友列表
-                } catch (IOException e) {
-                    System.err.println("Failed to notify friend " + friendId + " of status change: " + e.getMessage());
-                }
+    private byte[] encodeUsers(List<String> userIds) {
+        PresenceRegistry.Snapshot presence = server.getPresence().snapshot(userIds);
+        PayloadWriter writer = new PayloadWriter(32 + userIds.size() * 24);
+        int mark = writer.beginList();
+        int count = 0;
+        for (int i = 0; i < userIds.size(); i++) {
+            User user = server.getUserManager().getUserById(userIds.get(i));
+            if (user != null) {
+                UserListView.write(writer, user.getId(), user.getUsername(), presence.isOnline(i));
+                count++;
             }
         }
+        writer.endList(mark, count);
+        return writer.toByteArray();
+    }
+
+    /**
+     * 附上列表数据和版本号后发送列表类响应
+     * @param response 响应消息
+     * @param payload 列表数据
+     * @param version 读取列表之前取得的版本号
+     */
+    private void sendListResponse(Message response, byte[] payload, long version) throws IOException {
+        response.setPayload(payload);
+        response.setVersion(version);
+        sendMessage(response);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,127 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 集群节点间传输的帧
+ * 用于节点间认证、同步在线位置和用户、群组数据，以及转发私聊和群聊消息
+ */
+public class ClusterFrame implements Serializable {
+
+    /**
+     * 帧类型
+     */
+    public enum Kind {
+        HELLO,           // 建立连接后的第一帧，携带共享密钥和发送方的启动标识
+        PRESENCE_UP,     // 用户在某节点上线（发往所有其他节点）
+        PRESENCE_DOWN,   // 用户在某节点下线（发往所有其他节点）
+        DELIVER,         // 将消息投递给本节点上的用户
+        GROUP_DELIVER,   // 将消息投递给本节点上的多个接收者（只包含该节点上的接收者）
+        OFFLINE_STORE,   // 将消息存入本节点（归属节点）的离线收件箱
+        REPLICATE        // 在本节点上应用用户、好友或群组数据的修改
+    }
+
+    private final Kind kind;            // 帧类型
+    private final String originNode;    // 发送帧的节点ID
+    private String userId;              // 相关用户ID
+    private String nodeId;              // 用户所在节点ID（PRESENCE_*）
+    private Message message;            // 被转发的消息
+    private List<String> recipients;    // 接收者列表（GROUP_DELIVER/OFFLINE_STORE）
+    private String secret;              // 集群共享密钥（HELLO）
+    private long incarnation;           // 发送方进程的启动标识，每次启动随机生成（HELLO）
+    private String operation;           // 修改操作名称（REPLICATE）
+    private List<String> arguments;     // 修改操作参数（REPLICATE）
+
+    /**
+     * 构造函数
+     * @param kind 帧类型
+     * @param originNode 发送帧的节点ID
+     */
+    public ClusterFrame(Kind kind, String originNode) {
+        this.kind = kind;
+        this.originNode = originNode;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getOriginNode() {
+        return originNode;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public List<String> getRecipients() {
+        return recipients;
+    }
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public long getIncarnation() {
+        return incarnation;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public ClusterFrame setUserId(String userId) {
+        this.userId = userId;
+        return this;
+    }
+
+    public ClusterFrame setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public ClusterFrame setMessage(Message message) {
+        this.message = message;
+        return this;
+    }
+
+    public ClusterFrame setRecipients(List<String> recipients) {
+        this.recipients = recipients;
+        return this;
+    }
+
+    public ClusterFrame setSecret(String secret) {
+        this.secret = secret;
+        return this;
+    }
+
+    public ClusterFrame setIncarnation(long incarnation) {
+        this.incarnation = incarnation;
+        return this;
+    }
+
+    public ClusterFrame setOperation(String operation) {
+        this.operation = operation;
+        return this;
+    }
+
+    public ClusterFrame setArguments(List<String> arguments) {
+        this.arguments = arguments;
+        return this;
+    }
+}
@@ -0,0 +1,628 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 集群节点类
+ * 多个服务器进程组成集群，每个节点持有连接到本节点的用户的连接
+ * 通过一致性哈希为每个用户确定归属节点，归属节点维护该用户当前所在节点（在线目录）并保存其离线消息
+ * 用户上下线时通知所有节点，每个节点都保存一份在线位置，转发消息时不需要向归属节点查询
+ * 接收者不在本节点时，私聊消息和群聊消息通过节点间连接转发；
+ * 本节点不知道接收者在哪里时把消息交给归属节点，归属节点按在线目录转发或存入离线收件箱
+ *
+ * 用户、好友关系和群组数据在每个节点上各存一份：任一节点上的修改复制到所有其他节点，
+ * 节点建立连接时把本节点的在线用户和全部数据发给对方，对方只合并缺少的部分；
+ * 节点不可达期间发生的删除（拒绝请求、删除好友）不会在重连后补发
+ *
+ * 节点间端口只监听配置的地址；入站连接的第一帧必须携带集群共享密钥，
+ * 反序列化只允许帧和消息相关的类
+ */
+public class ClusterNode {
+    private static final int CONNECT_TIMEOUT_MS = 2000;  // 建立节点间连接的超时时间
+    private static final int HELLO_TIMEOUT_MS = 5000;    // 等待入站连接发送HELLO帧的超时时间
+    private static final long MIN_RETRY_DELAY_MS = 1000; // 连接失败后第一次重试前的等待时间
+    private static final long MAX_RETRY_DELAY_MS = 30000; // 连接失败后重试的最长等待时间
+    private static final ObjectInputFilter FRAME_FILTER = ObjectInputFilter.Config.createFilter( // 节点间连接允许反序列化的类
+            "maxdepth=8;com.simpleqq.server.ClusterFrame;com.simpleqq.server.ClusterFrame$Kind;"
+            + "com.simpleqq.common.Message;com.simpleqq.common.MessageType;java.lang.Enum;java.lang.String;"
+            + "java.util.ArrayList;java.util.CollSer;java.lang.Object;!*");
+
+    private final Server server;                                     // 本节点的服务器实例
+    private final String nodeId;                                     // 本节点ID
+    private final Map<String, InetSocketAddress> members;            // 集群成员，key为节点ID，value为节点间通信地址
+    private final ConsistentHashRing ring;                           // 一致性哈希环，确定用户的归属节点
+    private final Map<String, String> directory;                     // 在线目录：归属本节点的在线用户 -> 所在节点ID
+    private final Map<String, String> locations;                     // 在线位置：在其他节点上线的用户 -> 所在节点ID
+    private final Map<String, PeerLink> links;                       // 到其他节点的出站连接
+    private final Map<String, Long> incarnations;                    // 其他节点最近一次连接时的启动标识
+    private final byte[] secret;                                     // 集群共享密钥
+    private final long incarnation;                                  // 本节点进程的启动标识
+    private final ExecutorService replicator;                        // 向其他节点发送数据修改和建立连接的线程
+
+    /**
+     * 构造函数
+     * @param server 本节点的服务器实例
+     * @param nodeId 本节点ID
+     * @param members 集群成员及其节点间通信地址（包含本节点）
+     * @param secret 集群共享密钥
+     */
+    public ClusterNode(Server server, String nodeId, Map<String, InetSocketAddress> members, String secret) {
+        this.server = server;
+        this.nodeId = nodeId;
+        this.members = members;
+        this.ring = new ConsistentHashRing(members.keySet());
+        this.directory = new ConcurrentHashMap<>();
+        this.locations = new ConcurrentHashMap<>();
+        this.links = new ConcurrentHashMap<>();
+        this.incarnations = new ConcurrentHashMap<>();
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.incarnation = new SecureRandom().nextLong();
+        this.replicator = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cluster-replicator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 解析集群配置
+     * 格式：节点ID=主机:端口,节点ID=主机:端口,...（端口为节点间通信端口）
+     * 共享密钥通过系统属性 simpleqq.cluster.secret 设置，所有节点必须相同
+     * @param server 本节点的服务器实例
+     * @param nodeId 本节点ID
+     * @param spec 集群配置字符串
+     * @return 集群节点
+     */
+    public static ClusterNode parse(Server server, String nodeId, String spec) {
+        Map<String, InetSocketAddress> members = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split("[=:]");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Invalid cluster member: " + entry);
+            }
+            members.put(parts[0], new InetSocketAddress(parts[1], Integer.parseInt(parts[2])));
+        }
+        if (!members.containsKey(nodeId)) {
+            throw new IllegalArgumentException("Node " + nodeId + " is not listed in cluster spec " + spec);
+        }
+        String secret = System.getProperty("simpleqq.cluster.secret");
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("Cluster mode requires a shared secret: -Dsimpleqq.cluster.secret=...");
+        }
+        return new ClusterNode(server, nodeId, members, secret);
+    }
+
+    /**
+     * 获取本节点ID
+     * @return 节点ID
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 启动节点间通信监听
+     * 只监听集群配置中本节点的地址，每个入站连接由独立线程读取帧；
+     * 随后主动连接其他节点，把本节点的在线用户和数据发给已经启动的节点
+     * @throws IOException 监听端口失败时抛出
+     */
+    public void start() throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.bind(members.get(nodeId));
+        System.out.println("Cluster node " + nodeId + " listening on " + serverSocket.getLocalSocketAddress()
+                + " with members " + members.keySet());
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket peer = serverSocket.accept();
+                    Thread reader = new Thread(() -> readFrames(peer), "cluster-reader");
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (String member : members.keySet()) {
+            if (!member.equals(nodeId)) {
+                replicator.execute(() -> connectQuietly(member));
+            }
+        }
+    }
+
+    /**
+     * 读取来自其他节点的帧
+     * 第一帧必须是携带正确共享密钥的HELLO帧，否则关闭连接
+     * @param peer 入站连接
+     */
+    private void readFrames(Socket peer) {
+        try (Socket socket = peer) {
+            socket.setSoTimeout(HELLO_TIMEOUT_MS); // 读取对象流头和HELLO帧时不能无限等待
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            in.setObjectInputFilter(FRAME_FILTER);
+            ClusterFrame hello = (ClusterFrame) in.readObject();
+            if (!isAuthenticated(hello)) {
+                System.err.println("Rejected cluster connection from " + peer.getRemoteSocketAddress() + ": authentication failed.");
+                return;
+            }
+            socket.setSoTimeout(0);
+            peerConnected(hello.getOriginNode(), hello.getIncarnation());
+            while (true) {
+                handleFrame((ClusterFrame) in.readObject());
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.out.println("Cluster link from " + peer.getRemoteSocketAddress() + " closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 校验入站连接的HELLO帧
+     * @param hello 第一帧
+     * @return 来自集群中的其他节点且共享密钥正确返回true
+     */
+    private boolean isAuthenticated(ClusterFrame hello) {
+        return hello.getKind() == ClusterFrame.Kind.HELLO && hello.getSecret() != null
+                && members.containsKey(hello.getOriginNode()) && !nodeId.equals(hello.getOriginNode())
+                && MessageDigest.isEqual(secret, hello.getSecret().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 其他节点连接到本节点
+     * 对方刚启动（或本节点第一次见到它）时，清除对方上次运行留下的在线位置，
+     * 并重建到对方的出站连接：旧连接可能已经失效，重建时会把本节点的在线用户和数据发给对方
+     * @param peerNode 对方节点ID
+     * @param peerIncarnation 对方的启动标识
+     */
+    private void peerConnected(String peerNode, long peerIncarnation) {
+        Long previous = incarnations.put(peerNode, peerIncarnation);
+        if (previous != null && previous == peerIncarnation) {
+            return; // 同一进程断线重连，对方重连时已重新发送它的数据
+        }
+        System.out.println("Cluster node " + peerNode + " joined. Synchronizing presence and data.");
+        locations.values().removeIf(peerNode::equals);
+        directory.values().removeIf(peerNode::equals);
+        replicator.execute(() -> {
+            links.computeIfAbsent(peerNode, PeerLink::new).reset();
+            connectQuietly(peerNode);
+        });
+    }
+
+    /**
+     * 确保到指定节点的出站连接已建立，失败时只记录日志
+     * @param targetNode 目标节点ID
+     */
+    private void connectQuietly(String targetNode) {
+        try {
+            links.computeIfAbsent(targetNode, PeerLink::new).connect();
+        } catch (IOException e) {
+            System.out.println("Cluster node " + targetNode + " is not reachable yet: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 处理来自其他节点的帧
+     * @param frame 帧
+     */
+    private void handleFrame(ClusterFrame frame) {
+        switch (frame.getKind()) {
+            case PRESENCE_UP:
+                locations.put(frame.getUserId(), frame.getNodeId());
+                if (isHome(frame.getUserId())) {
+                    directory.put(frame.getUserId(), frame.getNodeId());
+                    // 归属节点保存着该用户的离线消息，转发到用户所在节点
+                    server.getOfflineMessageStore().startDrain(frame.getUserId(),
+                            new RemoteSink(frame.getNodeId(), frame.getUserId()));
+                }
+                break;
+            case PRESENCE_DOWN:
+                locations.remove(frame.getUserId(), frame.getNodeId());
+                if (isHome(frame.getUserId())) {
+                    directory.remove(frame.getUserId(), frame.getNodeId());
+                }
+                break;
+            case DELIVER:
+                // 用户可能已经离开本节点，此时交给其归属节点
+                if (!server.deliverLocally(frame.getUserId(), frame.getMessage())) {
+                    storeOffline(frame.getMessage(), List.of(frame.getUserId()));
+                }
+                break;
+            case GROUP_DELIVER:
+                deliverGroupMessageLocally(frame.getMessage(), frame.getRecipients());
+                break;
+            case OFFLINE_STORE:
+                storeAtHome(frame.getMessage(), frame.getRecipients(), frame.getOriginNode());
+                break;
+            case REPLICATE:
+                applyReplicated(frame.getOperation(), frame.getArguments());
+                break;
+            default:
+                System.out.println("Unknown cluster frame: " + frame.getKind());
+        }
+    }
+
+    /**
+     * 应用其他节点复制来的数据修改
+     * 群组操作交给群组管理器，其余交给用户管理器；应用时不会再次复制
+     * @param operation 操作名称
+     * @param args 操作参数
+     */
+    private void applyReplicated(String operation, List<String> args) {
+        try {
+            if (operation.startsWith("group_")) {
+                server.getGroupManager().applyReplicated(operation, args);
+            } else {
+                server.getUserManager().applyReplicated(operation, args);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Failed to apply replicated operation " + operation + " " + args + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把本节点上的数据修改复制到所有其他节点
+     * 作为用户管理器和群组管理器的数据变化监听器，在复制线程中发送，不阻塞修改数据的线程
+     * @param operation 操作名称
+     * @param args 操作参数
+     */
+    public void replicate(String operation, List<String> args) {
+        ClusterFrame frame = new ClusterFrame(ClusterFrame.Kind.REPLICATE, nodeId)
+                .setOperation(operation).setArguments(new ArrayList<>(args));
+        replicator.execute(() -> broadcast(frame));
+    }
+
+    /**
+     * 判断用户是否归属本节点
+     * @param userId 用户ID
+     * @return 归属本节点返回true
+     */
+    public boolean isHome(String userId) {
+        return nodeId.equals(ring.ownerOf(userId));
+    }
+
+    /**
+     * 用户在本节点上线
+     * 通知所有其他节点更新在线位置，归属节点同时更新在线目录
+     * @param userId 用户ID
+     */
+    public void userOnline(String userId) {
+        if (isHome(userId)) {
+            directory.put(userId, nodeId);
+        }
+        broadcast(new ClusterFrame(ClusterFrame.Kind.PRESENCE_UP, nodeId).setUserId(userId).setNodeId(nodeId));
+    }
+
+    /**
+     * 用户在本节点下线
+     * 通知所有其他节点（只移除指向本节点的记录，避免覆盖用户在其他节点的新登录）
+     * @param userId 用户ID
+     */
+    public void userOffline(String userId) {
+        if (isHome(userId)) {
+            directory.remove(userId, nodeId);
+        }
+        broadcast(new ClusterFrame(ClusterFrame.Kind.PRESENCE_DOWN, nodeId).setUserId(userId).setNodeId(nodeId));
+    }
+
+    /**
+     * 查询用户当前所在节点
+     * 只查本节点保存的在线位置，不访问其他节点
+     * @param userId 用户ID
+     * @return 所在的其他节点ID，不知道用户在其他节点上线时返回null
+     */
+    public String locate(String userId) {
+        return locations.get(userId);
+    }
+
+    /**
+     * 将消息转发到用户所在的节点
+     * @param targetNode 目标节点ID
+     * @param message 消息
+     * @return 转发成功返回true
+     */
+    public boolean relay(String targetNode, Message message) {
+        try {
+            send(targetNode, new ClusterFrame(ClusterFrame.Kind.DELIVER, nodeId)
+                    .setUserId(message.getReceiverId()).setMessage(message));
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to relay message to node " + targetNode + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 转发群消息给不在本节点上线的群成员
+     * 按在线位置把接收者分到各自所在的节点，每个节点只发送一帧且只包含该节点上的接收者；
+     * 不知道所在节点或转发失败的接收者交给各自的归属节点
+     * @param message 群消息
+     * @param recipients 不在本节点上线的接收者列表
+     */
+    public void relayGroupMessage(Message message, List<String> recipients) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        Map<String, List<String>> byNode = new LinkedHashMap<>();
+        List<String> unknown = new ArrayList<>();
+        for (String recipientId : recipients) {
+            String location = locations.get(recipientId);
+            if (location != null && !location.equals(nodeId)) {
+                byNode.computeIfAbsent(location, k -> new ArrayList<>()).add(recipientId);
+            } else {
+                unknown.add(recipientId);
+            }
+        }
+        forwardByNode(message, byNode, unknown);
+        if (!unknown.isEmpty()) {
+            storeOffline(message, unknown);
+        }
+    }
+
+    /**
+     * 投递来自其他节点的群消息
+     * 已不在本节点上线的接收者交给各自的归属节点
+     * @param message 群消息
+     * @param recipients 接收者列表
+     */
+    private void deliverGroupMessageLocally(Message message, List<String> recipients) {
+        List<String> missing = new ArrayList<>();
+        for (String recipientId : recipients) {
+            if (!server.deliverLocally(recipientId, message)) {
+                missing.add(recipientId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            storeOffline(message, missing);
+        }
+    }
+
+    /**
+     * 保存离线消息
+     * 按接收者的归属节点分组，归属本节点的由本节点处理，其余发往各自的归属节点
+     * @param message 消息
+     * @param receiverIds 接收者ID集合
+     */
+    public void storeOffline(Message message, Collection<String> receiverIds) {
+        Map<String, List<String>> byHome = new LinkedHashMap<>();
+        for (String receiverId : receiverIds) {
+            byHome.computeIfAbsent(ring.ownerOf(receiverId), k -> new ArrayList<>()).add(receiverId);
+        }
+        for (Map.Entry<String, List<String>> entry : byHome.entrySet()) {
+            if (entry.getKey().equals(nodeId)) {
+                storeAtHome(message, entry.getValue(), nodeId);
+            } else {
+                sendQuietly(entry.getKey(), new ClusterFrame(ClusterFrame.Kind.OFFLINE_STORE, nodeId)
+                        .setMessage(message).setRecipients(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * 在归属节点上处理发给离线用户的消息
+     * 发送方节点的在线位置可能还没更新，在线目录显示接收者在其他节点上线时转发过去；
+     * 在线目录指向的正是发送方节点时说明该节点已确认接收者不在，直接存入离线收件箱，避免来回转发
+     * @param message 消息
+     * @param recipients 归属本节点的接收者列表
+     * @param fromNode 交来消息的节点ID
+     */
+    private void storeAtHome(Message message, List<String> recipients, String fromNode) {
+        Map<String, List<String>> byNode = new LinkedHashMap<>();
+        List<String> offline = new ArrayList<>();
+        for (String recipientId : recipients) {
+            String location = directory.get(recipientId);
+            if (location == null || location.equals(fromNode)) {
+                offline.add(recipientId);
+            } else if (location.equals(nodeId)) {
+                if (!server.deliverLocally(recipientId, message)) {
+                    offline.add(recipientId);
+                }
+            } else {
+                byNode.computeIfAbsent(location, k -> new ArrayList<>()).add(recipientId);
+            }
+        }
+        forwardByNode(message, byNode, offline);
+        server.getOfflineMessageStore().store(message, offline);
+    }
+
+    /**
+     * 向各节点转发消息，每个节点一帧
+     * @param message 消息
+     * @param byNode 节点ID -> 该节点上的接收者列表
+     * @param failed 转发失败的接收者追加到此列表
+     */
+    private void forwardByNode(Message message, Map<String, List<String>> byNode, List<String> failed) {
+        for (Map.Entry<String, List<String>> entry : byNode.entrySet()) {
+            try {
+                send(entry.getKey(), new ClusterFrame(ClusterFrame.Kind.GROUP_DELIVER, nodeId)
+                        .setMessage(message).setRecipients(entry.getValue()));
+            } catch (IOException e) {
+                System.err.println("Failed to relay message to node " + entry.getKey() + ": " + e.getMessage());
+                failed.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 向所有其他节点发送帧，失败时只记录日志
+     * @param frame 帧
+     */
+    private void broadcast(ClusterFrame frame) {
+        for (String member : members.keySet()) {
+            if (!member.equals(nodeId)) {
+                sendQuietly(member, frame);
+            }
+        }
+    }
+
+    /**
+     * 向指定节点发送帧
+     * @param targetNode 目标节点ID
+     * @param frame 帧
+     * @throws IOException 发送失败时抛出
+     */
+    private void send(String targetNode, ClusterFrame frame) throws IOException {
+        PeerLink link = links.computeIfAbsent(targetNode, PeerLink::new);
+        link.send(frame);
+    }
+
+    /**
+     * 向指定节点发送帧，失败时只记录日志
+     * @param targetNode 目标节点ID
+     * @param frame 帧
+     */
+    private void sendQuietly(String targetNode, ClusterFrame frame) {
+        try {
+            send(targetNode, frame);
+        } catch (IOException e) {
+            System.err.println("Failed to send " + frame.getKind() + " to node " + targetNode + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 到其他节点的出站连接
+     * 第一次发送时建立连接，连接断开后在下一次发送时重建；
+     * 建立连接后先发送HELLO帧，再发送本节点的在线用户和全部数据，之后才发送其他帧
+     * 连接失败后按指数退避等待，等待期间的发送直接失败，不会让每次发送都阻塞在连接超时上
+     */
+    private class PeerLink {
+        private final String targetNode;   // 目标节点ID
+        private Socket socket;             // 节点间连接
+        private ObjectOutputStream out;    // 帧输出流
+        private long retryDelay;           // 当前的重试等待时间，连接成功后清零
+        private long retryAt;              // 连接失败后，在此时刻之前不再尝试连接
+
+        PeerLink(String targetNode) {
+            this.targetNode = targetNode;
+        }
+
+        synchronized void send(ClusterFrame frame) throws IOException {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    connect();
+                    out.writeObject(frame);
+                    out.reset();
+                    out.flush();
+                    return;
+                } catch (IOException e) {
+                    close();
+                    if (attempt == 1 || retryAt > System.currentTimeMillis()) {
+                        throw e; // 重连后仍然失败，或正处于退避等待中
+                    }
+                }
+            }
+        }
+
+        /**
+         * 建立连接并发送HELLO帧和同步数据，已连接时什么都不做
+         * @throws IOException 连接失败或处于退避等待中时抛出
+         */
+        synchronized void connect() throws IOException {
+            if (socket != null && !socket.isClosed()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now < retryAt) {
+                throw new IOException("node " + targetNode + " unreachable, next attempt in " + (retryAt - now) + " ms");
+            }
+            try {
+                socket = new Socket();
+                socket.connect(members.get(targetNode), CONNECT_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                out = new ObjectOutputStream(socket.getOutputStream());
+                for (ClusterFrame frame : handshakeFrames()) {
+                    out.writeObject(frame);
+                    out.reset();
+                }
+                out.flush();
+                retryDelay = 0;
+            } catch (IOException e) {
+                close();
+                retryDelay = Math.min(Math.max(MIN_RETRY_DELAY_MS, retryDelay * 2), MAX_RETRY_DELAY_MS);
+                retryAt = System.currentTimeMillis() + retryDelay;
+                throw e;
+            }
+        }
+
+        /**
+         * 关闭连接并清除退避等待，下一次发送时立即重新连接
+         * 对方节点重新启动时调用
+         */
+        synchronized void reset() {
+            close();
+            retryDelay = 0;
+            retryAt = 0;
+        }
+
+        private void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // 连接已不可用，忽略
+                }
+            }
+        }
+    }
+
+    /**
+     * 建立出站连接后依次发送的帧：HELLO、本节点的在线用户、全部用户和群组数据
+     * @return 帧列表
+     */
+    private List<ClusterFrame> handshakeFrames() {
+        List<ClusterFrame> frames = new ArrayList<>();
+        frames.add(new ClusterFrame(ClusterFrame.Kind.HELLO, nodeId)
+                .setSecret(new String(secret, StandardCharsets.UTF_8)).setIncarnation(incarnation));
+        for (String userId : server.getOnlineClients().keySet()) {
+            frames.add(new ClusterFrame(ClusterFrame.Kind.PRESENCE_UP, nodeId).setUserId(userId).setNodeId(nodeId));
+        }
+        ChangeListener snapshot = (operation, args) -> frames.add(new ClusterFrame(ClusterFrame.Kind.REPLICATE, nodeId)
+                .setOperation(operation).setArguments(new ArrayList<>(args)));
+        server.getUserManager().writeSnapshot(snapshot);
+        server.getGroupManager().writeSnapshot(snapshot);
+        return frames;
+    }
+
+    /**
+     * 位于其他节点上的用户连接
+     * 归属节点通过它把离线消息转发到用户当前所在的节点
+     */
+    private class RemoteSink implements MessageSink {
+        private final String targetNode;   // 用户所在节点ID
+        private final String userId;       // 用户ID
+
+        RemoteSink(String targetNode, String userId) {
+            this.targetNode = targetNode;
+            this.userId = userId;
+        }
+
+        @Override
+        public void sendMessage(Message message) throws IOException {
+            send(targetNode, new ClusterFrame(ClusterFrame.Kind.DELIVER, nodeId).setUserId(userId).setMessage(message));
+        }
+
+        @Override
+        public boolean isClosed() {
+            return !targetNode.equals(directory.get(userId));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.simpleqq.server;
+
+/**
+ * 合并写文件类
+ * 数据文件每次保存都是整体重写，多个线程同时修改时不必各写一遍：
+ * 同一时刻只有一个线程在写，写文件期间到达的保存请求合并为下一次写入，
+ * 调用方在包含自己修改的那次写入完成后才返回，持久化语义与逐次保存相同
+ */
+public class CoalescingSaver {
+    private final Runnable writer;   // 整体重写数据文件的方法
+    private long requested;          // 已发出的保存请求序号
+    private long completed;          // 已写入文件的最大请求序号
+    private boolean writing;         // 是否有线程正在写文件
+
+    /**
+     * 构造函数
+     * @param writer 整体重写数据文件的方法，只会被一个线程调用
+     */
+    public CoalescingSaver(Runnable writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * 保存数据文件
+     * 调用前已完成的内存修改在返回时都已写入文件
+     */
+    public void save() {
+        boolean interrupted = false;
+        long ticket;
+        synchronized (this) {
+            ticket = ++requested;
+        }
+        while (true) {
+            long target;
+            synchronized (this) {
+                while (writing && completed < ticket) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (completed >= ticket) {
+                    break;
+                }
+                writing = true;
+                target = requested; // 这次写入会包含到目前为止所有请求的修改
+            }
+            try {
+                writer.run();
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    completed = Math.max(completed, target);
+                    notifyAll();
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
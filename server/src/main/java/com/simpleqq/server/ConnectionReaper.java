@@ -0,0 +1,110 @@
+package com.simpleqq.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 空闲连接清理器类
+ * 使用单线程时间轮跟踪所有连接的最后活跃时间，清理长时间没有任何消息（包括心跳）的连接
+ * 收到消息时只更新处理器上的时间戳，不操作时间轮，因此热路径上没有额外开销
+ * 被清理的连接关闭Socket后走正常的断线流程（会话挂起、移出在线列表、通知好友）
+ */
+public class ConnectionReaper {
+    private static final long TICK_MS = 1000;              // 时间轮每格的时长（毫秒）
+    private static final int WHEEL_SIZE = 64;              // 时间轮格数，总跨度必须大于空闲超时
+    private static final long IDLE_TIMEOUT_MS = 45000;     // 空闲超时（客户端每15秒发送一次心跳）
+
+    private final List<Set<ClientHandler>> wheel;          // 时间轮，每格保存在该时刻到期需要检查的连接
+    private final long startTime;                          // 时间轮启动时间
+    private long currentTick;                              // 当前已处理到的格（只由时间轮线程访问）
+    private ScheduledExecutorService ticker;               // 时间轮推进线程
+
+    /**
+     * 构造函数
+     * 创建时间轮并启动推进线程
+     */
+    public ConnectionReaper() {
+        wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(ConcurrentHashMap.newKeySet());
+        }
+        startTime = System.currentTimeMillis();
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advance, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 开始跟踪连接
+     * @param handler 客户端处理器
+     */
+    public void register(ClientHandler handler) {
+        schedule(handler, handler.getLastActivity() + IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * 停止跟踪连接
+     * @param handler 客户端处理器
+     */
+    public void unregister(ClientHandler handler) {
+        int slot = handler.getReaperSlot();
+        if (slot >= 0) {
+            wheel.get(slot).remove(handler);
+        }
+    }
+
+    /**
+     * 将连接放入到期时刻对应的格
+     * @param handler 客户端处理器
+     * @param deadline 到期时刻（毫秒）
+     */
+    private void schedule(ClientHandler handler, long deadline) {
+        int slot = (int) (((deadline - startTime) / TICK_MS) % WHEEL_SIZE);
+        handler.setReaperSlot(slot);
+        wheel.get(slot).add(handler);
+    }
+
+    /**
+     * 推进时间轮一格
+     * 检查该格中的连接：已超时的关闭，期间有活动的按新的到期时刻重新放入时间轮
+     */
+    private void advance() {
+        try {
+            long now = System.currentTimeMillis();
+            long targetTick = (now - startTime) / TICK_MS;
+            // 推进线程偶尔被延迟时，补处理错过的格
+            while (currentTick <= targetTick) {
+                Set<ClientHandler> bucket = wheel.get((int) (currentTick % WHEEL_SIZE));
+                Iterator<ClientHandler> it = bucket.iterator();
+                while (it.hasNext()) {
+                    ClientHandler handler = it.next();
+                    long deadline = handler.getLastActivity() + IDLE_TIMEOUT_MS;
+                    if (handler.isClosed()) {
+                        it.remove();
+                    } else if (deadline <= now) {
+                        it.remove();
+                        System.out.println("Evicting idle connection of " + handler.getUserId()
+                                + " (idle " + (now - handler.getLastActivity()) + " ms)");
+                        handler.closeConnection();
+                    } else {
+                        // 期间有活动，按新的到期时刻重新放入（至少放到下一格）
+                        it.remove();
+                        schedule(handler, Math.max(deadline, startTime + (currentTick + 1) * TICK_MS));
+                    }
+                }
+                currentTick++;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // 保证推进线程不会因单个异常终止
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.simpleqq.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 一致性哈希环类
+ * 将用户ID映射到集群中的某个节点（该用户的"归属节点"），归属节点负责保存用户的在线位置和离线消息
+ * 每个物理节点在环上放置多个虚拟节点，使用户分布更均匀，节点增减时只有少量用户需要迁移
+ */
+public class ConsistentHashRing {
+    private static final int VIRTUAL_NODES = 128;      // 每个物理节点的虚拟节点数量
+
+    private final TreeMap<Long, String> ring;          // 哈希环，key为虚拟节点哈希值，value为节点ID
+
+    /**
+     * 构造函数
+     * @param nodeIds 集群中所有节点的ID
+     */
+    public ConsistentHashRing(Collection<String> nodeIds) {
+        ring = new TreeMap<>();
+        for (String nodeId : nodeIds) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(nodeId + "#" + i), nodeId);
+            }
+        }
+    }
+
+    /**
+     * 查找用户的归属节点
+     * 顺时针找到第一个虚拟节点
+     * @param userId 用户ID
+     * @return 归属节点ID
+     */
+    public String ownerOf(String userId) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(userId));
+        if (entry == null) {
+            entry = ring.firstEntry(); // 越过环尾，回到环首
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * 计算字符串的哈希值
+     * 取MD5摘要的前8个字节，分布均匀且与JVM无关，保证所有节点计算结果一致
+     * @param key 字符串
+     * @return 哈希值
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (digest[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.simpleqq.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计读取字节数的输入流
+ */
+public class CountingInputStream extends FilterInputStream {
+    private final LongAdder counter;   // 字节计数器
+    private boolean timing;            // 是否记录下一条消息第一个字节的到达时刻
+    private long firstReadNanos;       // 下一条消息第一个字节的到达时刻，0表示尚未到达
+
+    /**
+     * 构造函数
+     * @param in 被包装的输入流
+     * @param counter 字节计数器
+     */
+    public CountingInputStream(InputStream in, LongAdder counter) {
+        super(in);
+        this.counter = counter;
+    }
+
+    /**
+     * 标记消息边界
+     * 读取线程在读下一条消息之前调用，之后第一次读到数据的时刻即为该消息的到达时刻
+     * @param timing 是否需要记录到达时刻（关闭时不调用System.nanoTime）
+     */
+    public void markMessageBoundary(boolean timing) {
+        this.timing = timing;
+        this.firstReadNanos = 0;
+    }
+
+    /**
+     * 获取自上次标记消息边界以来第一次读到数据的时刻
+     * @return System.nanoTime时刻，未记录时为0
+     */
+    public long getFirstReadNanos() {
+        return firstReadNanos;
+    }
+
+    private void onRead(int n) {
+        counter.add(n);
+        if (timing && firstReadNanos == 0) {
+            firstReadNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b == ObjectStreamConstants.TC_RESET) {
+            // 对端每条消息之后都写出的重置标记随上一条消息一起到达，不代表下一条消息开始
+            counter.increment();
+        } else if (b >= 0) {
+            onRead(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            onRead(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        counter.add(skipped);
+        return skipped;
+    }
+}
@@ -0,0 +1,35 @@
+package com.simpleqq.server;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计写出字节数的输出流
+ */
+public class CountingOutputStream extends FilterOutputStream {
+    private final LongAdder counter;   // 字节计数器
+
+    /**
+     * 构造函数
+     * @param out 被包装的输出流
+     * @param counter 字节计数器
+     */
+    public CountingOutputStream(OutputStream out, LongAdder counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        counter.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len); // 直接整块写出，FilterOutputStream默认实现会逐字节写
+        counter.add(len);
+    }
+}
@@ -0,0 +1,66 @@
+package com.simpleqq.server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 密码校验线程池类
+ * 登录、注册时的密码散列计算量大，放在线程数和排队长度都有上限的专用线程池中执行，
+ * 不占用消息处理工作线程；排队已满时直接拒绝，登录风暴不会拖慢已登录用户的消息收发
+ */
+public class CredentialVerifier {
+    private final ThreadPoolExecutor pool;                 // 校验线程池
+    private final LongAdder accepted = new LongAdder();    // 已接受的校验请求数
+    private final LongAdder rejected = new LongAdder();    // 因排队已满被拒绝的请求数
+
+    /**
+     * 构造函数
+     * @param threads 校验线程数
+     * @param queueCapacity 排队等待校验的请求数上限
+     */
+    public CredentialVerifier(int threads, int queueCapacity) {
+        AtomicInteger sequence = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread t = new Thread(r, "credential-verifier-" + sequence.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交校验任务
+     * @param job 校验任务
+     * @return 已接受返回true；排队已满返回false，调用方应告知客户端稍后重试
+     */
+    public boolean submit(Runnable job) {
+        try {
+            pool.execute(job);
+            accepted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 获取排队等待校验的请求数
+     * @return 请求数
+     */
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+}
@@ -0,0 +1,160 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 群消息扇出引擎
+ * 成员数低于阈值的群组在调用线程中依次发送；达到阈值的群组把消息放入每个在线接收者自己的出站队列，
+ * 各接收者的队列在扇出线程池中并行发送，调用线程（发送者连接的工作线程）只负责入队
+ *
+ * 每个接收者的出站队列按提交顺序发送，因此同一接收者收到的大群消息保持发送顺序；
+ * 是否经由出站队列只取决于群组成员数，同一群组的消息不会在两种方式之间交替
+ * 出站队列有长度上限，接收者读得太慢导致队列已满时，这条消息改存入其离线收件箱，
+ * 调用线程和其他接收者都不会等待这个接收者的连接
+ */
+public class FanoutEngine {
+    private final Server server;                   // 服务器实例，发送失败时转发或存入离线收件箱
+    private final int threshold;                   // 启用并行扇出的群组成员数
+    private final int maxQueuedPerRecipient;       // 每个接收者出站队列的长度上限
+    private final ThreadPoolExecutor workers;      // 扇出线程池，执行各接收者的出站队列
+    private final Log2Histogram lastRecipientTimer; // 从开始扇出到最后一个接收者写出消息的耗时
+    private final LongAdder shardedFanouts = new LongAdder(); // 并行扇出的次数
+    private final LongAdder overflows = new LongAdder();      // 因出站队列已满改存离线收件箱的次数（按接收者计）
+    private final AtomicInteger pendingFanouts = new AtomicInteger(); // 尚未发送完毕的并行扇出数
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     * @param threads 扇出线程数
+     * @param threshold 启用并行扇出的群组成员数
+     * @param maxQueuedPerRecipient 每个接收者出站队列的长度上限
+     */
+    public FanoutEngine(Server server, int threads, int threshold, int maxQueuedPerRecipient) {
+        this.server = server;
+        this.threshold = threshold;
+        this.maxQueuedPerRecipient = maxQueuedPerRecipient;
+        this.lastRecipientTimer = server.getMetrics().fanoutLastRecipientTimer();
+        AtomicInteger sequence = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "fanout-" + sequence.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * 为新连接创建出站队列
+     * @return 出站队列
+     */
+    SerialExecutor newRecipientQueue() {
+        return new SerialExecutor(workers, maxQueuedPerRecipient);
+    }
+
+    /**
+     * 把群消息发送给在线接收者
+     * 发送失败的接收者交给集群转发或存入离线收件箱
+     * @param message 群消息
+     * @param groupSize 群组成员数，决定是否并行扇出
+     * @param recipients 在线接收者ID到客户端处理器的映射（不包括发送者）
+     */
+    public void deliver(Message message, int groupSize, Map<String, ClientHandler> recipients) {
+        long start = System.nanoTime();
+        if (groupSize < threshold || workers.getMaximumPoolSize() < 2) {
+            for (Map.Entry<String, ClientHandler> entry : recipients.entrySet()) {
+                send(message, entry.getKey(), entry.getValue());
+            }
+            lastRecipientTimer.recordNanos(System.nanoTime() - start);
+            return;
+        }
+        if (recipients.isEmpty()) {
+            lastRecipientTimer.recordNanos(System.nanoTime() - start);
+            return;
+        }
+
+        shardedFanouts.increment();
+        pendingFanouts.incrementAndGet();
+        // 多算一个，全部入队之后再减去，避免入队过程中先入队的接收者全部发完就提前结束计时
+        AtomicInteger remaining = new AtomicInteger(recipients.size() + 1);
+        Runnable finishOne = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                lastRecipientTimer.recordNanos(System.nanoTime() - start);
+                pendingFanouts.decrementAndGet();
+            }
+        };
+        List<String> overflowed = new ArrayList<>();
+        for (Map.Entry<String, ClientHandler> entry : recipients.entrySet()) {
+            String recipientId = entry.getKey();
+            ClientHandler handler = entry.getValue();
+            boolean queued = handler.getFanoutQueue().trySubmit(() -> {
+                send(message, recipientId, handler);
+                finishOne.run();
+            });
+            if (!queued) {
+                overflowed.add(recipientId);
+                finishOne.run();
+            }
+        }
+        finishOne.run();
+        if (!overflowed.isEmpty()) {
+            overflows.add(overflowed.size());
+            System.err.println("Outbound queue full for " + overflowed.size() + " recipients of " + message.getReceiverId()
+                    + ". Message stored for offline delivery.");
+            server.storeOffline(message, overflowed);
+        }
+    }
+
+    /**
+     * 向单个接收者发送消息，失败时交给集群转发或存入离线收件箱
+     */
+    private void send(Message message, String recipientId, ClientHandler handler) {
+        try {
+            handler.sendMessage(message);
+        } catch (IOException e) {
+            System.err.println("Error forwarding message to " + recipientId + ": " + e.getMessage());
+            server.forwardToRemoteMembers(message, List.of(recipientId));
+        }
+    }
+
+    /**
+     * 获取并行扇出的次数
+     * @return 次数
+     */
+    public long getShardedFanoutCount() {
+        return shardedFanouts.sum();
+    }
+
+    /**
+     * 获取因出站队列已满改存离线收件箱的次数（按接收者计）
+     * @return 次数
+     */
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+
+    /**
+     * 获取尚未发送完毕的并行扇出数
+     * @return 扇出数
+     */
+    public int getPendingFanouts() {
+        return pendingFanouts.get();
+    }
+
+    /**
+     * 获取启用并行扇出的群组成员数
+     * @return 阈值
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+}
@@ -0,0 +1,56 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+
+/**
+ * 聊天消息防刷类
+ * 在扇出和写聊天记录之前按发送者和目标群组分别限流：
+ * 发送者的令牌桶限制单个用户的发送速率，群组的令牌桶限制所有成员发往同一群组的总速率，
+ * 大群中的刷屏不会因扇出被放大到所有在线成员
+ *
+ * 速率可通过 simpleqq.flood.* 系统属性调整
+ */
+public class FloodGuard {
+    private final KeyedRateLimiter perUser;   // 按发送者（连接登录的用户）限流
+    private final KeyedRateLimiter perGroup;  // 按目标群组限流
+
+    /**
+     * 构造函数
+     */
+    public FloodGuard() {
+        this.perUser = new KeyedRateLimiter(
+                Integer.getInteger("simpleqq.flood.userRate", 20),
+                Integer.getInteger("simpleqq.flood.userBurst", 40));
+        this.perGroup = new KeyedRateLimiter(
+                Integer.getInteger("simpleqq.flood.groupRate", 50),
+                Integer.getInteger("simpleqq.flood.groupBurst", 100));
+    }
+
+    /**
+     * 判断聊天消息是否允许发送
+     * 按连接已登录的用户ID限流，不信任客户端填写的发送者ID；
+     * 群组拒绝时退还已扣除的用户令牌，被拒绝的消息不占用发送者的配额
+     * @param senderKey 发送者的限流键，已登录时为用户ID，未登录时为来源IP
+     * @param message 聊天消息
+     * @param toGroup 是否发往发送者所在的群组（群组不存在或发送者不是成员时为false，只按用户限流）
+     * @return 允许返回true；超出速率返回false，消息应被丢弃并通知发送者
+     */
+    public boolean allow(String senderKey, Message message, boolean toGroup) {
+        if (!perUser.tryAcquire(senderKey)) {
+            return false;
+        }
+        if (toGroup && !perGroup.tryAcquire(message.getReceiverId())) {
+            perUser.refund(senderKey);
+            return false;
+        }
+        return true;
+    }
+
+    public long getUserThrottledCount() {
+        return perUser.getRejectedCount();
+    }
+
+    public long getGroupThrottledCount() {
+        return perGroup.getRejectedCount();
+    }
+}
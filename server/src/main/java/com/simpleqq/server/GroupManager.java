@@ -2,28 +2,82 @@ package com.simpleqq.server;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 群组管理器类
  * 负责群组创建、成员管理、群组邀请等功能
  * 使用文件系统进行数据持久化存储
+ *
+ * 修改群成员和群组邀请时只锁住涉及的群组和用户所在的段，不相关的群组可以并行操作；
+ * 成员列表和邀请列表使用写时复制列表，消息扇出等遍历不需要加锁
+ *
+ * 另外为每个群组维护连接在本节点上的在线成员及其客户端处理器，随用户上下线更新，
+ * 群消息扇出只需遍历在线成员，不必逐个查询全部成员是否在线；
+ * 为每个用户维护其所在群组的反向索引，随成员变化更新，上下线和查询用户群组时不必遍历全部群组
  */
 public class GroupManager {
     private static final String GROUPS_FILE = "groups.txt";              // 群组信息文件
     private static final String GROUP_INVITES_FILE = "group_invites.txt"; // 群组邀请文件
+    private static final int LOCK_STRIPES = 64;                           // 分段锁的段数
 
+    private final File dataDir;                            // 数据文件所在目录
     private Map<String, List<String>> groups;              // 群组映射表，key为群组ID，value为成员ID列表
     private Map<String, List<String>> pendingGroupInvites; // 待处理群组邀请，key为被邀请者ID，value为群组ID列表
+    private final Map<String, CopyOnWriteArrayList<String>> userGroups = new ConcurrentHashMap<>(); // 用户所在群组的反向索引，key为用户ID，value为群组ID列表
+    private final Log2Histogram saveGroupsTimer;           // 保存群组信息的耗时
+    private final Log2Histogram saveGroupInvitesTimer;     // 保存群组邀请的耗时
+    private final LockStripes locks = new LockStripes(LOCK_STRIPES); // 按群组ID、用户ID分段的锁
+    private final CoalescingSaver groupsSaver = new CoalescingSaver(this::saveGroups);             // 合并保存群组信息
+    private final CoalescingSaver groupInvitesSaver = new CoalescingSaver(this::saveGroupInvites); // 合并保存群组邀请
+    private final ListVersions listVersions;               // 群组列表、群成员列表、待处理请求列表的版本号
+    private final Map<String, Map<String, ClientHandler>> onlineMembers = new ConcurrentHashMap<>(); // 各群组在本节点在线的成员，key为群组ID，value为成员ID到客户端处理器的映射
+    private volatile PresenceRegistry presence;            // 在线状态注册表，成员加入群组时用于判断是否在线
+    private volatile ChangeListener changeListener;        // 数据变化监听器，集群模式下把修改复制到其他节点
 
     /**
      * 构造函数
-     * 初始化数据结构并从文件加载数据
+     * 使用当前工作目录下的数据文件
      */
     public GroupManager() {
+        this(new File("."));
+    }
+
+    /**
+     * 构造函数
+     * 使用指定目录下的数据文件
+     * @param dataDir 数据文件所在目录
+     */
+    public GroupManager(File dataDir) {
+        this(dataDir, new ServerMetrics());
+    }
+
+    /**
+     * 构造函数
+     * 使用独立的列表版本号
+     * @param dataDir 数据文件所在目录
+     * @param metrics 指标注册表，记录持久化耗时
+     */
+    public GroupManager(File dataDir, ServerMetrics metrics) {
+        this(dataDir, metrics, new ListVersions());
+    }
+
+    /**
+     * 构造函数
+     * 初始化数据结构并从文件加载数据
+     * @param dataDir 数据文件所在目录
+     * @param metrics 指标注册表，记录持久化耗时
+     * @param listVersions 列表版本号，群成员和群组邀请变化时递增
+     */
+    public GroupManager(File dataDir, ServerMetrics metrics, ListVersions listVersions) {
+        this.dataDir = dataDir;
+        this.listVersions = listVersions;
+        this.saveGroupsTimer = metrics.persistenceTimer("saveGroups");
+        this.saveGroupInvitesTimer = metrics.persistenceTimer("saveGroupInvites");
         groups = new ConcurrentHashMap<>();
         pendingGroupInvites = new ConcurrentHashMap<>();
         loadGroups();
@@ -35,7 +89,7 @@ public class GroupManager {
      * 文件格式：群组ID|成员ID1|成员ID2|...
      */
     private void loadGroups() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(GROUPS_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, GROUPS_FILE)))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\\|");
@@ -46,7 +100,10 @@ public class GroupManager {
                     for (int i = 1; i < parts.length; i++) {
                         members.add(parts[i]);
                     }
-                    groups.put(groupId, members);
+                    groups.put(groupId, new CopyOnWriteArrayList<>(members));
+                    for (String memberId : members) {
+                        indexMember(groupId, memberId);
+                    }
                 }
             }
             System.out.println("Loaded " + groups.size() + " groups.");
@@ -62,7 +119,8 @@ public class GroupManager {
      * 将内存中的群组数据写入文件进行持久化
      */
     private void saveGroups() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(GROUPS_FILE))) {
+        long start = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, GROUPS_FILE)))) {
             for (Map.Entry<String, List<String>> entry : groups.entrySet()) {
                 StringBuilder sb = new StringBuilder(entry.getKey());
                 for (String memberId : entry.getValue()) {
@@ -75,6 +133,7 @@ public class GroupManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        saveGroupsTimer.recordNanos(System.nanoTime() - start);
     }
 
     /**
@@ -82,14 +141,14 @@ public class GroupManager {
      * 文件格式：被邀请者ID|群组ID
      */
     private void loadGroupInvites() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(GROUP_INVITES_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, GROUP_INVITES_FILE)))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\\|");
                 if (parts.length == 2) {
                     String invitedId = parts[0];
                     String groupId = parts[1];
-                    pendingGroupInvites.computeIfAbsent(invitedId, k -> new ArrayList<>()).add(groupId);
+                    pendingGroupInvites.computeIfAbsent(invitedId, k -> new CopyOnWriteArrayList<>()).add(groupId);
                 }
             }
             System.out.println("Loaded group invites.");
@@ -104,7 +163,8 @@ public class GroupManager {
      * 保存群组邀请信息到文件
      */
     private void saveGroupInvites() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(GROUP_INVITES_FILE))) {
+        long start = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, GROUP_INVITES_FILE)))) {
             for (Map.Entry<String, List<String>> entry : pendingGroupInvites.entrySet()) {
                 String invitedId = entry.getKey();
                 for (String groupId : entry.getValue()) {
@@ -116,6 +176,7 @@ public class GroupManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        saveGroupInvitesTimer.recordNanos(System.nanoTime() - start);
     }
 
     /**
@@ -124,14 +185,18 @@ public class GroupManager {
      * @param creatorId 创建者用户ID，自动成为群组第一个成员
      * @return 创建成功返回true，群组ID已存在返回false
      */
-    public synchronized boolean createGroup(String groupId, String creatorId) {
-        if (groups.containsKey(groupId)) {
+    public boolean createGroup(String groupId, String creatorId) {
+        List<String> members = new CopyOnWriteArrayList<>();
+        members.add(creatorId); // 创建者自动成为第一个成员
+        if (groups.putIfAbsent(groupId, members) != null) {
             return false; // 群组ID已存在
         }
-        List<String> members = new ArrayList<>();
-        members.add(creatorId); // 创建者自动成为第一个成员
-        groups.put(groupId, members);
-        saveGroups();
+        indexMember(groupId, creatorId);
+        indexIfOnline(groupId, creatorId);
+        listVersions.bump(ListVersions.Kind.GROUPS, creatorId);
+        listVersions.bump(ListVersions.Kind.MEMBERS, groupId);
+        groupsSaver.save();
+        notifyChanged("group_create", groupId, creatorId);
         return true;
     }
 
@@ -142,26 +207,34 @@ public class GroupManager {
      * @param groupId 群组ID
      * @return 邀请发送成功返回true，失败返回false
      */
-    public synchronized boolean sendGroupInvite(String inviterId, String invitedId, String groupId) {
-        // 检查群组是否存在
-        if (!groups.containsKey(groupId)) {
-            return false; // 群组不存在
-        }
-        
-        // 检查被邀请用户是否已经是群成员
-        if (groups.get(groupId).contains(invitedId)) {
-            return false; // 用户已经是群成员
-        }
+    public boolean sendGroupInvite(String inviterId, String invitedId, String groupId) {
+        locks.lock(groupId, invitedId);
+        try {
+            // 检查群组是否存在
+            List<String> members = groups.get(groupId);
+            if (members == null) {
+                return false; // 群组不存在
+            }
 
-        // 允许重新发送邀请（简化处理，实际应用中可能需要更复杂的逻辑）
-        if (pendingGroupInvites.containsKey(invitedId) && 
-            pendingGroupInvites.get(invitedId).contains(groupId)) {
-            return true; // 邀请已存在，但允许重新发送
-        }
+            // 检查被邀请用户是否已经是群成员
+            if (members.contains(invitedId)) {
+                return false; // 用户已经是群成员
+            }
+
+            // 允许重新发送邀请（简化处理，实际应用中可能需要更复杂的逻辑）
+            if (pendingGroupInvites.containsKey(invitedId) &&
+                pendingGroupInvites.get(invitedId).contains(groupId)) {
+                return true; // 邀请已存在，但允许重新发送
+            }
 
-        // 添加到待处理邀请列表
-        pendingGroupInvites.computeIfAbsent(invitedId, k -> new ArrayList<>()).add(groupId);
-        saveGroupInvites();
+            // 添加到待处理邀请列表
+            pendingGroupInvites.computeIfAbsent(invitedId, k -> new CopyOnWriteArrayList<>()).add(groupId);
+        } finally {
+            locks.unlock(groupId, invitedId);
+        }
+        listVersions.bump(ListVersions.Kind.PENDING, invitedId);
+        groupInvitesSaver.save();
+        notifyChanged("group_invite", groupId, invitedId);
         return true;
     }
 
@@ -172,16 +245,27 @@ public class GroupManager {
      * @param groupId 群组ID
      * @return 接受成功返回true，失败返回false
      */
-    public synchronized boolean acceptGroupInvite(String invitedId, String groupId) {
-        List<String> invites = pendingGroupInvites.get(invitedId);
-        if (invites != null && invites.remove(groupId)) {
+    public boolean acceptGroupInvite(String invitedId, String groupId) {
+        locks.lock(groupId, invitedId);
+        try {
+            List<String> invites = pendingGroupInvites.get(invitedId);
+            if (invites == null || !invites.remove(groupId)) {
+                return false;
+            }
             // 将用户添加到群组成员列表
-            groups.computeIfAbsent(groupId, k -> new ArrayList<>()).add(invitedId);
-            saveGroups();
-            saveGroupInvites();
-            return true;
+            groups.computeIfAbsent(groupId, k -> new CopyOnWriteArrayList<>()).add(invitedId);
+            indexMember(groupId, invitedId);
+        } finally {
+            locks.unlock(groupId, invitedId);
         }
-        return false;
+        indexIfOnline(groupId, invitedId);
+        listVersions.bump(ListVersions.Kind.GROUPS, invitedId);
+        listVersions.bump(ListVersions.Kind.MEMBERS, groupId);
+        listVersions.bump(ListVersions.Kind.PENDING, invitedId);
+        groupsSaver.save();
+        groupInvitesSaver.save();
+        notifyChanged("group_accept", groupId, invitedId);
+        return true;
     }
 
     /**
@@ -191,13 +275,98 @@ public class GroupManager {
      * @param groupId 群组ID
      * @return 拒绝成功返回true，失败返回false
      */
-    public synchronized boolean rejectGroupInvite(String invitedId, String groupId) {
-        List<String> invites = pendingGroupInvites.get(invitedId);
-        if (invites != null && invites.remove(groupId)) {
-            saveGroupInvites();
-            return true;
+    public boolean rejectGroupInvite(String invitedId, String groupId) {
+        locks.lock(invitedId);
+        try {
+            List<String> invites = pendingGroupInvites.get(invitedId);
+            if (invites == null || !invites.remove(groupId)) {
+                return false;
+            }
+        } finally {
+            locks.unlock(invitedId);
+        }
+        listVersions.bump(ListVersions.Kind.PENDING, invitedId);
+        groupInvitesSaver.save();
+        notifyChanged("group_reject", groupId, invitedId);
+        return true;
+    }
+
+    /**
+     * 设置在线状态注册表
+     * 设置后新加入群组的在线用户会立即登记到该群组的在线成员中
+     * @param presence 在线状态注册表
+     */
+    public void setPresence(PresenceRegistry presence) {
+        this.presence = presence;
+    }
+
+    /**
+     * 登记用户在其所有群组中的在线连接
+     * 用户已登记其他连接时替换为新连接
+     * @param userId 用户ID
+     * @param handler 客户端处理器
+     */
+    public void memberOnline(String userId, ClientHandler handler) {
+        for (String groupId : joinedGroups(userId)) {
+            onlineMembers.computeIfAbsent(groupId, k -> new ConcurrentHashMap<>()).put(userId, handler);
         }
-        return false;
+    }
+
+    /**
+     * 移除用户在其所有群组中的在线连接
+     * 只有登记的仍是该连接时才会移除，避免误删同一用户的新连接
+     * @param userId 用户ID
+     * @param handler 断开连接的客户端处理器
+     */
+    public void memberOffline(String userId, ClientHandler handler) {
+        for (String groupId : joinedGroups(userId)) {
+            Map<String, ClientHandler> online = onlineMembers.get(groupId);
+            if (online != null) {
+                online.remove(userId, handler);
+            }
+        }
+    }
+
+    /**
+     * 在反向索引中记录用户加入了群组
+     * @param groupId 群组ID
+     * @param userId 成员ID
+     */
+    private void indexMember(String groupId, String userId) {
+        userGroups.computeIfAbsent(userId, k -> new CopyOnWriteArrayList<>()).addIfAbsent(groupId);
+    }
+
+    /**
+     * 读取反向索引中用户所在的群组
+     * @param userId 用户ID
+     * @return 群组ID列表（写时复制列表，可直接遍历），未加入任何群组时为空
+     */
+    private List<String> joinedGroups(String userId) {
+        List<String> joined = userGroups.get(userId);
+        return joined == null ? Collections.emptyList() : joined;
+    }
+
+    /**
+     * 新成员加入群组后，如果该用户在线则登记到群组的在线成员中
+     * @param groupId 群组ID
+     * @param userId 新成员ID
+     */
+    private void indexIfOnline(String groupId, String userId) {
+        PresenceRegistry registry = presence;
+        ClientHandler handler = registry == null ? null : registry.get(userId);
+        if (handler != null) {
+            onlineMembers.computeIfAbsent(groupId, k -> new ConcurrentHashMap<>()).put(userId, handler);
+        }
+    }
+
+    /**
+     * 获取群组在本节点在线的成员
+     * @param groupId 群组ID
+     * @return 成员ID到客户端处理器的映射（只读），没有在线成员时为空
+     */
+    public Map<String, ClientHandler> getOnlineMembers(String groupId) {
+        Map<String, ClientHandler> online = onlineMembers.get(groupId);
+        return online == null ? Collections.emptyMap() : Collections.unmodifiableMap(online);
     }
 
     /**
@@ -220,15 +389,12 @@ public class GroupManager {
 
     /**
      * 获取用户加入的所有群组列表
-     * 通过遍历所有群组找出包含指定用户的群组
+     * 直接读取反向索引，不遍历全部群组
      * @param userId 用户ID
-     * @return 群组ID列表
+     * @return 群组ID列表（按加入顺序）
      */
     public List<String> getUserGroups(String userId) {
-        return groups.entrySet().stream()
-                .filter(entry -> entry.getValue().contains(userId)) // 过滤包含该用户的群组
-                .map(Map.Entry::getKey)                              // 提取群组ID
-                .collect(Collectors.toList());                       // 收集为列表
+        return new ArrayList<>(joinedGroups(userId));
     }
 
     /**
@@ -238,4 +404,122 @@ public class GroupManager {
     public Map<String, List<String>> getAllGroups() {
         return groups;
     }
-}
\ No newline at end of file
+
+    /**
+     * 设置数据变化监听器
+     * 创建群组、群组邀请变化和成员加入成功后调用；应用其他节点复制来的修改时不调用
+     * @param changeListener 监听器
+     */
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void notifyChanged(String operation, String... args) {
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.changed(operation, List.of(args));
+        }
+    }
+
+    /**
+     * 把当前全部群成员和群组邀请写成修改操作
+     * 集群节点建立连接时发给对方，对方按操作合并，只会补上缺少的数据
+     * @param out 接收操作的监听器
+     */
+    public void writeSnapshot(ChangeListener out) {
+        for (Map.Entry<String, List<String>> entry : groups.entrySet()) {
+            for (String memberId : entry.getValue()) {
+                out.changed("group_member", List.of(entry.getKey(), memberId));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : pendingGroupInvites.entrySet()) {
+            for (String groupId : entry.getValue()) {
+                out.changed("group_invite", List.of(groupId, entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * 应用其他节点复制来的修改
+     * 参数均为 群组ID,用户ID；所有操作都是幂等的，不再通知监听器，避免来回复制
+     * @param operation 操作名称
+     * @param args 操作参数
+     */
+    public void applyReplicated(String operation, List<String> args) {
+        String groupId = args.get(0);
+        String userId = args.get(1);
+        switch (operation) {
+            case "group_create":
+            case "group_accept":
+            case "group_member":
+                applyMember(groupId, userId);
+                break;
+            case "group_invite":
+                applyInvite(groupId, userId);
+                break;
+            case "group_reject":
+                applyRemoveInvite(groupId, userId);
+                break;
+            default:
+                System.out.println("Unknown replicated group operation: " + operation);
+        }
+    }
+
+    private void applyMember(String groupId, String userId) {
+        boolean inviteRemoved;
+        boolean added = false;
+        locks.lock(groupId, userId);
+        try {
+            List<String> invites = pendingGroupInvites.get(userId);
+            inviteRemoved = invites != null && invites.remove(groupId);
+            List<String> members = groups.computeIfAbsent(groupId, k -> new CopyOnWriteArrayList<>());
+            if (!members.contains(userId)) {
+                members.add(userId);
+                indexMember(groupId, userId);
+                added = true;
+            }
+        } finally {
+            locks.unlock(groupId, userId);
+        }
+        if (inviteRemoved) {
+            listVersions.bump(ListVersions.Kind.PENDING, userId);
+            groupInvitesSaver.save();
+        }
+        if (added) {
+            indexIfOnline(groupId, userId);
+            listVersions.bump(ListVersions.Kind.GROUPS, userId);
+            listVersions.bump(ListVersions.Kind.MEMBERS, groupId);
+            groupsSaver.save();
+        }
+    }
+
+    private void applyInvite(String groupId, String invitedId) {
+        locks.lock(groupId, invitedId);
+        try {
+            List<String> members = groups.get(groupId);
+            List<String> invites = pendingGroupInvites.computeIfAbsent(invitedId, k -> new CopyOnWriteArrayList<>());
+            if ((members != null && members.contains(invitedId)) || invites.contains(groupId)) {
+                return;
+            }
+            invites.add(groupId);
+        } finally {
+            locks.unlock(groupId, invitedId);
+        }
+        listVersions.bump(ListVersions.Kind.PENDING, invitedId);
+        groupInvitesSaver.save();
+    }
+
+    private void applyRemoveInvite(String groupId, String invitedId) {
+        locks.lock(invitedId);
+        try {
+            List<String> invites = pendingGroupInvites.get(invitedId);
+            if (invites == null || !invites.remove(groupId)) {
+                return;
+            }
+        } finally {
+            locks.unlock(invitedId);
+        }
+        listVersions.bump(ListVersions.Kind.PENDING, invitedId);
+        groupInvitesSaver.save();
+    }
+}
@@ -0,0 +1,88 @@
+package com.simpleqq.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 按键限流类
+ * 为每个键（IP地址、用户ID等）维护一个令牌桶，首次出现时创建
+ * 定期清除已经补满的桶，长期不活动的键不占用内存
+ * 已有令牌桶的键只做一次哈希表查找和一次加锁的浮点运算，不分配对象
+ */
+public class KeyedRateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = 60_000_000_000L; // 清除已补满令牌桶的间隔
+
+    private final double ratePerSecond;      // 每个键每秒补充的令牌数
+    private final double burst;              // 每个键的桶容量
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>(); // 键 -> 令牌桶
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());     // 上次清除的时刻
+    private final LongAdder rejected = new LongAdder(); // 被拒绝的次数
+    private final Function<String, TokenBucket> newBucket; // 创建令牌桶，预先构造避免每次调用分配lambda
+
+    /**
+     * 构造函数
+     * @param ratePerSecond 每个键每秒允许的平均次数
+     * @param burst 每个键允许的突发次数
+     */
+    public KeyedRateLimiter(double ratePerSecond, double burst) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.newBucket = k -> new TokenBucket(this.ratePerSecond, this.burst);
+    }
+
+    /**
+     * 尝试为键取得一个令牌
+     * @param key 限流的键
+     * @return 未超出速率返回true
+     */
+    public boolean tryAcquire(String key) {
+        sweepIfDue();
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, newBucket);
+        }
+        if (bucket.tryAcquire()) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * 退还键的一个令牌，桶已被清除时不做任何事
+     * @param key 限流的键
+     */
+    public void refund(String key) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.refund();
+        }
+    }
+
+    /**
+     * 到期时由调用线程顺便清除已补满的桶，不需要单独的清理线程
+     */
+    private void sweepIfDue() {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        buckets.values().removeIf(TokenBucket::isFull);
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * 获取当前跟踪的键数
+     * @return 键数
+     */
+    public int size() {
+        return buckets.size();
+    }
+}
@@ -0,0 +1,226 @@
+package com.simpleqq.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 列表数据缓存类
+ * 缓存编码好的好友列表、群组列表、待处理请求列表和群成员列表，同一列表被反复请求时不再逐个查询用户和在线状态
+ * 同一列表可以有几种不同的编码（如群成员按不同顺序排列的第一页），用变体号区分，放在同一段中
+ *
+ * 每项缓存记录编码时的列表版本号，只有与当前版本相同时才使用；
+ * 列表变化时 {@link ListVersions} 递增版本号并通知本缓存立即删除对应的项
+ * 按键的哈希值分为若干段，每段是一个按访问顺序排列的LinkedHashMap，
+ * 各段的数据总字节数超过上限时淘汰最久未使用的项
+ */
+public class ListPayloadCache implements ListVersions.ChangeListener {
+    private static final int SEGMENTS = 16;                // 段数（2的幂）
+    public static final int VARIANTS = 2;                  // 每个列表的变体数
+
+    private final ListVersions versions;                   // 列表版本号
+    private final Segment[] segments = new Segment[SEGMENTS]; // 各段
+    private final LongAdder hits = new LongAdder();        // 命中次数
+    private final LongAdder misses = new LongAdder();      // 未命中次数
+    private final LongAdder evictions = new LongAdder();   // 因超出容量被淘汰的项数
+
+    /**
+     * 缓存键：列表种类 + 用户ID或群组ID + 变体号
+     */
+    private static final class Key {
+        private final ListVersions.Kind kind;  // 列表种类
+        private final String id;               // 用户ID或群组ID
+        private final int variant;             // 变体号
+
+        Key(ListVersions.Kind kind, String id, int variant) {
+            this.kind = kind;
+            this.id = id;
+            this.variant = variant;
+        }
+
+        /**
+         * 同一列表的各变体的哈希值相同，落在同一段中
+         */
+        int listHash() {
+            return Objects.hash(kind, id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return kind == other.kind && id.equals(other.id) && variant == other.variant;
+        }
+
+        @Override
+        public int hashCode() {
+            return listHash() * 31 + variant;
+        }
+    }
+
+    /**
+     * 一项缓存
+     */
+    private static final class Entry {
+        private final long version;    // 编码时的列表版本号
+        private final byte[] payload;  // 编码好的列表数据
+
+        Entry(long version, byte[] payload) {
+            this.version = version;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * 缓存的一段，所有方法在本段的锁内执行
+     */
+    private final class Segment {
+        private final long maxBytes;                       // 本段数据总字节数上限
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // 按访问顺序排列
+        private long bytes;                                // 本段数据总字节数
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Entry get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(Key key, Entry entry) {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.payload.length;
+            }
+            bytes += entry.payload.length;
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().payload.length;
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized void remove(Key key) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                bytes -= removed.payload.length;
+            }
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 构造函数
+     * 在versions上注册自身，列表变化时删除对应的项
+     * @param versions 列表版本号
+     * @param maxBytes 缓存数据总字节数上限
+     */
+    public ListPayloadCache(ListVersions versions, long maxBytes) {
+        this.versions = versions;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(Math.max(1, maxBytes / SEGMENTS));
+        }
+        versions.addListener(this);
+    }
+
+    private Segment segmentFor(Key key) {
+        int h = key.listHash();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * 获取列表数据
+     * 缓存中有该版本的数据时直接返回，否则调用encoder编码；
+     * 编码完成时版本号仍未变化才放入缓存
+     * @param kind 列表种类
+     * @param id 用户ID或群组ID
+     * @param version 读取列表之前取得的版本号
+     * @param encoder 编码列表的函数
+     * @return 列表数据，调用方不得修改
+     */
+    public byte[] get(ListVersions.Kind kind, String id, long version, Supplier<byte[]> encoder) {
+        return get(kind, id, 0, version, encoder);
+    }
+
+    /**
+     * 获取列表某个变体的数据
+     * @param kind 列表种类
+     * @param id 用户ID或群组ID
+     * @param variant 变体号，小于VARIANTS
+     * @param version 读取列表之前取得的版本号
+     * @param encoder 编码列表的函数
+     * @return 列表数据，调用方不得修改
+     */
+    public byte[] get(ListVersions.Kind kind, String id, int variant, long version, Supplier<byte[]> encoder) {
+        Key key = new Key(kind, id, variant);
+        Segment segment = segmentFor(key);
+        Entry entry = segment.get(key);
+        if (entry != null && entry.version == version) {
+            hits.increment();
+            return entry.payload;
+        }
+        misses.increment();
+        byte[] payload = encoder.get();
+        if (versions.current(kind, id) == version) {
+            segment.put(key, new Entry(version, payload));
+        }
+        return payload;
+    }
+
+    @Override
+    public void listChanged(ListVersions.Kind kind, String key) {
+        Segment segment = segmentFor(new Key(kind, key, 0));
+        for (int variant = 0; variant < VARIANTS; variant++) {
+            segment.remove(new Key(kind, key, variant));
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * 获取缓存数据的总字节数
+     * @return 字节数
+     */
+    public long getBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.bytes();
+        }
+        return total;
+    }
+
+    /**
+     * 获取缓存的项数
+     * @return 项数
+     */
+    public int size() {
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.size();
+        }
+        return total;
+    }
+}
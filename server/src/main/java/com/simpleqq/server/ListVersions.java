@@ -0,0 +1,104 @@
+package com.simpleqq.server;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 列表版本号类
+ * 为每个用户的好友列表、群组列表、待处理请求列表和每个群组的成员列表记录版本号，
+ * 列表内容变化后由修改方递增；客户端请求列表时带上缓存的版本号，与当前版本相同时服务器只回复未修改
+ *
+ * 所有版本号取自同一个递增序列，起点为服务器启动时刻的毫秒数左移20位，
+ * 重启后的版本号大于重启前发出的任何版本号，客户端缓存的旧版本不会被误认为最新
+ * 修改方必须在修改生效之后再递增版本号，读取方在读取列表之前取版本号，
+ * 这样客户端缓存的版本号不会对应比它更旧的内容；版本号递增后依次调用已注册的监听器
+ */
+public class ListVersions {
+    /**
+     * 列表种类
+     */
+    public enum Kind {
+        FRIENDS,   // 用户的好友列表（含好友的在线状态），键为用户ID
+        GROUPS,    // 用户加入的群组列表，键为用户ID
+        PENDING,   // 用户的待处理好友请求和群组邀请，键为用户ID
+        MEMBERS    // 群组成员列表（含成员的在线状态），键为群组ID
+    }
+
+    private final long base = System.currentTimeMillis() << 20;  // 未修改过的列表的版本号
+    private final AtomicLong sequence = new AtomicLong(base);     // 版本号序列
+    private final Map<Kind, Map<String, Long>> versions = new EnumMap<>(Kind.class); // 种类 -> 键 -> 版本号
+    private final LongAdder notModified = new LongAdder();       // 回复未修改的请求数
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>(); // 列表变化监听器
+
+    /**
+     * 列表变化监听器
+     * 在修改列表的线程中同步调用，实现不应阻塞
+     */
+    public interface ChangeListener {
+        /**
+         * 列表内容已变化
+         * @param kind 列表种类
+         * @param key 用户ID或群组ID
+         */
+        void listChanged(Kind kind, String key);
+    }
+
+    public ListVersions() {
+        for (Kind kind : Kind.values()) {
+            versions.put(kind, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * 获取列表的当前版本号
+     * @param kind 列表种类
+     * @param key 用户ID或群组ID
+     * @return 版本号，总是大于0
+     */
+    public long current(Kind kind, String key) {
+        return versions.get(kind).getOrDefault(key, base);
+    }
+
+    /**
+     * 列表内容已变化，递增版本号
+     * @param kind 列表种类
+     * @param key 用户ID或群组ID
+     */
+    public void bump(Kind kind, String key) {
+        versions.get(kind).put(key, sequence.incrementAndGet());
+        for (ChangeListener listener : listeners) {
+            listener.listChanged(kind, key);
+        }
+    }
+
+    /**
+     * 注册列表变化监听器
+     * @param listener 监听器
+     */
+    public void addListener(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 判断客户端缓存的版本是否为最新，是则计入未修改次数
+     * @param cachedVersion 客户端缓存的版本号，0表示没有缓存
+     * @param currentVersion 当前版本号
+     * @return 缓存为最新返回true
+     */
+    public boolean isUpToDate(long cachedVersion, long currentVersion) {
+        if (cachedVersion != currentVersion) {
+            return false;
+        }
+        notModified.increment();
+        return true;
+    }
+
+    public long getNotModifiedCount() {
+        return notModified.sum();
+    }
+}
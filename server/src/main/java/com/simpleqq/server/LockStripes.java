@@ -0,0 +1,66 @@
+package com.simpleqq.server;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分段锁类
+ * 按用户ID、群组ID的哈希值把锁分散到固定数量的段上，涉及不同用户或群组的操作可以并行执行
+ * 需要同时锁住两个ID时按段号从小到大加锁，避免互相等待造成死锁
+ */
+public class LockStripes {
+    private final ReentrantLock[] locks;   // 各段的锁
+    private final int mask;                // 段号掩码（段数为2的幂）
+
+    /**
+     * 构造函数
+     * @param stripes 段数，向上取整为2的幂
+     */
+    public LockStripes(int stripes) {
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    private int indexOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 锁住一个ID所在的段
+     * @param key 用户ID或群组ID
+     */
+    public void lock(String key) {
+        locks[indexOf(key)].lock();
+    }
+
+    public void unlock(String key) {
+        locks[indexOf(key)].unlock();
+    }
+
+    /**
+     * 锁住两个ID所在的段，两个ID落在同一段时只加锁一次
+     * @param key1 第一个ID
+     * @param key2 第二个ID
+     */
+    public void lock(String key1, String key2) {
+        int a = indexOf(key1);
+        int b = indexOf(key2);
+        locks[Math.min(a, b)].lock();
+        if (a != b) {
+            locks[Math.max(a, b)].lock();
+        }
+    }
+
+    public void unlock(String key1, String key2) {
+        int a = indexOf(key1);
+        int b = indexOf(key2);
+        if (a != b) {
+            locks[Math.max(a, b)].unlock();
+        }
+        locks[Math.min(a, b)].unlock();
+    }
+}
@@ -0,0 +1,121 @@
+package com.simpleqq.server;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 以2的幂为桶边界的直方图
+ * 每个桶是一个LongAdder，多线程记录时只做一次位运算和一次无竞争的累加，不分配对象
+ * 延迟类直方图以微秒为单位记录，输出时按unitScale换算为秒
+ */
+public class Log2Histogram {
+    static final int BUCKETS = 32;                 // 桶数量，第i个桶的上界为2^i
+
+    private final LongAdder[] buckets;             // 各桶计数（非累计）
+    private final LongAdder sum;                   // 记录值之和
+    private final double unitScale;                // 输出时的单位换算系数（微秒换算为秒为1e-6）
+
+    /**
+     * 构造函数
+     * @param unitScale 输出时的单位换算系数
+     */
+    public Log2Histogram(double unitScale) {
+        this.unitScale = unitScale;
+        this.buckets = new LongAdder[BUCKETS + 1]; // 最后一个桶存放超出范围的值
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+        this.sum = new LongAdder();
+    }
+
+    /**
+     * 创建以微秒记录、以秒输出的延迟直方图
+     * @return 直方图
+     */
+    public static Log2Histogram latency() {
+        return new Log2Histogram(1e-6);
+    }
+
+    /**
+     * 记录一个值
+     * @param value 值（不小于0）
+     */
+    public void record(long value) {
+        int index = value <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+        buckets[Math.min(index, BUCKETS)].increment();
+        sum.add(value);
+    }
+
+    /**
+     * 记录一段耗时
+     * @param nanos 耗时（纳秒），按微秒记录
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * 清空所有记录
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        sum.reset();
+    }
+
+    /**
+     * 获取记录总数
+     * @return 记录总数
+     */
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * 估算百分位值（取所在桶的上界）
+     * @param percentile 百分位（0~100）
+     * @return 估算值，单位与记录时相同
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return total == 0 ? 0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * 按Prometheus文本格式输出直方图
+     * @param out 输出缓冲区
+     * @param name 指标名称
+     * @param labels 附加标签（如 op="saveUsers"），没有时为空字符串
+     */
+    void writePrometheus(StringBuilder out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                    .append((1L << i) * unitScale).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[BUCKETS].sum();
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String labelBlock = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(labelBlock).append(' ').append(sum.sum() * unitScale).append('\n');
+        out.append(name).append("_count").append(labelBlock).append(' ').append(cumulative).append('\n');
+    }
+}
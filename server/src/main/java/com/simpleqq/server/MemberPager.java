@@ -0,0 +1,90 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.MemberPageRequest;
+import com.simpleqq.common.MemberPageView;
+import com.simpleqq.common.PayloadWriter;
+import com.simpleqq.common.User;
+import com.simpleqq.common.UserListView;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 群成员分页类
+ * 按ID顺序或在线优先顺序选出游标之后的一页成员：只遍历一遍成员列表，
+ * 用大小为每页人数的堆保留排序最靠前的成员，不对整个列表排序，也只查询本页成员的用户信息
+ *
+ * 游标由排序键组成：1位状态（在线优先时在线为0、离线为1，按ID排序时总为0）加上一页最后一个成员的ID；
+ * 翻页期间有成员加入、退出或上下线时，后面的页按新的状态继续，不会返回排在游标之前的成员
+ */
+final class MemberPager {
+    static final int MAX_PAGE_SIZE = 500;   // 每页人数上限
+
+    private MemberPager() {
+    }
+
+    /**
+     * 编码一页群成员
+     * @param members 群成员ID列表的副本
+     * @param presence 在线状态注册表
+     * @param users 用户管理器，用于查询用户名
+     * @param request 分页请求
+     * @return 分页响应数据，格式见MemberPageView
+     */
+    static byte[] encodePage(List<String> members, PresenceRegistry presence, UserManager users,
+                             MemberPageRequest request) {
+        PresenceRegistry.Snapshot snapshot = presence.snapshot(members);
+        int[] ranks = new int[members.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = request.isOnlineFirst() && !snapshot.isOnline(i) ? 1 : 0;
+        }
+        Comparator<Integer> order = (a, b) -> {
+            int cmp = Integer.compare(ranks[a], ranks[b]);
+            return cmp != 0 ? cmp : members.get(a).compareTo(members.get(b));
+        };
+
+        String cursor = request.getCursor();
+        int cursorRank = cursor.isEmpty() ? -1 : cursor.charAt(0) - '0';
+        String cursorId = cursor.isEmpty() ? "" : cursor.substring(1);
+        int limit = Math.max(1, Math.min(request.getLimit(), MAX_PAGE_SIZE));
+        PriorityQueue<Integer> heap = new PriorityQueue<>(limit + 1, order.reversed()); // 堆顶为当前保留的最靠后的成员
+        int remaining = 0;                                                            // 排在游标之后的成员数
+        for (int i = 0; i < ranks.length; i++) {
+            if (cursorRank >= 0) {
+                int cmp = Integer.compare(ranks[i], cursorRank);
+                if (cmp < 0 || (cmp == 0 && members.get(i).compareTo(cursorId) <= 0)) {
+                    continue;
+                }
+            }
+            remaining++;
+            heap.add(i);
+            if (heap.size() > limit) {
+                heap.poll();
+            }
+        }
+
+        int[] page = new int[heap.size()];
+        for (int i = page.length - 1; i >= 0; i--) {
+            page[i] = heap.poll();
+        }
+        PayloadWriter writer = new PayloadWriter(64 + page.length * 24);
+        int mark = writer.beginList();
+        int count = 0;
+        for (int index : page) {
+            User user = users.getUserById(members.get(index));
+            if (user != null) {
+                UserListView.write(writer, user.getId(), user.getUsername(), snapshot.isOnline(index));
+                count++;
+            }
+        }
+        writer.endList(mark, count);
+        String nextCursor = "";
+        if (remaining > page.length) {
+            int last = page[page.length - 1];
+            nextCursor = ranks[last] + members.get(last);
+        }
+        MemberPageView.writeTrailer(writer, nextCursor, ranks.length);
+        return writer.toByteArray();
+    }
+}
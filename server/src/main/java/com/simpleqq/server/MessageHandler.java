@@ -0,0 +1,20 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+
+import java.io.IOException;
+
+/**
+ * 消息处理器接口
+ * 每种消息类型对应一个处理器，在消息路由器中注册
+ */
+@FunctionalInterface
+public interface MessageHandler {
+    /**
+     * 处理一条客户端消息
+     * @param client 收到消息的连接
+     * @param message 客户端消息
+     * @throws IOException 写回客户端失败时抛出
+     */
+    void handle(ClientHandler client, Message message) throws IOException;
+}
@@ -0,0 +1,119 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 消息路由器类
+ * 按消息类型查表分发客户端消息，取代读取线程中的switch语句
+ *
+ * 每个处理器注册时声明是否可能阻塞：
+ * 轻量处理器（只读内存数据）直接在连接的读取线程中执行；
+ * 阻塞处理器（写文件、群组管理、消息扇出等）交给共享的工作线程池执行，读取线程继续读取下一条消息
+ * 同一连接的消息始终按到达顺序处理：连接还有消息在工作线程中排队时，轻量消息也排在它们之后
+ */
+public class MessageRouter {
+    private static final int MAX_PENDING_PER_CONNECTION = 256; // 单个连接排队等待处理的消息数上限
+
+    private final Map<MessageType, Route> routes = new EnumMap<>(MessageType.class); // 消息类型 -> 处理器
+    private final ThreadPoolExecutor workers;                  // 执行阻塞处理器的工作线程池
+
+    /**
+     * 路由表项
+     */
+    private static class Route {
+        final MessageHandler handler;  // 处理器
+        final boolean blocking;        // 是否交给工作线程池执行
+
+        Route(MessageHandler handler, boolean blocking) {
+            this.handler = handler;
+            this.blocking = blocking;
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param workerThreads 工作线程数
+     */
+    public MessageRouter(int workerThreads) {
+        AtomicInteger sequence = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "message-worker-" + sequence.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * 注册轻量处理器，在读取线程中直接执行
+     * @param type 消息类型
+     * @param handler 处理器
+     */
+    public void register(MessageType type, MessageHandler handler) {
+        routes.put(type, new Route(handler, false));
+    }
+
+    /**
+     * 注册可能阻塞的处理器，在工作线程池中执行
+     * @param type 消息类型
+     * @param handler 处理器
+     */
+    public void registerBlocking(MessageType type, MessageHandler handler) {
+        routes.put(type, new Route(handler, true));
+    }
+
+    /**
+     * 为新连接创建顺序执行队列
+     * @return 顺序执行队列
+     */
+    SerialExecutor newConnectionQueue() {
+        return new SerialExecutor(workers, MAX_PENDING_PER_CONNECTION);
+    }
+
+    /**
+     * 分发一条客户端消息
+     * 由连接的读取线程调用
+     * @param client 收到消息的连接
+     * @param queue 该连接的顺序执行队列
+     * @param message 客户端消息
+     * @param firstByteNanos 收到该消息第一个字节的时刻，未记录时为0
+     * @throws InterruptedException 等待队列空位时被中断
+     */
+    void dispatch(ClientHandler client, SerialExecutor queue, Message message, long firstByteNanos) throws InterruptedException {
+        Route route = routes.get(message.getType());
+        if (route == null) {
+            System.out.println("Unknown message type: " + message.getType());
+            return;
+        }
+        Runnable task = () -> client.process(message, route.handler, firstByteNanos);
+        if (route.blocking) {
+            queue.submit(task);
+        } else {
+            queue.executeInline(task);
+        }
+    }
+
+    /**
+     * 获取正在执行处理器的工作线程数
+     * @return 线程数
+     */
+    public int getBusyWorkers() {
+        return workers.getActiveCount();
+    }
+
+    /**
+     * 获取等待空闲工作线程的连接数
+     * @return 连接数
+     */
+    public int getQueuedConnections() {
+        return workers.getQueue().size();
+    }
+}
@@ -0,0 +1,25 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+
+import java.io.IOException;
+
+/**
+ * 消息投递目标接口
+ * 本地连接（ClientHandler）和集群中其他节点上的连接都通过该接口接收消息，
+ * 离线消息投递等逻辑因此不需要关心接收者连接在哪个节点上
+ */
+public interface MessageSink {
+    /**
+     * 投递消息
+     * @param message 要投递的消息
+     * @throws IOException 投递失败时抛出
+     */
+    void sendMessage(Message message) throws IOException;
+
+    /**
+     * 判断投递目标是否已失效
+     * @return 已失效返回true
+     */
+    boolean isClosed();
+}
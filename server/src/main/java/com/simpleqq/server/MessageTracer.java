@@ -0,0 +1,277 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.MessageType;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 消息处理链路追踪类
+ * 按采样率抽取部分消息，用System.nanoTime记录每条消息在各处理阶段的耗时，
+ * 按消息类型和阶段汇总到直方图，并保留最慢的若干条完整记录供排查卡顿
+ *
+ * 追踪状态保存在处理线程自己的Trace对象中（每个线程第一次被采样时创建一次，之后复用），
+ * 关闭采样时各埋点只读取一次volatile变量，不做任何分配
+ */
+public class MessageTracer {
+    /**
+     * 处理阶段
+     * 除SOCKET_WRITE外，各阶段首尾相接，耗时之和等于整条消息的处理时间；
+     * SOCKET_WRITE单独累计消息处理期间所有Socket写入的耗时，与FANOUT、ACK等阶段重叠
+     */
+    public enum Stage {
+        READ,          // 从收到第一个字节到开始处理（含反序列化和在工作线程池中排队）
+        CHECK,         // 权限校验（好友关系、群成员身份）
+        FANOUT,        // 投递给接收者（含转发、离线存储）
+        PERSIST,       // 保存聊天记录
+        ACK,           // 向发送者确认
+        HANDLE,        // 其余处理（非聊天消息的全部处理逻辑）
+        SOCKET_WRITE   // 期间所有Socket写入的累计耗时
+    }
+
+    private static final int DEFAULT_SLOWEST = 20;                 // 默认保留的最慢记录条数
+    private static final Stage[] STAGES = Stage.values();
+
+    private volatile int sampleRate;                                // 采样率：每N条消息采样1条，0表示关闭
+    private final int slowestCapacity;                              // 保留的最慢记录条数
+    private final ThreadLocal<Trace> current = new ThreadLocal<>(); // 各处理线程正在记录的追踪
+    private final Map<MessageType, Log2Histogram[]> stageHistograms; // 各类型各阶段的耗时
+    private final Map<MessageType, Log2Histogram> totalHistograms;   // 各类型的总耗时
+    private final PriorityQueue<TraceRecord> slowest;               // 最慢的记录（堆顶为其中最快的一条）
+
+    /**
+     * 单个处理线程的追踪状态，复用以避免分配
+     */
+    private static class Trace {
+        boolean active;                                  // 当前消息是否被采样
+        MessageType type;                                // 消息类型
+        String senderId;                                 // 发送者ID
+        String receiverId;                               // 接收者ID
+        long startNanos;                                 // 开始时刻（收到第一个字节）
+        long lastNanos;                                  // 上一个阶段结束的时刻
+        final long[] stageNanos = new long[STAGES.length]; // 各阶段耗时
+    }
+
+    /**
+     * 最慢记录的快照
+     */
+    private static class TraceRecord {
+        final long wallClock;          // 记录时间
+        final MessageType type;        // 消息类型
+        final String senderId;         // 发送者ID
+        final String receiverId;       // 接收者ID
+        final long totalNanos;         // 总耗时
+        final long[] stageNanos;       // 各阶段耗时
+
+        TraceRecord(Trace trace, long totalNanos) {
+            this.wallClock = System.currentTimeMillis();
+            this.type = trace.type;
+            this.senderId = trace.senderId;
+            this.receiverId = trace.receiverId;
+            this.totalNanos = totalNanos;
+            this.stageNanos = trace.stageNanos.clone();
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param sampleRate 采样率，每N条消息采样1条，0表示关闭
+     */
+    public MessageTracer(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.slowestCapacity = DEFAULT_SLOWEST;
+        this.stageHistograms = new EnumMap<>(MessageType.class);
+        this.totalHistograms = new EnumMap<>(MessageType.class);
+        for (MessageType type : MessageType.values()) {
+            Log2Histogram[] stages = new Log2Histogram[STAGES.length];
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = Log2Histogram.latency();
+            }
+            stageHistograms.put(type, stages);
+            totalHistograms.put(type, Log2Histogram.latency());
+        }
+        this.slowest = new PriorityQueue<>((a, b) -> Long.compare(a.totalNanos, b.totalNanos));
+    }
+
+    /**
+     * 判断采样是否开启
+     * @return 开启返回true
+     */
+    public boolean isEnabled() {
+        return sampleRate > 0;
+    }
+
+    /**
+     * 设置采样率
+     * @param sampleRate 每N条消息采样1条，0表示关闭
+     */
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(0, sampleRate);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * 开始追踪一条刚读出的消息
+     * 按采样率决定是否记录，读取阶段的耗时从收到第一个字节算起
+     * @param type 消息类型
+     * @param senderId 发送者ID
+     * @param receiverId 接收者ID
+     * @param firstByteNanos 收到该消息第一个字节的时刻，未知时为0
+     * @return 该消息被采样返回true，调用方处理完毕后必须调用finish()
+     */
+    public boolean begin(MessageType type, String senderId, String receiverId, long firstByteNanos) {
+        int rate = sampleRate;
+        if (rate == 0 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) != 0)) {
+            return false;
+        }
+        Trace trace = current.get();
+        if (trace == null) {
+            trace = new Trace();
+            current.set(trace);
+        }
+        long now = System.nanoTime();
+        trace.active = true;
+        trace.type = type;
+        trace.senderId = senderId;
+        trace.receiverId = receiverId;
+        trace.startNanos = firstByteNanos > 0 ? firstByteNanos : now;
+        Arrays.fill(trace.stageNanos, 0);
+        trace.stageNanos[Stage.READ.ordinal()] = now - trace.startNanos;
+        trace.lastNanos = now;
+        return true;
+    }
+
+    /**
+     * 标记一个阶段结束
+     * 当前线程没有正在追踪的消息时直接返回
+     * @param stage 刚结束的阶段
+     */
+    public void mark(Stage stage) {
+        if (sampleRate == 0) {
+            return;
+        }
+        Trace trace = current.get();
+        if (trace != null && trace.active) {
+            long now = System.nanoTime();
+            trace.stageNanos[stage.ordinal()] += now - trace.lastNanos;
+            trace.lastNanos = now;
+        }
+    }
+
+    /**
+     * 累计一段与阶段重叠的耗时（如Socket写入）
+     * @param stage 阶段
+     * @param nanos 耗时（纳秒）
+     */
+    public void addTime(Stage stage, long nanos) {
+        Trace trace = current.get();
+        if (trace != null && trace.active) {
+            trace.stageNanos[stage.ordinal()] += nanos;
+        }
+    }
+
+    /**
+     * 结束当前线程正在追踪的消息
+     * 剩余时间计入HANDLE阶段，汇总到直方图，必要时加入最慢记录
+     */
+    public void finish() {
+        Trace trace = current.get();
+        if (trace == null || !trace.active) {
+            return;
+        }
+        long now = System.nanoTime();
+        trace.stageNanos[Stage.HANDLE.ordinal()] += now - trace.lastNanos;
+        trace.lastNanos = now;
+        trace.active = false;
+        long total = now - trace.startNanos;
+        Log2Histogram[] stages = stageHistograms.get(trace.type);
+        for (int i = 0; i < STAGES.length; i++) {
+            if (trace.stageNanos[i] > 0) {
+                stages[i].recordNanos(trace.stageNanos[i]); // 只统计该消息实际经过的阶段
+            }
+        }
+        totalHistograms.get(trace.type).recordNanos(total);
+        synchronized (slowest) {
+            if (slowest.size() < slowestCapacity) {
+                slowest.add(new TraceRecord(trace, total));
+            } else if (slowest.peek().totalNanos < total) {
+                slowest.poll();
+                slowest.add(new TraceRecord(trace, total));
+            }
+        }
+    }
+
+    /**
+     * 清空已汇总的数据和最慢记录
+     */
+    public void reset() {
+        synchronized (slowest) {
+            slowest.clear();
+        }
+        for (MessageType type : MessageType.values()) {
+            for (Log2Histogram histogram : stageHistograms.get(type)) {
+                histogram.reset();
+            }
+            totalHistograms.get(type).reset();
+        }
+    }
+
+    /**
+     * 输出追踪报告
+     * 包括各消息类型各阶段的耗时百分位（按2的幂取桶上界，单位微秒）和最慢的若干条记录
+     * @return 文本报告
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("Sampling: ").append(sampleRate == 0 ? "off" : "1/" + sampleRate).append('\n').append('\n');
+        out.append(String.format("%-22s %-13s %8s %10s %10s %10s%n", "type", "stage", "count", "p50(us)", "p99(us)", "p99.9(us)"));
+        for (MessageType type : MessageType.values()) {
+            Log2Histogram total = totalHistograms.get(type);
+            if (total.getCount() == 0) {
+                continue;
+            }
+            appendRow(out, type.name(), "TOTAL", total);
+            Log2Histogram[] stages = stageHistograms.get(type);
+            for (Stage stage : STAGES) {
+                appendRow(out, "", stage.name(), stages[stage.ordinal()]);
+            }
+        }
+
+        List<TraceRecord> records;
+        synchronized (slowest) {
+            records = new ArrayList<>(slowest);
+        }
+        records.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS");
+        out.append('\n').append("Slowest ").append(records.size()).append(" traces:").append('\n');
+        for (TraceRecord record : records) {
+            out.append(format.format(new Date(record.wallClock))).append(' ').append(record.type)
+                    .append(' ').append(record.senderId).append(" -> ").append(record.receiverId)
+                    .append(String.format(" total=%.3fms", record.totalNanos / 1e6));
+            for (Stage stage : STAGES) {
+                long nanos = record.stageNanos[stage.ordinal()];
+                if (nanos > 0) {
+                    out.append(String.format(" %s=%.3fms", stage.name().toLowerCase(), nanos / 1e6));
+                }
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void appendRow(StringBuilder out, String type, String stage, Log2Histogram histogram) {
+        out.append(String.format("%-22s %-13s %8d %10d %10d %10d%n", type, stage, histogram.getCount(),
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9)));
+    }
+}
@@ -0,0 +1,664 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 离线消息存储类
+ * 接收者不在线时将消息追加写入本地数据文件，并为每个用户维护收件箱索引
+ * 用户登录后按批次、按固定节奏投递积压消息，避免一次性推送过多消息
+ *
+ * 一条消息（包括群消息）只写一份数据和一行索引，所有接收者的收件箱引用同一个记录对象；
+ * 默认不限制收件箱条数和保留时长，积压再多也按批次全部投递；配置了上限或保留时长时，
+ * 丢弃的消息会打印日志并计入丢弃数
+ * 不再被任何收件箱引用的记录超过数据文件一半时重写数据文件和索引文件：数据文件名带有代号，
+ * 重写时写出下一代数据文件，再原子替换指向新代号的索引文件，任何时刻崩溃都能从索引文件找到对应的数据文件
+ */
+public class OfflineMessageStore {
+    private static final String DATA_FILE = "offline_messages";      // 消息数据文件名前缀（只追加），后接代号
+    private static final String INDEX_FILE = "offline_index";        // 收件箱索引文件名（只追加）
+    private static final int BATCH_SIZE = 50;                         // 每批投递的消息条数
+    private static final long BATCH_INTERVAL_MS = 200;                // 两批之间的间隔（毫秒）
+    private static final int MAX_DRAIN_FAILURES = 5;                  // 连续投递失败超过该次数后放弃，等用户下次登录再投递
+    private static final int MAX_INDEX_LINES = 100000;                // 索引文件超过该行数时重写
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;       // 数据文件小于该大小时不压缩
+    private static final long EXPIRE_CHECK_INTERVAL_MS = 10 * 60 * 1000; // 检查过期消息的间隔（毫秒）
+
+    private final File dataDir;                      // 数据文件所在目录
+    private final String dataFilePrefix;             // 本实例数据文件名的前缀，完整文件名为 前缀.代号.dat
+    private final File indexFileName;                // 本实例使用的索引文件
+    private final int maxPerUser;                    // 每个收件箱最多保留的消息数，超出时丢弃最早的消息；0表示不限制
+    private final long ttlMillis;                    // 离线消息的保留时长（毫秒）；0表示不过期
+    private long generation;                         // 当前数据文件的代号，每次重写数据文件加一
+    private Map<String, Deque<Record>> inboxes;      // 用户收件箱，key为用户ID，value为按保存顺序排列的消息记录
+    private Map<Long, Record> records;               // 仍被收件箱引用的消息记录，key为记录在数据文件中的偏移量
+    private long liveBytes;                          // 仍被引用的记录在数据文件中占用的字节数
+    private long droppedCount;                       // 因超出条数上限或过期而丢弃的消息数（按接收者计）
+    private Map<String, MessageSink> drainTargets;   // 正在投递离线消息的用户及其当前投递目标
+    private RandomAccessFile dataFile;               // 消息数据文件
+    private BufferedWriter indexWriter;              // 索引文件写入器
+    private int indexLines;                          // 索引文件当前行数，用于判断何时压缩
+    private ScheduledExecutorService drainScheduler; // 离线消息投递和过期检查调度器，只负责定时，不执行发送
+    private ExecutorService drainers;                // 执行投递批次的线程池，一个接收者写得慢不会挡住其他接收者
+    private final Log2Histogram storeTimer;          // 保存离线消息的耗时
+
+    /**
+     * 数据文件中的一条消息记录
+     * 群消息的所有接收者共享同一个对象；压缩数据文件时只需修改偏移量，收件箱不用改动
+     */
+    private static class Record {
+        long offset;                                 // 在数据文件中的偏移量，记录已删除时为-1
+        final int length;                            // 记录长度（包括4字节的长度前缀）
+        final long storedAt;                         // 保存时间
+        int refs;                                    // 引用该记录的收件箱数量
+
+        Record(long offset, int length, long storedAt) {
+            this.offset = offset;
+            this.length = length;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * 构造函数
+     * 使用默认文件名
+     */
+    public OfflineMessageStore() {
+        this(new File("."), null, new ServerMetrics());
+    }
+
+    /**
+     * 构造函数
+     * 打开数据文件并从索引文件恢复各用户的收件箱
+     * @param dataDir 数据文件所在目录
+     * @param nodeId 集群节点ID，非空时文件名带上节点ID，便于同一目录下运行多个节点
+     * @param metrics 指标注册表，记录持久化耗时
+     */
+    public OfflineMessageStore(File dataDir, String nodeId, ServerMetrics metrics) {
+        storeTimer = metrics.persistenceTimer("offlineStore");
+        String suffix = nodeId == null ? "" : "_" + nodeId;
+        this.dataDir = dataDir;
+        dataFilePrefix = DATA_FILE + suffix;
+        indexFileName = new File(dataDir, INDEX_FILE + suffix + ".txt");
+        maxPerUser = Integer.getInteger("simpleqq.offline.maxPerUser", 0);
+        ttlMillis = Long.getLong("simpleqq.offline.ttlHours", 0) * 60 * 60 * 1000;
+        inboxes = new HashMap<>();
+        records = new HashMap<>();
+        drainTargets = new HashMap<>();
+        drainScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "offline-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+        AtomicInteger sequence = new AtomicInteger();
+        drainers = Executors.newFixedThreadPool(Integer.getInteger("simpleqq.offline.drainThreads", 4), r -> {
+            Thread t = new Thread(r, "offline-drain-" + sequence.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            loadIndex();
+            dataFile = new RandomAccessFile(dataFileFor(generation), "rw");
+            deleteStaleDataFiles();
+            indexWriter = new BufferedWriter(new FileWriter(indexFileName, true));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (ttlMillis > 0) {
+            drainScheduler.scheduleWithFixedDelay(this::expireOld, EXPIRE_CHECK_INTERVAL_MS, EXPIRE_CHECK_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 获取指定代号的数据文件
+     * @param generation 代号
+     * @return 数据文件
+     */
+    private File dataFileFor(long generation) {
+        return new File(dataDir, dataFilePrefix + "." + generation + ".dat");
+    }
+
+    /**
+     * 删除不是当前代号的数据文件
+     * 重写数据文件的过程中崩溃时，可能留下未被索引文件采用的新数据文件或尚未删除的旧数据文件
+     */
+    private void deleteStaleDataFiles() {
+        File[] files = dataDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        String current = dataFileFor(generation).getName();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(dataFilePrefix + ".") && name.endsWith(".dat") && !name.equals(current)
+                    && name.substring(dataFilePrefix.length() + 1, name.length() - 4).matches("\\d+")) {
+                if (file.delete()) {
+                    System.out.println("Deleted stale offline data file " + name);
+                }
+            }
+        }
+    }
+
+    /**
+     * 从索引文件恢复收件箱
+     * 文件格式：第一行 @|代号 指明对应的数据文件（没有时为0）；
+     * *|偏移量|长度|保存时间|接收者ID1,接收者ID2,... 表示一条消息进入这些接收者的收件箱，
+     * -|用户ID|条数 表示已从该用户收件箱队头移除的条数；用户ID经过URL编码，不会包含分隔符
+     */
+    private void loadIndex() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(indexFileName))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                indexLines++;
+                String[] parts = line.split("\\|");
+                if ("@".equals(parts[0]) && parts.length == 2) {
+                    generation = Long.parseLong(parts[1]);
+                } else if ("*".equals(parts[0]) && parts.length == 5) {
+                    long offset = Long.parseLong(parts[1]);
+                    Record record = new Record(offset, Integer.parseInt(parts[2]), Long.parseLong(parts[3]));
+                    records.put(offset, record);
+                    for (String receiverId : parts[4].split(",")) {
+                        inboxes.computeIfAbsent(decodeId(receiverId), k -> new ArrayDeque<>()).add(record);
+                        record.refs++;
+                    }
+                } else if ("-".equals(parts[0]) && parts.length == 3) {
+                    String userId = decodeId(parts[1]);
+                    Deque<Record> inbox = inboxes.get(userId);
+                    int count = Integer.parseInt(parts[2]);
+                    for (int i = 0; i < count && inbox != null && !inbox.isEmpty(); i++) {
+                        release(inbox.poll());
+                    }
+                    if (inbox != null && inbox.isEmpty()) {
+                        inboxes.remove(userId);
+                    }
+                }
+            }
+            records.values().removeIf(record -> record.refs <= 0);
+            liveBytes = 0; // 重放移除记录时已减去的字节数不算数，按剩余记录重新统计
+            for (Record record : records.values()) {
+                liveBytes += record.length;
+            }
+            System.out.println("Loaded offline inboxes for " + inboxes.size() + " users.");
+        } catch (FileNotFoundException e) {
+            System.out.println("Offline index file not found. Creating a new one.");
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 编码写入索引文件的用户ID
+     * 用户ID由客户端注册时填写，可能包含索引文件的分隔符 | 和 ,
+     * @param userId 用户ID
+     * @return 编码后的用户ID
+     */
+    private static String encodeId(String userId) {
+        return URLEncoder.encode(userId, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 解码索引文件中的用户ID
+     * @param encoded 编码后的用户ID
+     * @return 用户ID
+     */
+    private static String decodeId(String encoded) {
+        return URLDecoder.decode(encoded, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 保存离线消息
+     * 消息只写入数据文件一次，索引文件中也只追加一行，所有接收者的收件箱共享同一个记录
+     * @param message 要保存的消息
+     * @param receiverIds 离线接收者ID集合
+     */
+    public synchronized void store(Message message, Collection<String> receiverIds) {
+        if (receiverIds.isEmpty() || dataFile == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(message);
+            }
+            long offset = dataFile.length();
+            dataFile.seek(offset);
+            dataFile.writeInt(bytes.size());
+            dataFile.write(bytes.toByteArray());
+
+            Record record = new Record(offset, 4 + bytes.size(), System.currentTimeMillis());
+            records.put(offset, record);
+            liveBytes += record.length;
+            StringBuilder line = new StringBuilder(32 + receiverIds.size() * 8);
+            line.append("*|").append(offset).append('|').append(record.length).append('|').append(record.storedAt).append('|');
+            List<String> overflowing = new ArrayList<>();
+            for (String receiverId : receiverIds) {
+                Deque<Record> inbox = inboxes.computeIfAbsent(receiverId, k -> new ArrayDeque<>());
+                inbox.add(record);
+                record.refs++;
+                if (maxPerUser > 0 && inbox.size() > maxPerUser) {
+                    overflowing.add(receiverId);
+                }
+                if (record.refs > 1) {
+                    line.append(',');
+                }
+                line.append(encodeId(receiverId));
+            }
+            indexWriter.write(line.toString());
+            indexWriter.newLine();
+            indexLines++;
+            // 超出配置的条数上限的收件箱丢弃最早的消息
+            for (String receiverId : overflowing) {
+                Deque<Record> inbox = inboxes.get(receiverId);
+                int excess = inbox.size() - maxPerUser;
+                for (int i = 0; i < excess; i++) {
+                    release(inbox.poll());
+                }
+                droppedCount += excess;
+                writeRemoved(receiverId, excess);
+                System.err.println("Offline inbox of " + receiverId + " exceeds " + maxPerUser
+                        + " messages. Dropped " + excess + " oldest message(s).");
+            }
+            indexWriter.flush();
+            if (!overflowing.isEmpty()) {
+                maybeCompact();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to store offline message: " + e.getMessage());
+        }
+        storeTimer.recordNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * 保存发给单个用户的离线消息
+     * @param message 要保存的消息
+     * @param receiverId 离线接收者ID
+     */
+    public void store(Message message, String receiverId) {
+        store(message, List.of(receiverId));
+    }
+
+    /**
+     * 获取用户待投递的离线消息数量
+     * @param userId 用户ID
+     * @return 待投递消息数量
+     */
+    public synchronized int getPendingCount(String userId) {
+        Deque<Record> inbox = inboxes.get(userId);
+        return inbox == null ? 0 : inbox.size();
+    }
+
+    /**
+     * 获取所有用户待投递的离线消息总数
+     * @return 待投递消息总数
+     */
+    public synchronized int getTotalPendingCount() {
+        int total = 0;
+        for (Deque<Record> inbox : inboxes.values()) {
+            total += inbox.size();
+        }
+        return total;
+    }
+
+    /**
+     * 获取因超出条数上限或过期而丢弃的离线消息数（按接收者计）
+     * @return 丢弃的消息数
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * 获取数据文件中仍待投递的消息占用的字节数
+     * @return 字节数
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * 获取正在进行的离线消息投递数量
+     * @return 正在投递的用户数
+     */
+    public synchronized int getActiveDrainCount() {
+        return drainTargets.size();
+    }
+
+    /**
+     * 开始向刚登录的用户投递离线消息
+     * 每隔固定间隔投递一批，直到收件箱清空或用户再次离线
+     * 如果投递已在进行中（例如会话恢复后），只需切换到新的投递目标
+     * @param userId 用户ID
+     * @param handler 投递目标（本节点的客户端处理器，或集群模式下用户所在的远程节点）
+     */
+    public void startDrain(String userId, MessageSink handler) {
+        synchronized (this) {
+            if (!inboxes.containsKey(userId)) {
+                return; // 没有离线消息
+            }
+            if (drainTargets.put(userId, handler) != null) {
+                return; // 已经在投递中，后续批次会发送到新的处理器
+            }
+        }
+        System.out.println("Delivering " + getPendingCount(userId) + " offline messages to " + userId);
+        drainers.execute(() -> drainBatch(userId, 0));
+    }
+
+    /**
+     * 投递一批离线消息
+     * 在投递线程池中执行；发送可能阻塞在接收者的连接上，期间不持有本对象的锁
+     * 只有发送成功的消息才会从收件箱中移除；发送失败时按指数退避重试，
+     * 连续失败超过上限后停止投递，剩余消息等用户下次登录再投递
+     * @param userId 用户ID
+     * @param failures 此前连续失败的次数
+     */
+    private void drainBatch(String userId, int failures) {
+        MessageSink handler;
+        synchronized (this) {
+            handler = drainTargets.get(userId);
+        }
+        List<Record> batch = peekBatch(userId);
+        int delivered = 0;
+        try {
+            for (Record record : batch) {
+                if (handler == null || handler.isClosed()) {
+                    break; // 用户已离线，剩余消息等下次登录再投递
+                }
+                Message message = readMessage(record);
+                if (message != null) {
+                    handler.sendMessage(message);
+                }
+                delivered++;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to deliver offline messages to " + userId + ": " + e.getMessage());
+        }
+
+        int nextFailures = delivered == batch.size() ? 0 : failures + 1;
+        boolean more;
+        synchronized (this) {
+            consume(userId, batch.subList(0, delivered));
+            MessageSink current = drainTargets.get(userId);
+            more = inboxes.containsKey(userId) && current != null && !current.isClosed()
+                    && nextFailures <= MAX_DRAIN_FAILURES;
+            if (!more) {
+                drainTargets.remove(userId);
+            }
+        }
+        if (more) {
+            long delay = BATCH_INTERVAL_MS << nextFailures; // 失败后等待时间逐次加倍
+            drainScheduler.schedule(() -> drainers.execute(() -> drainBatch(userId, nextFailures)), delay, TimeUnit.MILLISECONDS);
+        } else if (nextFailures > MAX_DRAIN_FAILURES) {
+            System.err.println("Giving up delivering offline messages to " + userId + " after " + nextFailures + " failed attempts.");
+        }
+    }
+
+    /**
+     * 取出用户收件箱队头的一批记录（不移除）
+     * @param userId 用户ID
+     * @return 记录列表
+     */
+    private synchronized List<Record> peekBatch(String userId) {
+        List<Record> batch = new ArrayList<>(BATCH_SIZE);
+        Deque<Record> inbox = inboxes.get(userId);
+        if (inbox != null) {
+            Iterator<Record> it = inbox.iterator();
+            while (it.hasNext() && batch.size() < BATCH_SIZE) {
+                batch.add(it.next());
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * 从数据文件读取一条消息记录
+     * 与压缩数据文件互斥，读取时偏移量总是有效的
+     * @param record 消息记录
+     * @return 消息对象，记录已被删除或读取失败返回null
+     */
+    private synchronized Message readMessage(Record record) throws IOException {
+        if (record.offset < 0) {
+            return null; // 取出这一批之后已过期或被丢弃
+        }
+        dataFile.seek(record.offset);
+        byte[] bytes = new byte[dataFile.readInt()];
+        dataFile.readFully(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Message) in.readObject();
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 从收件箱队头移除已投递的消息并记录到索引文件
+     * 取出这一批之后队头的消息可能已因过期或超出上限被移除，因此按记录逐个比对，只移除仍在队头的记录
+     * 调用时必须持有本对象的锁
+     * @param userId 用户ID
+     * @param delivered 已投递的记录，按收件箱中的顺序排列
+     */
+    private void consume(String userId, List<Record> delivered) {
+        Deque<Record> inbox = inboxes.get(userId);
+        if (inbox == null || delivered.isEmpty()) {
+            return;
+        }
+        int count = 0;
+        for (Record record : delivered) {
+            if (inbox.peek() == record) {
+                release(inbox.poll());
+                count++;
+            }
+        }
+        if (inbox.isEmpty()) {
+            inboxes.remove(userId);
+        }
+        try {
+            writeRemoved(userId, count);
+            indexWriter.flush();
+            maybeCompact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 删除所有收件箱中超过保留时长的消息
+     * 收件箱按保存顺序排列，只需从队头检查
+     */
+    private synchronized void expireOld() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        try {
+            Iterator<Map.Entry<String, Deque<Record>>> it = inboxes.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Deque<Record>> entry = it.next();
+                Deque<Record> inbox = entry.getValue();
+                int expired = 0;
+                while (!inbox.isEmpty() && inbox.peek().storedAt < cutoff) {
+                    release(inbox.poll());
+                    expired++;
+                }
+                if (expired > 0) {
+                    droppedCount += expired;
+                    writeRemoved(entry.getKey(), expired);
+                    System.err.println("Expired " + expired + " offline message(s) of " + entry.getKey()
+                            + " older than " + ttlMillis / (60 * 60 * 1000) + " hours.");
+                }
+                if (inbox.isEmpty()) {
+                    it.remove();
+                }
+            }
+            indexWriter.flush();
+            maybeCompact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 减少记录的引用计数，不再被引用时标记为已删除
+     * @param record 消息记录
+     */
+    private void release(Record record) {
+        if (--record.refs <= 0 && records.remove(record.offset) != null) {
+            liveBytes -= record.length;
+            record.offset = -1;
+        }
+    }
+
+    /**
+     * 在索引文件中追加一行移除记录（不刷新）
+     * @param userId 用户ID
+     * @param count 从收件箱队头移除的条数
+     */
+    private void writeRemoved(String userId, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        indexWriter.write("-|" + encodeId(userId) + "|" + count);
+        indexWriter.newLine();
+        indexLines++;
+    }
+
+    /**
+     * 按需压缩存储文件
+     * 没有任何待投递消息时先清空索引文件再清空数据文件；已删除的记录超过数据文件一半时重写数据文件；
+     * 索引文件行数过多时只重写索引文件
+     */
+    private void maybeCompact() throws IOException {
+        if (records.isEmpty()) {
+            if (indexLines > 1) {
+                rewriteIndex(generation); // 索引文件先不再引用任何记录，之后崩溃也不会指向已清空的数据
+                dataFile.setLength(0);
+                System.out.println("All offline inboxes drained. Compacted offline store.");
+            }
+            return;
+        }
+        long length = dataFile.length();
+        if (length >= MIN_COMPACT_BYTES && liveBytes * 2 < length) {
+            compactData();
+        } else if (indexLines > MAX_INDEX_LINES) {
+            rewriteIndex(generation);
+        }
+    }
+
+    /**
+     * 重写数据文件，只保留仍被引用的记录
+     * 依次写出并同步下一代数据文件、原子替换指向新代号的索引文件、删除旧数据文件；
+     * 替换索引文件是提交点，之前崩溃时重启仍使用旧数据文件，之后崩溃时使用新数据文件，残留的另一代文件在启动时删除
+     */
+    private void compactData() throws IOException {
+        long before = dataFile.length();
+        List<Record> live = new ArrayList<>(records.values());
+        live.sort((a, b) -> Long.compare(a.offset, b.offset));
+        long nextGeneration = generation + 1;
+        File next = dataFileFor(nextGeneration);
+        long[] oldOffsets = new long[live.size()];
+        long[] newOffsets = new long[live.size()];
+        try (RandomAccessFile out = new RandomAccessFile(next, "rw")) {
+            out.setLength(0);
+            long position = 0;
+            byte[] buffer = new byte[0];
+            for (int i = 0; i < live.size(); i++) {
+                Record record = live.get(i);
+                if (buffer.length < record.length) {
+                    buffer = new byte[record.length];
+                }
+                dataFile.seek(record.offset);
+                dataFile.readFully(buffer, 0, record.length);
+                out.write(buffer, 0, record.length);
+                oldOffsets[i] = record.offset;
+                newOffsets[i] = position;
+                position += record.length;
+            }
+            out.getFD().sync();
+        }
+        for (int i = 0; i < live.size(); i++) {
+            live.get(i).offset = newOffsets[i];
+        }
+        try {
+            rewriteIndex(nextGeneration);
+        } catch (IOException e) {
+            // 索引文件没有替换，继续使用旧数据文件
+            for (int i = 0; i < live.size(); i++) {
+                live.get(i).offset = oldOffsets[i];
+            }
+            next.delete();
+            throw e;
+        }
+        File previous = dataFileFor(generation);
+        dataFile.close();
+        dataFile = new RandomAccessFile(next, "rw");
+        generation = nextGeneration;
+        records.clear();
+        for (Record record : live) {
+            records.put(record.offset, record);
+        }
+        if (!previous.delete()) {
+            System.err.println("Failed to delete old offline data file " + previous.getName());
+        }
+        System.out.println("Compacted offline store from " + before + " to " + dataFile.length() + " bytes.");
+    }
+
+    /**
+     * 重写索引文件
+     * 第一行写明数据文件代号，之后每条仍待投递的消息写一行，丢弃已投递的历史记录；
+     * 按偏移量顺序写出，重新加载后各收件箱的顺序不变
+     * 先写出并同步临时文件再原子替换，替换失败时继续追加到原索引文件
+     * @param dataGeneration 索引文件对应的数据文件代号
+     */
+    private void rewriteIndex(long dataGeneration) throws IOException {
+        Map<Record, List<String>> receivers = new IdentityHashMap<>();
+        for (Map.Entry<String, Deque<Record>> entry : inboxes.entrySet()) {
+            for (Record record : entry.getValue()) {
+                receivers.computeIfAbsent(record, k -> new ArrayList<>()).add(encodeId(entry.getKey()));
+            }
+        }
+        List<Record> live = new ArrayList<>(receivers.keySet());
+        live.sort((a, b) -> Long.compare(a.offset, b.offset));
+        File tmp = new File(indexFileName.getPath() + ".tmp");
+        int lines = 0;
+        try (FileOutputStream file = new FileOutputStream(tmp, false);
+             BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(file))) {
+            writer.write("@|" + dataGeneration);
+            writer.newLine();
+            lines++;
+            for (Record record : live) {
+                writer.write("*|" + record.offset + "|" + record.length + "|" + record.storedAt + "|"
+                        + String.join(",", receivers.get(record)));
+                writer.newLine();
+                lines++;
+            }
+            writer.flush();
+            file.getFD().sync();
+        }
+        indexWriter.close();
+        try {
+            Files.move(tmp.toPath(), indexFileName.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            indexLines = lines;
+        } finally {
+            indexWriter = new BufferedWriter(new FileWriter(indexFileName, true));
+        }
+    }
+}
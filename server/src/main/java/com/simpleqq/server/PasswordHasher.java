@@ -0,0 +1,118 @@
+package com.simpleqq.server;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * 密码散列类
+ * 使用JDK自带的PBKDF2WithHmacSHA256，每个密码使用随机盐值
+ * 存储格式：pbkdf2$迭代次数$盐值(Base64)$散列值(Base64)，不含用户文件的分隔符 |
+ * 不带该前缀的旧数据视为明文密码，由调用方在加载时改写为散列值
+ */
+public class PasswordHasher {
+    public static final int DEFAULT_ITERATIONS = 210000;  // 默认迭代次数
+    private static final String PREFIX = "pbkdf2$";        // 散列值前缀
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256"; // 密钥派生算法
+    private static final int SALT_BYTES = 16;             // 盐值长度
+    private static final int HASH_BITS = 256;             // 散列值长度
+
+    private final int iterations;                         // 新散列值使用的迭代次数
+    private final SecureRandom random = new SecureRandom(); // 盐值生成器
+    private final String dummyHash;                       // 用户不存在时用于校验的散列值，使耗时与真实校验一致
+
+    /**
+     * 构造函数
+     * 迭代次数可通过系统属性 simpleqq.password.iterations 调整
+     */
+    public PasswordHasher() {
+        this(Integer.getInteger("simpleqq.password.iterations", DEFAULT_ITERATIONS));
+    }
+
+    /**
+     * 构造函数
+     * @param iterations 迭代次数
+     */
+    public PasswordHasher(int iterations) {
+        this.iterations = Math.max(1, iterations);
+        this.dummyHash = hash("");
+    }
+
+    /**
+     * 生成密码的散列值
+     * @param password 明文密码
+     * @return 存储格式的散列值
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * 校验密码
+     * @param password 明文密码
+     * @param stored 存储的散列值或旧的明文密码
+     * @return 匹配返回true
+     */
+    public boolean verify(String password, String stored) {
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] expected = decoder.decode(parts[3]);
+            byte[] actual = derive(password, decoder.decode(parts[2]), Integer.parseInt(parts[1]));
+            return MessageDigest.isEqual(expected, actual);
+        } catch (IllegalArgumentException e) {
+            return false; // 数据文件中的散列值已损坏
+        }
+    }
+
+    /**
+     * 对不存在的用户做一次同样耗时的校验，避免通过响应时间判断用户ID是否存在
+     * @param password 明文密码
+     */
+    public void verifyDummy(String password) {
+        verify(password, dummyHash);
+    }
+
+    /**
+     * 判断存储的密码是否需要重新散列（旧的明文密码，或迭代次数与当前配置不同）
+     * @param stored 存储的散列值或旧的明文密码
+     * @return 需要重新散列返回true
+     */
+    public boolean needsRehash(String stored) {
+        return !isHashed(stored) || !stored.startsWith(PREFIX + iterations + "$");
+    }
+
+    /**
+     * 判断存储的值是否为散列值
+     * @param stored 存储的散列值或旧的明文密码
+     * @return 散列值返回true，旧的明文密码返回false
+     */
+    public static boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
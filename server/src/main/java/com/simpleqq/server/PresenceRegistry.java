@@ -0,0 +1,207 @@
+package com.simpleqq.server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在线状态注册表类
+ * 记录本节点上每个在线用户对应的连接，上线、下线不加锁，只对单个用户的映射做原子更新
+ *
+ * 每次上线、下线前后分别递增开始计数和完成计数，批量读取时据此判断读取期间是否有状态变化，
+ * 得到与某个版本号对应的一致快照；状态变化后依次调用已注册的监听器
+ */
+public class PresenceRegistry {
+    private static final int MAX_SNAPSHOT_RETRIES = 8;   // 快照读取期间状态一直在变化时的最大重试次数
+
+    private final Map<String, ClientHandler> clients = new ConcurrentHashMap<>();  // 在线用户ID -> 连接
+    private final Map<String, ClientHandler> readOnlyView = Collections.unmodifiableMap(clients); // 只读视图
+    private final AtomicLong started = new AtomicLong();    // 已开始的状态变化次数
+    private final AtomicLong completed = new AtomicLong();  // 已完成的状态变化次数，即当前版本号
+    private final List<PresenceListener> listeners = new CopyOnWriteArrayList<>(); // 状态变化监听器
+
+    /**
+     * 在线状态变化监听器
+     * 在发生变化的线程中同步调用，实现不应阻塞；需要写网络的处理应交给其他线程
+     */
+    public interface PresenceListener {
+        /**
+         * 用户上线或下线
+         * @param userId 用户ID
+         * @param online true表示上线，false表示下线
+         * @param version 变化完成后的版本号
+         */
+        void presenceChanged(String userId, boolean online, long version);
+    }
+
+    /**
+     * 一组用户在某个版本上的在线状态
+     */
+    public static class Snapshot {
+        private final long version;       // 版本号
+        private final boolean consistent; // 读取期间是否没有任何状态变化
+        private final boolean[] online;   // 与请求的用户ID列表一一对应的在线状态
+
+        Snapshot(long version, boolean consistent, boolean[] online) {
+            this.version = version;
+            this.consistent = consistent;
+            this.online = online;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * 判断快照是否一致
+         * 状态持续变化、重试次数用尽时返回false，此时各用户的状态分别是读取时刻的最新值
+         * @return 一致返回true
+         */
+        public boolean isConsistent() {
+            return consistent;
+        }
+
+        /**
+         * 获取第index个用户的在线状态
+         * @param index 用户在请求列表中的下标
+         * @return 在线返回true
+         */
+        public boolean isOnline(int index) {
+            return online[index];
+        }
+    }
+
+    /**
+     * 注册状态变化监听器
+     * @param listener 监听器
+     */
+    public void addListener(PresenceListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 用户上线
+     * 用户已有登记的连接时只替换连接，不视为状态变化
+     * @param userId 用户ID
+     * @param handler 客户端处理器
+     * @return 用户原本不在线返回true
+     */
+    public boolean online(String userId, ClientHandler handler) {
+        started.incrementAndGet();
+        ClientHandler previous;
+        long version;
+        try {
+            previous = clients.put(userId, handler);
+        } finally {
+            version = completed.incrementAndGet();
+        }
+        if (previous != null) {
+            return false;
+        }
+        fire(userId, true, version);
+        return true;
+    }
+
+    /**
+     * 用户下线
+     * 只有登记的仍是该连接时才会移除，避免误删同一用户的新连接
+     * @param userId 用户ID
+     * @param handler 断开连接的客户端处理器
+     * @return 确实移除返回true
+     */
+    public boolean offline(String userId, ClientHandler handler) {
+        started.incrementAndGet();
+        boolean removed;
+        long version;
+        try {
+            removed = clients.remove(userId, handler);
+        } finally {
+            version = completed.incrementAndGet();
+        }
+        if (removed) {
+            fire(userId, false, version);
+        }
+        return removed;
+    }
+
+    /**
+     * 替换用户的连接
+     * 会话恢复时调用，用户保持在线，不视为状态变化
+     * @param userId 用户ID
+     * @param previous 原客户端处理器
+     * @param handler 新客户端处理器
+     * @return 原连接仍在登记中并已替换返回true
+     */
+    public boolean replace(String userId, ClientHandler previous, ClientHandler handler) {
+        return clients.replace(userId, previous, handler);
+    }
+
+    private void fire(String userId, boolean online, long version) {
+        for (PresenceListener listener : listeners) {
+            try {
+                listener.presenceChanged(userId, online, version);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 获取用户的连接
+     * @param userId 用户ID
+     * @return 客户端处理器，不在线返回null
+     */
+    public ClientHandler get(String userId) {
+        return clients.get(userId);
+    }
+
+    public boolean isOnline(String userId) {
+        return clients.containsKey(userId);
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    /**
+     * 获取当前版本号
+     * 每次上线、下线后递增
+     * @return 版本号
+     */
+    public long getVersion() {
+        return completed.get();
+    }
+
+    /**
+     * 获取在线用户映射表的只读视图
+     * @return 用户ID -> 连接
+     */
+    public Map<String, ClientHandler> asMap() {
+        return readOnlyView;
+    }
+
+    /**
+     * 读取一组用户的在线状态
+     * 读取前后没有状态变化在进行或发生时，结果就是该版本上的一致状态；否则重试
+     * @param userIds 用户ID列表
+     * @return 在线状态快照，下标与userIds一致
+     */
+    public Snapshot snapshot(List<String> userIds) {
+        boolean[] online = new boolean[userIds.size()];
+        for (int attempt = 1; ; attempt++) {
+            long before = started.get();
+            long version = completed.get();
+            for (int i = 0; i < online.length; i++) {
+                online[i] = clients.containsKey(userIds.get(i));
+            }
+            boolean consistent = before == version && started.get() == before;
+            if (consistent || attempt >= MAX_SNAPSHOT_RETRIES) {
+                return new Snapshot(version, consistent, online);
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.simpleqq.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * 单连接的顺序执行队列
+ * 同一连接的任务按提交顺序依次执行，不同连接的任务在共享的工作线程池中并行执行
+ * 入站队列只有该连接的读取线程提交任务；排队任务过多时读取线程阻塞，压力经由TCP传回客户端；
+ * 出站队列用trySubmit提交，队列已满时由提交方另行处理，不阻塞提交线程
+ *
+ * 任务可以挂起队列，把耗时的工作交给其他线程池，完成后恢复队列并指定接下来执行的任务，
+ * 挂起期间该连接后续的消息继续排队，但不占用工作线程
+ */
+class SerialExecutor {
+    private final Executor pool;                           // 共享的工作线程池
+    private final int maxPending;                          // 排队任务数上限
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>(); // 等待执行的任务
+    private boolean active;                                // 是否有线程正在执行本队列的任务
+    private boolean suspended;                             // 是否已被挂起
+
+    /**
+     * 构造函数
+     * @param pool 共享的工作线程池
+     * @param maxPending 排队任务数上限
+     */
+    SerialExecutor(Executor pool, int maxPending) {
+        this.pool = pool;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * 在工作线程池中执行任务
+     * 保证在此之前提交的任务都已执行完毕
+     * @param task 任务
+     * @throws InterruptedException 等待队列空位时被中断
+     */
+    synchronized void submit(Runnable task) throws InterruptedException {
+        while (tasks.size() >= maxPending) {
+            wait();
+        }
+        enqueue(task);
+    }
+
+    /**
+     * 在工作线程池中执行任务，队列已满时不等待
+     * @param task 任务
+     * @return 已排队返回true，队列已满返回false
+     */
+    synchronized boolean trySubmit(Runnable task) {
+        if (tasks.size() >= maxPending) {
+            return false;
+        }
+        enqueue(task);
+        return true;
+    }
+
+    /**
+     * 把任务加入队列，必要时安排工作线程
+     * 调用时必须持有本对象的锁
+     */
+    private void enqueue(Runnable task) {
+        tasks.add(task);
+        if (!active && !suspended) {
+            active = true;
+            pool.execute(this::drain);
+        }
+    }
+
+    /**
+     * 队列空闲时直接在调用线程中执行任务，否则排在已提交的任务之后
+     * @param task 任务
+     * @throws InterruptedException 等待队列空位时被中断
+     */
+    void executeInline(Runnable task) throws InterruptedException {
+        synchronized (this) {
+            if (active || suspended || !tasks.isEmpty()) {
+                submit(task);
+                return;
+            }
+            active = true;
+        }
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        synchronized (this) {
+            active = false;
+            scheduleIfRunnable();
+        }
+    }
+
+    /**
+     * 挂起队列
+     * 只能在本队列正在执行的任务中调用；当前任务返回后不再执行后续任务，直到调用resume
+     */
+    synchronized void suspend() {
+        suspended = true;
+    }
+
+    /**
+     * 恢复被挂起的队列
+     * 可以在任意线程中调用
+     * @param continuation 恢复后首先执行的任务，可为null
+     */
+    synchronized void resume(Runnable continuation) {
+        suspended = false;
+        if (continuation != null) {
+            tasks.addFirst(continuation);
+        }
+        scheduleIfRunnable();
+    }
+
+    /**
+     * 等待已提交的任务全部执行完毕（包括挂起中的任务）
+     * 连接断开后读取线程在清理会话之前调用
+     * @throws InterruptedException 等待时被中断
+     */
+    synchronized void awaitIdle() throws InterruptedException {
+        while (active || suspended || !tasks.isEmpty()) {
+            wait();
+        }
+    }
+
+    /**
+     * 没有线程在执行且未被挂起时，安排工作线程执行排队的任务
+     * 调用时必须持有本对象的锁
+     */
+    private void scheduleIfRunnable() {
+        if (!active && !suspended && !tasks.isEmpty()) {
+            active = true;
+            pool.execute(this::drain);
+        }
+        notifyAll();
+    }
+
+    /**
+     * 在工作线程中依次执行排队的任务
+     */
+    private void drain() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                task = suspended ? null : tasks.poll();
+                if (task == null) {
+                    active = false;
+                    notifyAll();
+                    return;
+                }
+                notifyAll(); // 唤醒等待队列空位的读取线程
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -5,14 +5,24 @@ import com.simpleqq.common.MessageType;
 import com.simpleqq.common.User;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 服务器主类
@@ -20,20 +30,193 @@ import java.util.concurrent.ConcurrentHashMap;
  * 使用多线程处理多个客户端的并发连接
  */
 public class Server {
-    private static final int PORT = 8888;                              // 服务器监听端口
+    private static final int DEFAULT_PORT = 8888;                      // 默认服务器监听端口
+    private static final String[] SEED_FILES = {                       // 集群节点首次启动时从当前目录复制的数据文件
+            "users.txt", "friendships.txt", "friend_requests.txt", "groups.txt", "group_invites.txt"};
+    private static final int METRICS_PORT_OFFSET = 1000;               // 指标端点默认端口 = 服务器端口 + 该偏移
+    private final int port;                                            // 服务器监听端口
+    private final File dataDir;                                        // 数据文件所在目录
     private UserManager userManager;                                   // 用户管理器，处理用户相关操作
     private GroupManager groupManager;                                 // 群组管理器，处理群组相关操作
-    private Map<String, ClientHandler> onlineClients;                 // 在线客户端映射表，key为用户ID
+    private OfflineMessageStore offlineMessageStore;                   // 离线消息存储，保存发给离线用户的消息
+    private SessionManager sessionManager;                             // 会话管理器，支持断线重连后恢复会话
+    private ConnectionReaper connectionReaper;                         // 空闲连接清理器，基于心跳检测失效连接
+    private ClusterNode clusterNode;                                   // 集群节点，单机模式下为null
+    private final ServerMetrics metrics;                               // 指标注册表
+    private final int metricsPort;                                     // 指标HTTP端点端口，0表示不启动
+    private final Log2Histogram saveChatTimer;                         // 保存聊天记录的耗时
+    private final MessageTracer tracer;                                // 消息处理链路追踪，默认关闭
+    private final MessageRouter router;                                // 客户端消息路由器
+    private final CredentialVerifier credentialVerifier;               // 登录、注册时计算密码散列的专用线程池
+    private final AdmissionController admissionController;             // 新连接的准入控制
+    private final FloodGuard floodGuard;                               // 聊天消息按用户、群组限流
+    private final ListVersions listVersions;                           // 好友、群组、请求、群成员列表的版本号
+    private final ListPayloadCache listPayloadCache;                   // 编码好的列表数据缓存
+    private final FanoutEngine fanoutEngine;                           // 群消息扇出引擎，大群经由各接收者的出站队列并行发送
+    private final PresenceRegistry presence;                           // 在线状态注册表，记录在线用户及其连接
+    private final ExecutorService presenceNotifier;                    // 向好友推送上下线通知的线程
+    private final ExecutorService clusterNotifier;                     // 向其他集群节点广播上下线的线程
     private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss"); // 日期格式化器
 
     /**
      * 构造函数
-     * 初始化服务器组件和数据结构
+     * 使用默认端口初始化服务器
      */
     public Server() {
-        userManager = new UserManager();
-        groupManager = new GroupManager();
-        onlineClients = new ConcurrentHashMap<>(); // 使用线程安全的Map
+        this(DEFAULT_PORT, null);
+    }
+
+    /**
+     * 构造函数
+     * 初始化服务器组件和数据结构
+     * 单机模式使用当前目录；集群模式下每个节点使用自己的数据目录，避免多个节点互相覆盖数据文件
+     * @param port 服务器监听端口
+     * @param nodeId 集群节点ID，单机模式为null
+     */
+    public Server(int port, String nodeId) {
+        this(port, nodeId, nodeId == null ? new File(".") : nodeDataDir(nodeId));
+    }
+
+    /**
+     * 获取集群节点的数据目录
+     * 默认为当前目录下的 node_[节点ID]，可通过 simpleqq.dataDir 系统属性指定；
+     * 目录中还没有用户、好友和群组数据时从当前目录复制一份作为初始数据，之后由集群节点在各节点之间复制修改
+     * @param nodeId 集群节点ID
+     * @return 数据目录
+     */
+    private static File nodeDataDir(String nodeId) {
+        File dir = new File(System.getProperty("simpleqq.dataDir", "node_" + nodeId));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Cannot create data directory " + dir.getAbsolutePath());
+        }
+        for (String name : SEED_FILES) {
+            File source = new File(name);
+            File target = new File(dir, name);
+            if (source.isFile() && !target.exists()) {
+                try {
+                    Files.copy(source.toPath(), target.toPath());
+                } catch (IOException e) {
+                    System.err.println("Failed to copy " + name + " into " + dir + ": " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("Node " + nodeId + " uses data directory " + dir.getAbsolutePath());
+        return dir;
+    }
+
+    /**
+     * 构造函数
+     * 初始化服务器组件和数据结构
+     * @param port 服务器监听端口
+     * @param nodeId 集群节点ID，单机模式为null
+     * @param dataDir 数据文件所在目录
+     */
+    public Server(int port, String nodeId, File dataDir) {
+        this.port = port;
+        this.dataDir = dataDir;
+        this.metrics = new ServerMetrics();
+        this.metricsPort = Integer.getInteger("simpleqq.metrics.port", port + METRICS_PORT_OFFSET);
+        this.saveChatTimer = metrics.persistenceTimer("saveChatMessage");
+        this.tracer = new MessageTracer(Integer.getInteger("simpleqq.trace.sampleRate", 0));
+        this.router = new MessageRouter(Integer.getInteger("simpleqq.workerThreads",
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2)));
+        ClientHandler.registerHandlers(router);
+        this.credentialVerifier = new CredentialVerifier(
+                Integer.getInteger("simpleqq.verifier.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                Integer.getInteger("simpleqq.verifier.queue", 64));
+        this.admissionController = new AdmissionController(this);
+        this.floodGuard = new FloodGuard();
+        this.listVersions = new ListVersions();
+        this.listPayloadCache = new ListPayloadCache(listVersions,
+                Long.getLong("simpleqq.listCache.maxBytes", 16L * 1024 * 1024));
+        this.fanoutEngine = new FanoutEngine(this,
+                Integer.getInteger("simpleqq.fanout.shards", Math.max(4, Runtime.getRuntime().availableProcessors())),
+                Integer.getInteger("simpleqq.fanout.threshold", 500),
+                Integer.getInteger("simpleqq.fanout.queuePerRecipient", 256));
+        userManager = new UserManager(dataDir, metrics, listVersions);
+        groupManager = new GroupManager(dataDir, metrics, listVersions);
+        offlineMessageStore = new OfflineMessageStore(dataDir, nodeId, metrics);
+        sessionManager = new SessionManager(this);
+        connectionReaper = new ConnectionReaper();
+        presence = new PresenceRegistry();
+        presenceNotifier = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "presence-notify");
+            t.setDaemon(true);
+            return t;
+        });
+        clusterNotifier = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cluster-presence");
+            t.setDaemon(true);
+            return t;
+        });
+        presence.addListener(this::onPresenceChanged);
+        groupManager.setPresence(presence);
+        registerGauges();
+    }
+
+    /**
+     * 注册队列深度、在线人数等瞬时值指标
+     */
+    private void registerGauges() {
+        metrics.registerGauge("online_users", "Users logged in on this server.", () -> presence.size());
+        metrics.registerGauge("detached_sessions", "Sessions waiting for a reconnect within the grace period.",
+                () -> sessionManager.getDetachedCount());
+        metrics.registerGauge("offline_pending_messages", "Messages waiting in offline inboxes.",
+                () -> offlineMessageStore.getTotalPendingCount());
+        metrics.registerGauge("offline_active_drains", "Offline inboxes currently being delivered.",
+                () -> offlineMessageStore.getActiveDrainCount());
+        metrics.registerGauge("offline_live_bytes", "Bytes of the offline data file still referenced by an inbox.",
+                () -> offlineMessageStore.getLiveBytes());
+        metrics.registerCounter("offline_messages_dropped_total", "Offline messages dropped because an inbox overflowed or the message expired.",
+                () -> offlineMessageStore.getDroppedCount());
+        metrics.registerGauge("router_busy_workers", "Worker threads currently running blocking message handlers.",
+                () -> router.getBusyWorkers());
+        metrics.registerGauge("router_queued_connections", "Connections with blocking messages waiting for a worker thread.",
+                () -> router.getQueuedConnections());
+        metrics.registerGauge("credential_verify_queue", "Login and register requests waiting for password hashing.",
+                () -> credentialVerifier.getQueueDepth());
+        metrics.registerCounter("credential_verify_accepted_total", "Login and register requests admitted for password hashing.",
+                () -> credentialVerifier.getAcceptedCount());
+        metrics.registerCounter("credential_verify_rejected_total", "Login and register requests rejected because the hashing queue was full.",
+                () -> credentialVerifier.getRejectedCount());
+        metrics.registerCounter("connections_rejected_rate_limit_total", "Connections closed because their source IP exceeded the connection rate limit.",
+                () -> admissionController.getRateLimitedCount());
+        metrics.registerCounter("connections_rejected_queue_full_total", "Connections closed because the pending-accept queue was full.",
+                () -> admissionController.getQueueFullCount());
+        metrics.registerCounter("messages_throttled_user_total", "Chat messages dropped because the sender exceeded its rate limit.",
+                () -> floodGuard.getUserThrottledCount());
+        metrics.registerCounter("messages_throttled_group_total", "Chat messages dropped because the target group exceeded its rate limit.",
+                () -> floodGuard.getGroupThrottledCount());
+        metrics.registerCounter("list_requests_not_modified_total", "List requests answered with LIST_NOT_MODIFIED because the client copy was current.",
+                () -> listVersions.getNotModifiedCount());
+        metrics.registerCounter("list_cache_hits_total", "List responses served from the encoded payload cache.",
+                () -> listPayloadCache.getHitCount());
+        metrics.registerCounter("list_cache_misses_total", "List responses encoded because the cache had no current payload.",
+                () -> listPayloadCache.getMissCount());
+        metrics.registerCounter("list_cache_evictions_total", "Cached list payloads evicted to stay within the size limit.",
+                () -> listPayloadCache.getEvictionCount());
+        metrics.registerGauge("list_cache_bytes", "Bytes of encoded list payloads held in the cache.",
+                () -> listPayloadCache.getBytes());
+        metrics.registerCounter("group_fanouts_sharded_total", "Group messages delivered in parallel through per-recipient outbound queues.",
+                () -> fanoutEngine.getShardedFanoutCount());
+        metrics.registerGauge("group_fanouts_pending", "Parallel group fan-outs still being written to recipients.",
+                () -> fanoutEngine.getPendingFanouts());
+        metrics.registerCounter("group_fanout_overflow_total", "Group message copies stored offline because the recipient's outbound queue was full.",
+                () -> fanoutEngine.getOverflowCount());
+        metrics.registerGauge("group_fanout_last_recipient_p99_micros",
+                "Estimated 99th percentile time until the last online recipient of a group message was written.",
+                () -> metrics.fanoutLastRecipientTimer().getValueAtPercentile(99));
+        metrics.registerGauge("admission_pending_accepts", "Accepted connections waiting for a handshake slot.",
+                () -> admissionController.getPendingCount());
+        metrics.registerGauge("admission_active_handshakes", "Connections that have not logged in or resumed a session yet.",
+                () -> admissionController.getActiveHandshakes());
+        metrics.registerGauge("unacked_messages", "Chat messages sent to clients and not yet acknowledged.", () -> {
+            long total = 0;
+            for (ClientHandler handler : presence.asMap().values()) {
+                total += handler.getUnackedCount();
+            }
+            return total;
+        });
     }
 
     /**
@@ -52,41 +235,185 @@ public class Server {
         return groupManager;
     }
 
+    /**
+     * 获取离线消息存储
+     * @return 离线消息存储实例
+     */
+    public OfflineMessageStore getOfflineMessageStore() {
+        return offlineMessageStore;
+    }
+
+    /**
+     * 获取会话管理器
+     * @return 会话管理器实例
+     */
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    /**
+     * 获取空闲连接清理器
+     * @return 空闲连接清理器实例
+     */
+    public ConnectionReaper getConnectionReaper() {
+        return connectionReaper;
+    }
+
+    /**
+     * 获取指标注册表
+     * @return 指标注册表
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 获取消息处理链路追踪
+     * @return 链路追踪
+     */
+    public MessageTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * 获取客户端消息路由器
+     * @return 消息路由器
+     */
+    public MessageRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * 获取密码校验线程池
+     * @return 密码校验线程池
+     */
+    public CredentialVerifier getCredentialVerifier() {
+        return credentialVerifier;
+    }
+
+    /**
+     * 获取聊天消息防刷
+     * @return 防刷
+     */
+    public FloodGuard getFloodGuard() {
+        return floodGuard;
+    }
+
+    /**
+     * 获取列表版本号
+     * @return 列表版本号
+     */
+    public ListVersions getListVersions() {
+        return listVersions;
+    }
+
+    /**
+     * 获取列表数据缓存
+     * @return 列表数据缓存
+     */
+    public ListPayloadCache getListPayloadCache() {
+        return listPayloadCache;
+    }
+
+    /**
+     * 获取群消息扇出引擎
+     * @return 扇出引擎
+     */
+    public FanoutEngine getFanoutEngine() {
+        return fanoutEngine;
+    }
+
+    /**
+     * 获取新连接的准入控制
+     * @return 准入控制
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * 获取集群节点
+     * @return 集群节点，单机模式下返回null
+     */
+    public ClusterNode getClusterNode() {
+        return clusterNode;
+    }
+
+    /**
+     * 设置集群节点
+     * 必须在start()之前调用；之后用户和群组数据的修改都会复制到其他节点
+     * @param clusterNode 集群节点
+     */
+    public void setClusterNode(ClusterNode clusterNode) {
+        this.clusterNode = clusterNode;
+        userManager.setChangeListener(clusterNode::replicate);
+        groupManager.setChangeListener(clusterNode::replicate);
+    }
+
     /**
      * 获取在线客户端映射表
-     * @return 在线客户端Map
+     * @return 在线客户端Map（只读）
      */
     public Map<String, ClientHandler> getOnlineClients() {
-        return onlineClients;
+        return presence.asMap();
+    }
+
+    /**
+     * 获取在线状态注册表
+     * @return 在线状态注册表
+     */
+    public PresenceRegistry getPresence() {
+        return presence;
     }
 
     /**
      * 添加在线客户端
-     * 当用户登录成功时调用，将客户端处理器添加到在线列表
+     * 当用户登录成功时调用，将客户端处理器添加到在线列表和所在群组的在线成员中
      * @param userId 用户ID
      * @param handler 客户端处理器
      */
-    public synchronized void addOnlineClient(String userId, ClientHandler handler) {
-        onlineClients.put(userId, handler);
-        User user = userManager.getUserById(userId);
-        if (user != null) {
-            user.setOnline(true); // 设置用户在线状态
+    public void addOnlineClient(String userId, ClientHandler handler) {
+        presence.online(userId, handler);
+        groupManager.memberOnline(userId, handler);
+        ClientHandler current = presence.get(userId);
+        if (current != handler) {
+            // 登记期间连接已断开或被新连接替换，恢复为注册表中的当前连接
+            groupManager.memberOffline(userId, handler);
+            if (current != null) {
+                groupManager.memberOnline(userId, current);
+            }
+        }
+    }
+
+    /**
+     * 替换在线客户端
+     * 会话恢复时调用，将用户绑定到新的连接，不改变在线状态，也不通知好友
+     * @param userId 用户ID
+     * @param previous 原客户端处理器
+     * @param handler 新客户端处理器
+     */
+    public void replaceOnlineClient(String userId, ClientHandler previous, ClientHandler handler) {
+        if (presence.replace(userId, previous, handler)) {
+            groupManager.memberOnline(userId, handler);
+        } else {
+            addOnlineClient(userId, handler);
         }
-        System.out.println("User " + userId + " is now online. Total online: " + onlineClients.size());
     }
 
     /**
      * 移除客户端连接
      * 当用户断开连接时调用，从在线列表中移除并更新状态
+     * 只有在线列表中登记的仍是该处理器时才会移除，避免误删同一用户的新连接
      * @param userId 用户ID
+     * @param handler 断开连接的客户端处理器
      */
-    public synchronized void removeClient(String userId) {
-        onlineClients.remove(userId);
-        User user = userManager.getUserById(userId);
-        if (user != null) {
-            user.setOnline(false); // 设置用户离线状态
+    public void removeClient(String userId, ClientHandler handler) {
+        if (userId != null) {
+            // 未登录的连接，或用户已在新连接上登录时不会移除
+            if (presence.offline(userId, handler)) {
+                groupManager.memberOffline(userId, handler);
+            }
         }
-        System.out.println("User " + userId + " went offline. Total online: " + onlineClients.size());
     }
 
     /**
@@ -95,25 +422,96 @@ public class Server {
      * @return true表示在线，false表示离线
      */
     public boolean isUserOnline(String userId) {
-        return onlineClients.containsKey(userId);
+        return presence.isOnline(userId);
+    }
+
+    /**
+     * 处理用户上线、下线
+     * 同步更新用户状态标志；向好友推送好友列表、向其他集群节点广播都需要写网络，分别交给单独的线程，
+     * 一个连接不上或写得很慢的节点不会拖住登录、退出和空闲连接清理
+     * 同一用户的上下线可能在不同线程中同时发生，这里按注册表中的当前状态更新，而不是按事件本身
+     * @param userId 用户ID
+     * @param online true表示上线，false表示下线
+     * @param version 变化完成后的版本号
+     */
+    private void onPresenceChanged(String userId, boolean online, long version) {
+        boolean current = presence.isOnline(userId);
+        User user = userManager.getUserById(userId);
+        if (user != null) {
+            user.setOnline(current); // 设置用户在线状态
+        }
+        if (clusterNode != null) {
+            clusterNotifier.execute(() -> {
+                // 单线程依次执行，执行时再读取当前状态，同一用户的上下线广播不会乱序
+                if (presence.isOnline(userId)) {
+                    clusterNode.userOnline(userId); // 更新各节点的在线位置
+                } else {
+                    clusterNode.userOffline(userId);
+                }
+            });
+        }
+        System.out.println("User " + userId + (online ? " is now online" : " went offline") + ". Total online: " + presence.size());
+        // 好友列表和群成员列表包含在线状态，所有好友的好友列表和所在群组的成员列表都已变化
+        for (String friendId : userManager.getFriends(userId)) {
+            listVersions.bump(ListVersions.Kind.FRIENDS, friendId);
+        }
+        for (String groupId : groupManager.getUserGroups(userId)) {
+            listVersions.bump(ListVersions.Kind.MEMBERS, groupId);
+        }
+        presenceNotifier.execute(() -> notifyFriendsStatusChange(userId));
+    }
+
+    /**
+     * 通知好友状态变化
+     * 当用户上线或下线时，向其所有在线好友推送最新的好友列表
+     * @param userId 状态发生变化的用户ID
+     */
+    private void notifyFriendsStatusChange(String userId) {
+        List<String> friends = userManager.getFriends(userId);
+        for (String friendId : friends) {
+            ClientHandler friendHandler = presence.get(friendId);
+            if (friendHandler != null) {
+                try {
+                    friendHandler.sendFriendList(friendId); // 发送更新的好友列表
+                } catch (IOException e) {
+                    System.err.println("Failed to notify friend " + friendId + " of status change: " + e.getMessage());
+                }
+            }
+        }
     }
 
     /**
      * 启动服务器
      * 创建ServerSocket并持续监听客户端连接请求
-     * 为每个新连接创建独立的ClientHandler线程
+     * 新连接经准入控制后由准入线程为其创建独立的ClientHandler线程
      */
     public void start() {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started on port " + PORT);
-            
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Server started on port " + port);
+            if (clusterNode != null) {
+                clusterNode.start();
+            }
+            if (metricsPort > 0) {
+                try {
+                    metrics.startHttpEndpoint(metricsPort);
+                    registerTraceEndpoint();
+                } catch (IOException e) {
+                    System.err.println("Failed to start metrics endpoint on port " + metricsPort + ": " + e.getMessage());
+                }
+            }
+            admissionController.start();
+
             while (true) {
                 // 等待客户端连接
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-                
-                // 为每个客户端创建独立的处理线程
-                new ClientHandler(clientSocket, this).start();
+                metrics.connectionAccepted();
+
+                // 被拒绝的连接已关闭，不逐条打印日志，避免重连风暴时刷屏
+                if (admissionController.offer(clientSocket)) {
+                    System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
+                } else {
+                    metrics.connectionClosed();
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -144,7 +542,8 @@ public class Server {
             return; // 不保存其他类型的消息
         }
 
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(chatFileName, true))) {
+        long start = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, chatFileName), true))) {
             String contentToSave;
             if (message.getType() == MessageType.IMAGE_MESSAGE) {
                 // 图片消息只保存文件名，不保存Base64数据
@@ -162,25 +561,145 @@ public class Server {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        saveChatTimer.recordNanos(System.nanoTime() - start);
     }
 
     /**
      * 转发消息给指定用户
-     * 查找目标用户的客户端处理器并发送消息
+     * 用户连接在本节点时直接发送；集群模式下用户在其他节点时转发到该节点；
+     * 用户不在线时存入离线收件箱
      * @param message 要转发的消息
+     * @return 已实时投递（或已转发到用户所在节点）返回true，存入离线收件箱返回false
      */
-    public void forwardMessage(Message message) {
+    public boolean forwardMessage(Message message) {
         String receiverId = message.getReceiverId();
-        ClientHandler receiverHandler = onlineClients.get(receiverId);
-        
-        if (receiverHandler != null) {
-            try {
-                receiverHandler.sendMessage(message);
-            } catch (IOException e) {
-                System.err.println("Error forwarding message to " + receiverId + ": " + e.getMessage());
+        if (deliverLocally(receiverId, message)) {
+            return true;
+        }
+        if (clusterNode != null) {
+            String location = clusterNode.locate(receiverId);
+            if (location != null && clusterNode.relay(location, message)) {
+                return true;
+            }
+        }
+        System.out.println("Receiver " + receiverId + " is not online. Message stored for offline delivery.");
+        storeOffline(message, List.of(receiverId));
+        return false;
+    }
+
+    /**
+     * 将消息发送给连接在本节点上的用户
+     * @param userId 接收者ID
+     * @param message 要发送的消息
+     * @return 发送成功返回true，用户不在本节点或发送失败返回false
+     */
+    public boolean deliverLocally(String userId, Message message) {
+        ClientHandler receiverHandler = presence.get(userId);
+        if (receiverHandler == null) {
+            return false;
+        }
+        try {
+            receiverHandler.sendMessage(message);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error forwarding message to " + userId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 将群消息投递给群成员（不包括发送者）
+     * 连接在本节点的成员交给扇出引擎发送，其余成员交给集群转发或存入离线收件箱
+     * @param message 群消息，接收者ID为群组ID
+     * @param members 群成员ID列表
+     */
+    public void deliverToGroup(Message message, List<String> members) {
+        Set<String> local = deliverToOnlineMembers(message, members.size());
+        List<String> remoteMembers = new ArrayList<>();
+        int recipients = 0;
+        for (String memberId : members) {
+            if (!memberId.equals(message.getSenderId())) {
+                recipients++;
+                if (!local.contains(memberId)) {
+                    remoteMembers.add(memberId);
+                }
             }
+        }
+        metrics.recordFanout(recipients);
+        forwardToRemoteMembers(message, remoteMembers);
+    }
+
+    /**
+     * 将群消息发送给连接在本节点上的群成员（不包括发送者）
+     * 只遍历群组的在线成员，不逐个查询全部成员；大群的发送在扇出线程池中进行，返回时可能尚未写完，
+     * 写入失败的成员由扇出引擎转发或存入离线收件箱
+     * @param message 群消息，接收者ID为群组ID
+     * @param groupSize 群组成员数
+     * @return 交给扇出引擎发送的成员ID集合
+     */
+    public Set<String> deliverToOnlineMembers(Message message, int groupSize) {
+        Map<String, ClientHandler> recipients = new HashMap<>(groupManager.getOnlineMembers(message.getReceiverId()));
+        recipients.remove(message.getSenderId());
+        fanoutEngine.deliver(message, groupSize, recipients);
+        return recipients.keySet();
+    }
+
+    /**
+     * 在指标HTTP端点上注册追踪报告接口
+     * GET /traces 返回追踪报告；?sample=N 调整采样率（0关闭）；?reset=1 清空已汇总的数据
+     */
+    private void registerTraceEndpoint() {
+        metrics.getHttpServer().createContext("/traces", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    String[] kv = param.split("=", 2);
+                    if (kv.length == 2 && "sample".equals(kv[0])) {
+                        try {
+                            tracer.setSampleRate(Integer.parseInt(kv[1]));
+                        } catch (NumberFormatException e) {
+                            // 忽略非法参数，保持原采样率
+                        }
+                    } else if (kv.length == 2 && "reset".equals(kv[0]) && "1".equals(kv[1])) {
+                        tracer.reset();
+                    }
+                }
+            }
+            byte[] body = tracer.dump().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        System.out.println("Trace endpoint listening on http://127.0.0.1:" + metricsPort + "/traces");
+    }
+
+    /**
+     * 将群消息转发给不在本节点上线的群成员
+     * 集群模式下由各节点投递给自己持有连接的成员，单机模式下这些成员都处于离线状态
+     * @param message 群消息
+     * @param recipients 不在本节点上线的成员ID列表
+     */
+    public void forwardToRemoteMembers(Message message, List<String> recipients) {
+        if (clusterNode != null) {
+            clusterNode.relayGroupMessage(message, recipients);
         } else {
-            System.out.println("Receiver " + receiverId + " is not online. Message not forwarded.");
+            storeOffline(message, recipients);
+        }
+    }
+
+    /**
+     * 保存离线消息
+     * 集群模式下存入接收者归属节点的离线收件箱
+     * @param message 消息
+     * @param receiverIds 接收者ID集合
+     */
+    public void storeOffline(Message message, Collection<String> receiverIds) {
+        if (clusterNode != null) {
+            clusterNode.storeOffline(message, receiverIds);
+        } else {
+            offlineMessageStore.store(message, receiverIds);
         }
     }
 
@@ -197,10 +716,17 @@ public class Server {
 
     /**
      * 主方法，程序入口点
+     * 用法：Server [端口] [节点ID 集群配置]
+     * 集群配置格式：节点ID=主机:节点间端口,节点ID=主机:节点间端口,...
      * @param args 命令行参数
      */
     public static void main(String[] args) {
-        Server server = new Server();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String nodeId = args.length > 2 ? args[1] : null;
+        Server server = new Server(port, nodeId);
+        if (nodeId != null) {
+            server.setClusterNode(ClusterNode.parse(server, args[1], args[2]));
+        }
         server.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.MessageType;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 服务器指标注册表类
+ * 计数器使用分段累加的LongAdder，直方图使用以2的幂为桶边界的Log2Histogram，热路径上只有无竞争的累加
+ * 队列深度等瞬时值在采集时通过回调读取
+ * 通过只监听本机地址的HTTP端点以Prometheus文本格式输出
+ */
+public class ServerMetrics {
+    private static final String PREFIX = "simpleqq_";   // 指标名称前缀
+
+    private final Map<MessageType, LongAdder> messagesReceived;   // 各类型收到的消息数
+    private final Map<MessageType, LongAdder> messagesSent;       // 各类型发出的消息数
+    private final LongAdder bytesReceived = new LongAdder();      // 从客户端读取的字节数
+    private final LongAdder bytesSent = new LongAdder();          // 写给客户端的字节数
+    private final LongAdder connectionsAccepted = new LongAdder(); // 接受的连接数
+    private final LongAdder connectionsClosed = new LongAdder();  // 关闭的连接数
+    private final Log2Histogram fanoutSize = new Log2Histogram(1); // 群消息扇出的接收者数量
+    private final Log2Histogram fanoutLastRecipient = Log2Histogram.latency(); // 群消息从开始扇出到最后一个在线接收者写出的耗时
+    private final Map<String, Log2Histogram> persistenceLatency = new ConcurrentSkipListMap<>(); // 各持久化操作的耗时
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>(); // 采集时读取的瞬时值和由其他组件维护的计数器
+    private HttpServer httpServer;                                // 指标HTTP端点
+
+    /**
+     * 采集时通过回调取值的指标
+     */
+    private static class Gauge {
+        final String help;             // 说明
+        final String type;             // Prometheus指标类型：gauge或counter
+        final LongSupplier supplier;   // 取值回调
+
+        Gauge(String help, String type, LongSupplier supplier) {
+            this.help = help;
+            this.type = type;
+            this.supplier = supplier;
+        }
+    }
+
+    /**
+     * 构造函数
+     * 预先为每种消息类型创建计数器，之后只读不写映射表本身
+     */
+    public ServerMetrics() {
+        messagesReceived = new EnumMap<>(MessageType.class);
+        messagesSent = new EnumMap<>(MessageType.class);
+        for (MessageType type : MessageType.values()) {
+            messagesReceived.put(type, new LongAdder());
+            messagesSent.put(type, new LongAdder());
+        }
+        gauges.put("connections_open", new Gauge("Currently open client connections.", "gauge",
+                () -> connectionsAccepted.sum() - connectionsClosed.sum()));
+    }
+
+    public void messageReceived(MessageType type) {
+        messagesReceived.get(type).increment();
+    }
+
+    public void messageSent(MessageType type) {
+        messagesSent.get(type).increment();
+    }
+
+    public LongAdder getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public LongAdder getBytesSent() {
+        return bytesSent;
+    }
+
+    public void connectionAccepted() {
+        connectionsAccepted.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public void recordFanout(int recipients) {
+        fanoutSize.record(recipients);
+    }
+
+    /**
+     * 获取群消息扇出到最后一个接收者的耗时直方图
+     * @return 耗时直方图
+     */
+    public Log2Histogram fanoutLastRecipientTimer() {
+        return fanoutLastRecipient;
+    }
+
+    /**
+     * 获取持久化操作的耗时直方图
+     * 调用方应在初始化时取得并保存，避免每次记录都查找
+     * @param operation 操作名称，如 saveUsers
+     * @return 耗时直方图
+     */
+    public Log2Histogram persistenceTimer(String operation) {
+        return persistenceLatency.computeIfAbsent(operation, k -> Log2Histogram.latency());
+    }
+
+    /**
+     * 注册瞬时值指标，例如队列深度
+     * @param name 指标名称（不含前缀）
+     * @param help 说明
+     * @param supplier 取值回调，采集时调用
+     */
+    public synchronized void registerGauge(String name, String help, LongSupplier supplier) {
+        gauges.put(name, new Gauge(help, "gauge", supplier));
+    }
+
+    /**
+     * 注册由其他组件维护的计数器，例如被拒绝的请求数
+     * @param name 指标名称（不含前缀，以_total结尾）
+     * @param help 说明
+     * @param supplier 取值回调，采集时调用
+     */
+    public synchronized void registerCounter(String name, String help, LongSupplier supplier) {
+        gauges.put(name, new Gauge(help, "counter", supplier));
+    }
+
+    /**
+     * 按Prometheus文本格式输出所有指标
+     * @return 指标文本
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        writeTypedCounter(out, "messages_received_total", "Messages received from clients by type.", messagesReceived);
+        writeTypedCounter(out, "messages_sent_total", "Messages written to clients by type.", messagesSent);
+        writeCounter(out, "bytes_received_total", "Bytes read from client connections.", bytesReceived.sum());
+        writeCounter(out, "bytes_sent_total", "Bytes written to client connections.", bytesSent.sum());
+        writeCounter(out, "connections_accepted_total", "Client connections accepted.", connectionsAccepted.sum());
+        writeCounter(out, "connections_closed_total", "Client connections closed.", connectionsClosed.sum());
+
+        writeHeader(out, "group_fanout_recipients", "Recipients per group message fan-out.", "histogram");
+        fanoutSize.writePrometheus(out, PREFIX + "group_fanout_recipients", "");
+        writeHeader(out, "group_fanout_last_recipient_seconds",
+                "Time from the start of a group fan-out until the last online recipient was written.", "histogram");
+        fanoutLastRecipient.writePrometheus(out, PREFIX + "group_fanout_last_recipient_seconds", "");
+
+        writeHeader(out, "persistence_seconds", "Latency of file persistence operations.", "histogram");
+        for (Map.Entry<String, Log2Histogram> entry : persistenceLatency.entrySet()) {
+            entry.getValue().writePrometheus(out, PREFIX + "persistence_seconds", "op=\"" + entry.getKey() + "\"");
+        }
+
+        synchronized (this) {
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                writeHeader(out, entry.getKey(), entry.getValue().help, entry.getValue().type);
+                out.append(PREFIX).append(entry.getKey()).append(' ').append(entry.getValue().supplier.getAsLong()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeHeader(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeCounter(StringBuilder out, String name, String help, long value) {
+        writeHeader(out, name, help, "counter");
+        out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void writeTypedCounter(StringBuilder out, String name, String help, Map<MessageType, LongAdder> counters) {
+        writeHeader(out, name, help, "counter");
+        for (Map.Entry<MessageType, LongAdder> entry : counters.entrySet()) {
+            long value = entry.getValue().sum();
+            if (value > 0) {
+                out.append(PREFIX).append(name).append("{type=\"").append(entry.getKey()).append("\"} ")
+                        .append(value).append('\n');
+            }
+        }
+    }
+
+    /**
+     * 启动指标HTTP端点
+     * 只监听本机回环地址，GET /metrics 返回Prometheus文本格式
+     * @param port 监听端口
+     * @throws IOException 端口被占用等情况时抛出
+     */
+    public synchronized void startHttpEndpoint(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        httpServer.start();
+        System.out.println("Metrics endpoint listening on http://127.0.0.1:" + port + "/metrics");
+    }
+
+    /**
+     * 获取HTTP端点，供其他诊断接口注册路径
+     * @return HTTP端点，未启动时返回null
+     */
+    public synchronized HttpServer getHttpServer() {
+        return httpServer;
+    }
+}
@@ -0,0 +1,270 @@
+package com.simpleqq.server;
+
+import com.simpleqq.common.Message;
+import com.simpleqq.common.MessageType;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话管理器类
+ * 登录成功时为用户签发可恢复的会话令牌
+ * 连接意外断开后保留会话一段宽限期，客户端在宽限期内重连即可恢复会话，
+ * 服务器只重放断线期间发生变化的内容，好友也不会看到下线再上线的状态抖动
+ */
+public class SessionManager {
+    private static final long GRACE_PERIOD_MS = 30000;  // 断线后保留会话的宽限期（毫秒）
+    private static final int MAX_MISSED_MESSAGES = 200; // 断线期间最多缓存的系统消息数量
+
+    private Server server;                               // 服务器实例引用
+    private Map<String, Session> sessionsByUser;         // 会话映射表，key为用户ID
+    private SecureRandom random;                         // 令牌随机数生成器
+    private ScheduledExecutorService expiryScheduler;    // 宽限期到期调度器
+
+    /**
+     * 单个用户的会话状态
+     */
+    private static class Session {
+        final String token;                              // 会话令牌
+        final String userId;                             // 会话所属用户ID
+        ClientHandler handler;                           // 当前绑定的客户端处理器
+        boolean detached;                                // 连接是否已断开、处于宽限期
+        ScheduledFuture<?> expiry;                       // 宽限期到期任务
+        final List<Message> missed = new ArrayList<>();  // 断线期间错过的非聊天消息
+
+        Session(String token, String userId, ClientHandler handler) {
+            this.token = token;
+            this.userId = userId;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * 构造函数
+     * @param server 服务器实例
+     */
+    public SessionManager(Server server) {
+        this.server = server;
+        this.sessionsByUser = new HashMap<>();
+        this.random = new SecureRandom();
+        this.expiryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 为刚登录的用户创建会话
+     * 同一用户之前的会话会被替换
+     * @param userId 用户ID
+     * @param handler 客户端处理器
+     * @return 会话令牌
+     */
+    public synchronized String open(String userId, ClientHandler handler) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        Session previous = sessionsByUser.put(userId, new Session(token.toString(), userId, handler));
+        if (previous != null && previous.expiry != null) {
+            previous.expiry.cancel(false);
+        }
+        return token.toString();
+    }
+
+    /**
+     * 连接断开时挂起会话
+     * 会话进入宽限期，到期前不会将用户移出在线列表
+     * @param handler 断开连接的客户端处理器
+     * @return 会话已挂起返回true；没有可挂起的会话返回false，调用方应立即清理
+     */
+    public synchronized boolean detach(ClientHandler handler) {
+        Session session = handler.getUserId() == null ? null : sessionsByUser.get(handler.getUserId());
+        if (session == null || session.handler != handler || session.detached) {
+            return false;
+        }
+        session.detached = true;
+        session.expiry = expiryScheduler.schedule(() -> expire(session), GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        System.out.println("Session of " + session.userId + " detached. Waiting " + GRACE_PERIOD_MS + " ms for reconnect.");
+        return true;
+    }
+
+    /**
+     * 关闭会话
+     * 用户主动退出时调用，连接断开后不再进入宽限期
+     * @param handler 客户端处理器
+     */
+    public synchronized void close(ClientHandler handler) {
+        Session session = handler.getUserId() == null ? null : sessionsByUser.get(handler.getUserId());
+        if (session != null && session.handler == handler) {
+            sessionsByUser.remove(session.userId);
+        }
+    }
+
+    /**
+     * 判断用户的会话是否处于断线宽限期
+     * @param userId 用户ID
+     * @return 处于宽限期返回true
+     */
+    public synchronized boolean isDetached(String userId) {
+        Session session = sessionsByUser.get(userId);
+        return session != null && session.detached;
+    }
+
+    /**
+     * 获取处于断线宽限期的会话数量
+     * @return 会话数量
+     */
+    public synchronized int getDetachedCount() {
+        int count = 0;
+        for (Session session : sessionsByUser.values()) {
+            if (session.detached) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 记录挂起会话错过的消息
+     * 聊天消息直接进入离线收件箱；列表类响应只保留最新一份，其余系统消息按顺序缓存
+     * @param handler 已断开的客户端处理器
+     * @param message 错过的消息
+     */
+    public void recordMissed(ClientHandler handler, Message message) {
+        if (message.isChatMessage()) {
+            server.storeOffline(message, List.of(handler.getUserId()));
+            return;
+        }
+        synchronized (this) {
+            Session session = sessionsByUser.get(handler.getUserId());
+            if (session == null || session.handler != handler || !session.detached) {
+                return; // 会话已结束，或用户已登录到新连接并重新获取了数据
+            }
+            if (isListResponse(message.getType())) {
+                // 列表类响应只需重放最新一份
+                Iterator<Message> it = session.missed.iterator();
+                while (it.hasNext()) {
+                    Message old = it.next();
+                    if (old.getType() == message.getType() && old.getSenderId().equals(message.getSenderId())) {
+                        it.remove();
+                    }
+                }
+            }
+            if (session.missed.size() < MAX_MISSED_MESSAGES) {
+                session.missed.add(message);
+            }
+        }
+    }
+
+    /**
+     * 恢复会话
+     * 校验令牌后将会话绑定到新的客户端处理器，并返回需要重放的消息
+     * 原连接尚未被发现断开（半开连接，读取线程仍阻塞在读取上）时同样接管会话，并关闭原连接
+     * @param token 会话令牌
+     * @param userId 用户ID
+     * @param handler 新连接的客户端处理器
+     * @return 需要重放的消息列表（先是旧连接未确认的聊天消息，再是错过的系统消息）；恢复失败返回null
+     */
+    public List<Message> resume(String token, String userId, ClientHandler handler) {
+        ClientHandler previous;
+        boolean takeover;
+        List<Message> replay = new ArrayList<>();
+        synchronized (this) {
+            Session session = sessionsByUser.get(userId);
+            if (session == null || !session.token.equals(token) || session.handler == handler) {
+                return null;
+            }
+            if (session.expiry != null) {
+                session.expiry.cancel(false);
+                session.expiry = null;
+            }
+            previous = session.handler;
+            takeover = !session.detached;
+            session.handler = handler;
+            session.detached = false;
+            replay.addAll(session.missed);
+            session.missed.clear();
+        }
+        handler.continueSession(previous);
+        server.replaceOnlineClient(userId, previous, handler);
+        if (takeover) {
+            // 先登记新连接再关闭原连接，原连接的断线流程不会再把用户移出在线列表
+            previous.closeConnection();
+        }
+        List<Message> unacked = previous.takeUnackedMessages();
+        unacked.addAll(replay);
+        System.out.println("Session of " + userId + (takeover ? " taken over" : " resumed")
+                + ". Replaying " + unacked.size() + " messages.");
+        return unacked;
+    }
+
+    /**
+     * 结束用户仍绑定在连接上的会话
+     * 用户凭密码重新登录、而原连接尚未被发现断开时调用；原连接由调用方在登记新连接后关闭
+     * @param userId 用户ID
+     * @return 原会话绑定的客户端处理器；没有未断开的会话返回null
+     */
+    public synchronized ClientHandler takeOver(String userId) {
+        Session session = sessionsByUser.get(userId);
+        if (session == null || session.detached) {
+            return null;
+        }
+        sessionsByUser.remove(userId);
+        return session.handler;
+    }
+
+    /**
+     * 立即结束用户处于宽限期的会话
+     * 用户没有使用令牌而是重新登录时调用
+     * @param userId 用户ID
+     */
+    public void expireNow(String userId) {
+        Session session;
+        synchronized (this) {
+            session = sessionsByUser.get(userId);
+            if (session == null || !session.detached) {
+                return;
+            }
+            session.expiry.cancel(false);
+        }
+        expire(session);
+    }
+
+    /**
+     * 宽限期到期，结束会话
+     * 走正常的下线流程：移出在线列表并通知好友
+     * @param session 到期的会话
+     */
+    private void expire(Session session) {
+        synchronized (this) {
+            if (!session.detached || sessionsByUser.get(session.userId) != session) {
+                return; // 会话已恢复或已被替换
+            }
+            sessionsByUser.remove(session.userId);
+        }
+        System.out.println("Session of " + session.userId + " expired.");
+        session.handler.endSession();
+    }
+
+    /**
+     * 判断消息类型是否为可合并的列表类响应
+     * @param type 消息类型
+     * @return 列表类响应返回true
+     */
+    private static boolean isListResponse(MessageType type) {
+        return type == MessageType.FRIEND_LIST || type == MessageType.GET_GROUPS
+                || type == MessageType.GET_PENDING_REQUESTS || type == MessageType.GET_GROUP_MEMBERS;
+    }
+}
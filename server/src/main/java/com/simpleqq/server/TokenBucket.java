@@ -0,0 +1,62 @@
+package com.simpleqq.server;
+
+/**
+ * 令牌桶类
+ * 令牌按固定速率补充，最多积攒到桶容量；每次操作消耗一个令牌，没有令牌时拒绝
+ * 容量决定允许的突发量，补充速率决定长期平均速率
+ */
+public class TokenBucket {
+    private final double capacity;         // 桶容量（允许的突发量）
+    private final double tokensPerNano;    // 每纳秒补充的令牌数
+    private double tokens;                 // 当前令牌数
+    private long lastRefill;               // 上次补充令牌的时刻（纳秒）
+
+    /**
+     * 构造函数
+     * 新建的桶是满的
+     * @param ratePerSecond 每秒补充的令牌数
+     * @param capacity 桶容量
+     */
+    public TokenBucket(double ratePerSecond, double capacity) {
+        this.capacity = capacity;
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * 尝试取得一个令牌
+     * @return 取得返回true，桶已空返回false
+     */
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * 退还一个已取得的令牌
+     * 用于同一次操作还需通过其他限流、但被其他限流拒绝的情况
+     */
+    public synchronized void refund() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    /**
+     * 判断桶是否已补满
+     * 补满的桶与新建的桶等价，可以丢弃以回收内存
+     * @return 已补满返回true
+     */
+    public synchronized boolean isFull() {
+        refill(System.nanoTime());
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -7,26 +7,77 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 用户管理器类
  * 负责用户注册、登录、好友关系管理等功能
  * 使用文件系统进行数据持久化存储
+ *
+ * 修改好友关系和好友请求时只锁住涉及的用户所在的段，不相关的用户可以并行操作；
+ * 好友列表和请求列表使用写时复制列表，读取和遍历不需要加锁
  */
 public class UserManager {
     private static final String USERS_FILE = "users.txt";                    // 用户信息文件
     private static final String FRIENDSHIPS_FILE = "friendships.txt";        // 好友关系文件
     private static final String FRIEND_REQUESTS_FILE = "friend_requests.txt"; // 好友请求文件
+    private static final int LOCK_STRIPES = 64;                               // 分段锁的段数
 
+    private final File dataDir;                                // 数据文件所在目录
     private Map<String, User> users;                           // 用户信息映射表，key为用户ID
     private Map<String, List<String>> friendships;            // 好友关系映射表，key为用户ID，value为好友ID列表
     private Map<String, List<String>> pendingFriendRequests;  // 待处理好友请求，key为接收者ID，value为发送者ID列表
+    private final Log2Histogram saveUsersTimer;                // 保存用户信息的耗时
+    private final Log2Histogram saveFriendshipsTimer;          // 保存好友关系的耗时
+    private final Log2Histogram saveFriendRequestsTimer;       // 保存好友请求的耗时
+    private final LockStripes locks = new LockStripes(LOCK_STRIPES); // 按用户ID分段的锁
+    private final PasswordHasher hasher = new PasswordHasher();     // 密码散列
+    private final CoalescingSaver usersSaver = new CoalescingSaver(this::saveUsers);                   // 合并保存用户信息
+    private final CoalescingSaver friendshipsSaver = new CoalescingSaver(this::saveFriendships);       // 合并保存好友关系
+    private final CoalescingSaver friendRequestsSaver = new CoalescingSaver(this::saveFriendRequests); // 合并保存好友请求
+    private final ListVersions listVersions;                 // 好友列表、待处理请求列表的版本号
+    private volatile ChangeListener changeListener;          // 数据变化监听器，集群模式下把修改复制到其他节点
 
     /**
      * 构造函数
-     * 初始化数据结构并从文件加载数据
+     * 使用当前工作目录下的数据文件
      */
     public UserManager() {
+        this(new File("."));
+    }
+
+    /**
+     * 构造函数
+     * 使用指定目录下的数据文件
+     * @param dataDir 数据文件所在目录
+     */
+    public UserManager(File dataDir) {
+        this(dataDir, new ServerMetrics());
+    }
+
+    /**
+     * 构造函数
+     * 使用独立的列表版本号
+     * @param dataDir 数据文件所在目录
+     * @param metrics 指标注册表，记录持久化耗时
+     */
+    public UserManager(File dataDir, ServerMetrics metrics) {
+        this(dataDir, metrics, new ListVersions());
+    }
+
+    /**
+     * 构造函数
+     * 初始化数据结构并从文件加载数据
+     * @param dataDir 数据文件所在目录
+     * @param metrics 指标注册表，记录持久化耗时
+     * @param listVersions 列表版本号，好友关系和好友请求变化时递增
+     */
+    public UserManager(File dataDir, ServerMetrics metrics, ListVersions listVersions) {
+        this.dataDir = dataDir;
+        this.listVersions = listVersions;
+        this.saveUsersTimer = metrics.persistenceTimer("saveUsers");
+        this.saveFriendshipsTimer = metrics.persistenceTimer("saveFriendships");
+        this.saveFriendRequestsTimer = metrics.persistenceTimer("saveFriendRequests");
         users = new ConcurrentHashMap<>();
         friendships = new ConcurrentHashMap<>();
         pendingFriendRequests = new ConcurrentHashMap<>();
@@ -39,16 +90,21 @@ public class UserManager {
 
     /**
      * 从文件加载用户信息
-     * 文件格式：用户ID|用户名|密码
+     * 文件格式：用户ID|用户名|密码散列值
+     * 旧数据中的明文密码在加载时全部改写为散列值并立即保存，不等用户登录，明文密码不会继续留在文件中
      */
     private void loadUsers() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(USERS_FILE))) {
+        List<User> plaintext = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, USERS_FILE)))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\\|");
                 if (parts.length == 3) {
                     User user = new User(parts[0], parts[1], parts[2]);
                     users.put(user.getId(), user);
+                    if (!PasswordHasher.isHashed(user.getPassword())) {
+                        plaintext.add(user);
+                    }
                 }
             }
             System.out.println("Loaded " + users.size() + " users.");
@@ -57,6 +113,15 @@ public class UserManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (!plaintext.isEmpty()) {
+            long start = System.currentTimeMillis();
+            for (User user : plaintext) {
+                user.setPassword(hasher.hash(user.getPassword()));
+            }
+            saveUsers();
+            System.out.println("Migrated " + plaintext.size() + " plaintext passwords to hashes in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+        }
     }
 
     /**
@@ -64,7 +129,8 @@ public class UserManager {
      * 将内存中的用户数据写入文件进行持久化
      */
     private void saveUsers() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(USERS_FILE))) {
+        long start = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, USERS_FILE)))) {
             for (User user : users.values()) {
                 writer.write(user.getId() + "|" + user.getUsername() + "|" + user.getPassword());
                 writer.newLine();
@@ -73,6 +139,7 @@ public class UserManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        saveUsersTimer.recordNanos(System.nanoTime() - start);
     }
 
     /**
@@ -80,7 +147,7 @@ public class UserManager {
      * 文件格式：用户ID1|用户ID2（表示双向好友关系）
      */
     private void loadFriendships() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(FRIENDSHIPS_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, FRIENDSHIPS_FILE)))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\\|");
@@ -88,8 +155,8 @@ public class UserManager {
                     String userId1 = parts[0];
                     String userId2 = parts[1];
                     // 建立双向好友关系
-                    friendships.computeIfAbsent(userId1, k -> new ArrayList<>()).add(userId2);
-                    friendships.computeIfAbsent(userId2, k -> new ArrayList<>()).add(userId1);
+                    friendships.computeIfAbsent(userId1, k -> new CopyOnWriteArrayList<>()).add(userId2);
+                    friendships.computeIfAbsent(userId2, k -> new CopyOnWriteArrayList<>()).add(userId1);
                     System.out.println("Loaded friendship: " + userId1 + " <-> " + userId2);
                 }
             }
@@ -106,7 +173,8 @@ public class UserManager {
      * 避免重复保存双向关系，只保存字典序较小的用户ID在前的关系
      */
     private void saveFriendships() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FRIENDSHIPS_FILE))) {
+        long start = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, FRIENDSHIPS_FILE)))) {
             for (Map.Entry<String, List<String>> entry : friendships.entrySet()) {
                 String userId1 = entry.getKey();
                 for (String userId2 : entry.getValue()) {
@@ -122,6 +190,7 @@ public class UserManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        saveFriendshipsTimer.recordNanos(System.nanoTime() - start);
     }
 
     /**
@@ -129,13 +198,13 @@ public class UserManager {
      * 文件格式：发送者ID|接收者ID
      */
     private void loadFriendRequests() {
-        try (BufferedReader reader = new BufferedReader(new FileReader(FRIEND_REQUESTS_FILE))) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(dataDir, FRIEND_REQUESTS_FILE)))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 String[] parts = line.split("\\|");
                 if (parts.length == 2) {
                     // 将请求添加到接收者的待处理列表中
-                    pendingFriendRequests.computeIfAbsent(parts[1], k -> new ArrayList<>()).add(parts[0]);
+                    pendingFriendRequests.computeIfAbsent(parts[1], k -> new CopyOnWriteArrayList<>()).add(parts[0]);
                 }
             }
             System.out.println("Loaded friend requests.");
@@ -150,7 +219,8 @@ public class UserManager {
      * 保存好友请求到文件
      */
     private void saveFriendRequests() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(FRIEND_REQUESTS_FILE))) {
+        long start = System.nanoTime();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(new File(dataDir, FRIEND_REQUESTS_FILE)))) {
             for (Map.Entry<String, List<String>> entry : pendingFriendRequests.entrySet()) {
                 String receiverId = entry.getKey();
                 for (String senderId : entry.getValue()) {
@@ -162,37 +232,55 @@ public class UserManager {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        saveFriendRequestsTimer.recordNanos(System.nanoTime() - start);
     }
 
     /**
      * 注册新用户
+     * 密码散列耗时较长，调用方应在专用线程中调用
      * @param id 用户ID，必须唯一
      * @param username 用户名
      * @param password 密码
      * @return 注册成功返回true，ID已存在返回false
      */
-    public synchronized boolean registerUser(String id, String username, String password) {
+    public boolean registerUser(String id, String username, String password) {
         if (users.containsKey(id)) {
+            return false; // ID已存在，不必计算散列值
+        }
+        User newUser = new User(id, username, hasher.hash(password));
+        if (users.putIfAbsent(id, newUser) != null) {
             return false; // ID已存在
         }
-        User newUser = new User(id, username, password);
-        users.put(id, newUser); // 立即添加到内存映射表
-        saveUsers(); // 持久化到文件
+        usersSaver.save(); // 持久化到文件
+        notifyChanged("user", id, username, newUser.getPassword());
         return true;
     }
 
     /**
      * 用户登录验证
+     * 不加锁；密码散列耗时较长，调用方应在专用线程中调用
+     * 迭代次数已调整的散列值在校验成功后改写为当前配置的散列值
      * @param id 用户ID
      * @param password 密码
      * @return 登录成功返回用户对象，失败返回null
      */
-    public synchronized User login(String id, String password) {
+    public User login(String id, String password) {
         User user = users.get(id);
-        if (user != null && user.getPassword().equals(password)) {
-            return user;
+        if (user == null) {
+            hasher.verifyDummy(password);
+            return null;
         }
-        return null;
+        String stored = user.getPassword();
+        if (!hasher.verify(password, stored)) {
+            return null;
+        }
+        if (hasher.needsRehash(stored)) {
+            user.setPassword(hasher.hash(password));
+            usersSaver.save();
+            notifyChanged("password", id, user.getPassword());
+            System.out.println("Migrated password hash for " + id);
+        }
+        return user;
     }
 
     /**
@@ -202,7 +290,7 @@ public class UserManager {
      * @param receiverId 接收者ID
      * @return 发送成功返回true，失败返回false
      */
-    public synchronized boolean sendFriendRequest(String senderId, String receiverId) {
+    public boolean sendFriendRequest(String senderId, String receiverId) {
         System.out.println("Attempting to send friend request from " + senderId + " to " + receiverId);
         
         // 验证用户存在性和有效性
@@ -210,23 +298,30 @@ public class UserManager {
             System.out.println("Invalid users or self-request");
             return false;
         }
-        
-        // 检查是否已经是好友
-        if (areFriends(senderId, receiverId)) {
-            System.out.println("Users are already friends");
-            return false;
-        }
-        
-        // 检查是否已有待处理的请求
-        if (pendingFriendRequests.containsKey(receiverId) && 
-            pendingFriendRequests.get(receiverId).contains(senderId)) {
-            System.out.println("Friend request already pending");
-            return false;
-        }
 
-        // 添加到待处理请求列表
-        pendingFriendRequests.computeIfAbsent(receiverId, k -> new ArrayList<>()).add(senderId);
-        saveFriendRequests();
+        locks.lock(senderId, receiverId);
+        try {
+            // 检查是否已经是好友
+            if (areFriends(senderId, receiverId)) {
+                System.out.println("Users are already friends");
+                return false;
+            }
+
+            // 检查是否已有待处理的请求
+            if (pendingFriendRequests.containsKey(receiverId) &&
+                pendingFriendRequests.get(receiverId).contains(senderId)) {
+                System.out.println("Friend request already pending");
+                return false;
+            }
+
+            // 添加到待处理请求列表
+            pendingFriendRequests.computeIfAbsent(receiverId, k -> new CopyOnWriteArrayList<>()).add(senderId);
+        } finally {
+            locks.unlock(senderId, receiverId);
+        }
+        listVersions.bump(ListVersions.Kind.PENDING, receiverId);
+        friendRequestsSaver.save();
+        notifyChanged("friend_request", senderId, receiverId);
         System.out.println("Friend request sent successfully");
         return true;
     }
@@ -238,25 +333,33 @@ public class UserManager {
      * @param senderId 发送者ID（发送请求的人）
      * @return 接受成功返回true，失败返回false
      */
-    public synchronized boolean acceptFriendRequest(String receiverId, String senderId) {
+    public boolean acceptFriendRequest(String receiverId, String senderId) {
         System.out.println("Attempting to accept friend request from " + senderId + " by " + receiverId);
-        
-        List<String> requests = pendingFriendRequests.get(receiverId);
-        if (requests != null && requests.remove(senderId)) {
+
+        locks.lock(receiverId, senderId);
+        try {
+            List<String> requests = pendingFriendRequests.get(receiverId);
+            if (requests == null || !requests.remove(senderId)) {
+                System.out.println("Failed to accept friend request - request not found");
+                return false;
+            }
             // 建立双向好友关系
-            friendships.computeIfAbsent(receiverId, k -> new ArrayList<>()).add(senderId);
-            friendships.computeIfAbsent(senderId, k -> new ArrayList<>()).add(receiverId);
-            
+            friendships.computeIfAbsent(receiverId, k -> new CopyOnWriteArrayList<>()).add(senderId);
+            friendships.computeIfAbsent(senderId, k -> new CopyOnWriteArrayList<>()).add(receiverId);
+
             System.out.println("Added friendship: " + receiverId + " <-> " + senderId);
             System.out.println("Current friendships for " + receiverId + ": " + friendships.get(receiverId));
             System.out.println("Current friendships for " + senderId + ": " + friendships.get(senderId));
-            
-            saveFriendships();
-            saveFriendRequests(); // 更新请求文件
-            return true;
+        } finally {
+            locks.unlock(receiverId, senderId);
         }
-        System.out.println("Failed to accept friend request - request not found");
-        return false;
+        listVersions.bump(ListVersions.Kind.FRIENDS, receiverId);
+        listVersions.bump(ListVersions.Kind.FRIENDS, senderId);
+        listVersions.bump(ListVersions.Kind.PENDING, receiverId);
+        friendshipsSaver.save();
+        friendRequestsSaver.save(); // 更新请求文件
+        notifyChanged("friend_accept", receiverId, senderId);
+        return true;
     }
 
     /**
@@ -266,13 +369,20 @@ public class UserManager {
      * @param senderId 发送者ID
      * @return 拒绝成功返回true，失败返回false
      */
-    public synchronized boolean rejectFriendRequest(String receiverId, String senderId) {
-        List<String> requests = pendingFriendRequests.get(receiverId);
-        if (requests != null && requests.remove(senderId)) {
-            saveFriendRequests(); // 更新请求文件
-            return true;
+    public boolean rejectFriendRequest(String receiverId, String senderId) {
+        locks.lock(receiverId);
+        try {
+            List<String> requests = pendingFriendRequests.get(receiverId);
+            if (requests == null || !requests.remove(senderId)) {
+                return false;
+            }
+        } finally {
+            locks.unlock(receiverId);
         }
-        return false;
+        listVersions.bump(ListVersions.Kind.PENDING, receiverId);
+        friendRequestsSaver.save(); // 更新请求文件
+        notifyChanged("friend_reject", receiverId, senderId);
+        return true;
     }
 
     /**
@@ -282,25 +392,30 @@ public class UserManager {
      * @param userId2 用户2的ID
      * @return 删除成功返回true，失败返回false
      */
-    public synchronized boolean deleteFriend(String userId1, String userId2) {
+    public boolean deleteFriend(String userId1, String userId2) {
         System.out.println("Attempting to delete friendship between " + userId1 + " and " + userId2);
-        
-        List<String> user1Friends = friendships.get(userId1);
-        List<String> user2Friends = friendships.get(userId2);
 
-        if (user1Friends == null || user2Friends == null) {
-            System.out.println("One or both users have no friends list");
-            return false;
-        }
+        locks.lock(userId1, userId2);
+        try {
+            List<String> user1Friends = friendships.get(userId1);
+            List<String> user2Friends = friendships.get(userId2);
 
-        // 从双方的好友列表中移除对方
-        boolean removed1 = user1Friends.remove(userId2);
-        boolean removed2 = user2Friends.remove(userId1);
+            if (user1Friends == null || user2Friends == null) {
+                System.out.println("One or both users have no friends list");
+                return false;
+            }
+
+            // 从双方的好友列表中移除对方
+            boolean removed1 = user1Friends.remove(userId2);
+            boolean removed2 = user2Friends.remove(userId1);
 
-        System.out.println("Removed " + userId2 + " from " + userId1 + "'s list: " + removed1);
-        System.out.println("Removed " + userId1 + " from " + userId2 + "'s list: " + removed2);
+            System.out.println("Removed " + userId2 + " from " + userId1 + "'s list: " + removed1);
+            System.out.println("Removed " + userId1 + " from " + userId2 + "'s list: " + removed2);
 
-        if (removed1 && removed2) {
+            if (!removed1 || !removed2) {
+                System.out.println("Failed to delete friendship");
+                return false;
+            }
             // 清理空的好友列表
             if (user1Friends.isEmpty()) {
                 friendships.remove(userId1);
@@ -310,12 +425,15 @@ public class UserManager {
                 friendships.remove(userId2);
                 System.out.println("Removed empty friends list for " + userId2);
             }
-            saveFriendships();
-            System.out.println("Successfully deleted friendship");
-            return true;
+        } finally {
+            locks.unlock(userId1, userId2);
         }
-        System.out.println("Failed to delete friendship");
-        return false;
+        listVersions.bump(ListVersions.Kind.FRIENDS, userId1);
+        listVersions.bump(ListVersions.Kind.FRIENDS, userId2);
+        friendshipsSaver.save();
+        notifyChanged("friend_delete", userId1, userId2);
+        System.out.println("Successfully deleted friendship");
+        return true;
     }
 
     /**
@@ -370,4 +488,160 @@ public class UserManager {
     public Map<String, User> getAllUsers() {
         return users;
     }
-}
\ No newline at end of file
+
+    /**
+     * 设置数据变化监听器
+     * 注册、修改密码和好友关系变化成功后调用；应用其他节点复制来的修改时不调用
+     * @param changeListener 监听器
+     */
+    public void setChangeListener(ChangeListener changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void notifyChanged(String operation, String... args) {
+        ChangeListener listener = changeListener;
+        if (listener != null) {
+            listener.changed(operation, List.of(args));
+        }
+    }
+
+    /**
+     * 把当前全部用户、好友关系和好友请求写成修改操作
+     * 集群节点建立连接时发给对方，对方按操作合并，只会补上缺少的数据
+     * @param out 接收操作的监听器
+     */
+    public void writeSnapshot(ChangeListener out) {
+        for (User user : users.values()) {
+            out.changed("user", List.of(user.getId(), user.getUsername(), user.getPassword()));
+        }
+        for (Map.Entry<String, List<String>> entry : friendships.entrySet()) {
+            for (String friendId : entry.getValue()) {
+                if (entry.getKey().compareTo(friendId) < 0) {
+                    out.changed("friend_accept", List.of(entry.getKey(), friendId));
+                }
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : pendingFriendRequests.entrySet()) {
+            for (String senderId : entry.getValue()) {
+                out.changed("friend_request", List.of(senderId, entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * 应用其他节点复制来的修改
+     * 所有操作都是幂等的：已经存在的数据不会重复添加，不存在的数据不会报错；不再通知监听器，避免来回复制
+     * @param operation 操作名称
+     * @param args 操作参数
+     */
+    public void applyReplicated(String operation, List<String> args) {
+        switch (operation) {
+            case "user":
+                if (users.putIfAbsent(args.get(0), new User(args.get(0), args.get(1), args.get(2))) == null) {
+                    usersSaver.save();
+                }
+                break;
+            case "password":
+                User user = users.get(args.get(0));
+                if (user != null && !user.getPassword().equals(args.get(1))) {
+                    user.setPassword(args.get(1));
+                    usersSaver.save();
+                }
+                break;
+            case "friend_request":
+                applyFriendRequest(args.get(0), args.get(1));
+                break;
+            case "friend_accept":
+                applyFriendship(args.get(0), args.get(1));
+                break;
+            case "friend_reject":
+                applyRemoveRequest(args.get(0), args.get(1));
+                break;
+            case "friend_delete":
+                applyRemoveFriendship(args.get(0), args.get(1));
+                break;
+            default:
+                System.out.println("Unknown replicated user operation: " + operation);
+        }
+    }
+
+    private void applyFriendRequest(String senderId, String receiverId) {
+        locks.lock(senderId, receiverId);
+        try {
+            List<String> friends = friendships.get(senderId);
+            List<String> requests = pendingFriendRequests.computeIfAbsent(receiverId, k -> new CopyOnWriteArrayList<>());
+            if ((friends != null && friends.contains(receiverId)) || requests.contains(senderId)) {
+                return;
+            }
+            requests.add(senderId);
+        } finally {
+            locks.unlock(senderId, receiverId);
+        }
+        listVersions.bump(ListVersions.Kind.PENDING, receiverId);
+        friendRequestsSaver.save();
+    }
+
+    private void applyFriendship(String userId1, String userId2) {
+        boolean changed = false;
+        locks.lock(userId1, userId2);
+        try {
+            // 双方之间的好友请求随之失效
+            for (String[] pair : new String[][] {{userId1, userId2}, {userId2, userId1}}) {
+                List<String> requests = pendingFriendRequests.get(pair[0]);
+                if (requests != null && requests.remove(pair[1])) {
+                    listVersions.bump(ListVersions.Kind.PENDING, pair[0]);
+                    friendRequestsSaver.save();
+                }
+                List<String> friends = friendships.computeIfAbsent(pair[0], k -> new CopyOnWriteArrayList<>());
+                if (!friends.contains(pair[1])) {
+                    friends.add(pair[1]);
+                    changed = true;
+                }
+            }
+        } finally {
+            locks.unlock(userId1, userId2);
+        }
+        if (changed) {
+            listVersions.bump(ListVersions.Kind.FRIENDS, userId1);
+            listVersions.bump(ListVersions.Kind.FRIENDS, userId2);
+            friendshipsSaver.save();
+        }
+    }
+
+    private void applyRemoveRequest(String receiverId, String senderId) {
+        locks.lock(receiverId);
+        try {
+            List<String> requests = pendingFriendRequests.get(receiverId);
+            if (requests == null || !requests.remove(senderId)) {
+                return;
+            }
+        } finally {
+            locks.unlock(receiverId);
+        }
+        listVersions.bump(ListVersions.Kind.PENDING, receiverId);
+        friendRequestsSaver.save();
+    }
+
+    private void applyRemoveFriendship(String userId1, String userId2) {
+        boolean changed = false;
+        locks.lock(userId1, userId2);
+        try {
+            for (String[] pair : new String[][] {{userId1, userId2}, {userId2, userId1}}) {
+                List<String> friends = friendships.get(pair[0]);
+                if (friends != null && friends.remove(pair[1])) {
+                    changed = true;
+                    if (friends.isEmpty()) {
+                        friendships.remove(pair[0]);
+                    }
+                }
+            }
+        } finally {
+            locks.unlock(userId1, userId2);
+        }
+        if (changed) {
+            listVersions.bump(ListVersions.Kind.FRIENDS, userId1);
+            listVersions.bump(ListVersions.Kind.FRIENDS, userId2);
+            friendshipsSaver.save();
+        }
+    }
+}